@@ -39,6 +39,11 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+
+    testOptions {
+        // android.util.Log and the like do nothing in local unit tests instead of throwing
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -88,6 +93,9 @@ dependencies {
     implementation("com.squareup.okhttp3:okhttp:4.11.0")
 
     testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.11.0")
+    // The org.json in android.jar is a stub in local unit tests
+    testImplementation("org.json:json:20231013")
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
 }
\ No newline at end of file
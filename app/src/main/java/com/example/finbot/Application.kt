@@ -1,6 +1,8 @@
 package com.example.finbot
 
 import android.app.Application
+import com.example.finbot.data.PrefetchScheduler
+import com.example.finbot.network.WriteQueue
 import com.example.finbot.util.ThemeManager
 
 class FinBotApplication : Application() {
@@ -8,5 +10,9 @@ class FinBotApplication : Application() {
         super.onCreate()
         // Apply theme at app startup
         ThemeManager.applyTheme(this)
+        // Picks up writes queued in an earlier session and sends them once online
+        WriteQueue.getInstance(this)
+        // Fills the caches behind the main screens in the background, depending on the network
+        PrefetchScheduler.getInstance(this)
     }
 }
\ No newline at end of file
@@ -9,19 +9,14 @@ import android.widget.TextView
 import android.widget.Toast
 import androidx.activity.enableEdgeToEdge
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
+import com.example.finbot.network.ApiClient
 import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import com.google.android.material.textfield.TextInputLayout
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import org.json.JSONObject
-import java.io.BufferedReader
-import java.io.BufferedWriter
-import java.io.InputStreamReader
-import java.io.OutputStreamWriter
-import java.net.HttpURLConnection
-import java.net.URL
 
 class ForgetPassword : AppCompatActivity() {
 
@@ -39,6 +34,8 @@ class ForgetPassword : AppCompatActivity() {
     private var isOtpSent = false
     private var isOtpVerified = false
 
+    private val apiClient = ApiClient.getInstance()
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         enableEdgeToEdge()
@@ -80,7 +77,7 @@ class ForgetPassword : AppCompatActivity() {
 
             sendOtpBtn.isEnabled = false
             sendOtpBtn.text = "Sending..."
-            CoroutineScope(Dispatchers.IO).launch {
+            lifecycleScope.launch(Dispatchers.IO) {
                 sendPasswordResetOtp(email)
             }
         }
@@ -112,7 +109,7 @@ class ForgetPassword : AppCompatActivity() {
 
             submitBtn.isEnabled = false
             submitBtn.text = "Updating..."
-            CoroutineScope(Dispatchers.IO).launch {
+            lifecycleScope.launch(Dispatchers.IO) {
                 updatePassword(email, newPassword)
             }
         }
@@ -155,44 +152,29 @@ class ForgetPassword : AppCompatActivity() {
 
     private fun sendPasswordResetOtp(email: String) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/otp/send/password-reset")
             val json = JSONObject().apply {
                 put("email", email)
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
-
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
-
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
-                } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
+            val result = apiClient.post("/api/otp/send/password-reset", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                runOnUiThread {
-                    sendOtpBtn.isEnabled = true
-                    if (responseCode == 200) {
-                        if (responseText.contains("User not found", ignoreCase = true)) {
-                            Toast.makeText(this@ForgetPassword, "Email not registered!", Toast.LENGTH_LONG).show()
-                            sendOtpBtn.text = "Send OTP"
-                        } else {
-                            Toast.makeText(this@ForgetPassword, "OTP sent successfully to your email!", Toast.LENGTH_SHORT).show()
-                            isOtpSent = true
-                            // Start OTP verification process
-                            startOtpVerification(email)
-                        }
-                    } else {
-                        Toast.makeText(this@ForgetPassword, responseText, Toast.LENGTH_LONG).show()
+            runOnUiThread {
+                sendOtpBtn.isEnabled = true
+                if (responseCode == 200) {
+                    if (responseText.contains("User not found", ignoreCase = true)) {
+                        Toast.makeText(this@ForgetPassword, "Email not registered!", Toast.LENGTH_LONG).show()
                         sendOtpBtn.text = "Send OTP"
+                    } else {
+                        Toast.makeText(this@ForgetPassword, "OTP sent successfully to your email!", Toast.LENGTH_SHORT).show()
+                        isOtpSent = true
+                        // Start OTP verification process
+                        startOtpVerification(email)
                     }
+                } else {
+                    Toast.makeText(this@ForgetPassword, responseText, Toast.LENGTH_LONG).show()
+                    sendOtpBtn.text = "Send OTP"
                 }
             }
         } catch (e: Exception) {
@@ -229,7 +211,7 @@ class ForgetPassword : AppCompatActivity() {
 
             verifyBtn.isEnabled = false
             verifyBtn.text = "Verifying..."
-            CoroutineScope(Dispatchers.IO).launch {
+            lifecycleScope.launch(Dispatchers.IO) {
                 verifyOtp(email, otpCode, dialog)
             }
         }
@@ -237,7 +219,7 @@ class ForgetPassword : AppCompatActivity() {
         resendBtn.setOnClickListener {
             resendBtn.isEnabled = false
             resendBtn.text = "Resending..."
-            CoroutineScope(Dispatchers.IO).launch {
+            lifecycleScope.launch(Dispatchers.IO) {
                 resendOtp(email, resendBtn)
             }
         }
@@ -247,44 +229,29 @@ class ForgetPassword : AppCompatActivity() {
 
     private fun verifyOtp(email: String, otpCode: String, dialog: androidx.appcompat.app.AlertDialog) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/otp/verify")
             val json = JSONObject().apply {
                 put("email", email)
                 put("otpCode", otpCode)
                 put("purpose", "PASSWORD_RESET")
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
+            val result = apiClient.post("/api/otp/verify", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
-
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
+            runOnUiThread {
+                if (responseCode == 200) {
+                    Toast.makeText(this@ForgetPassword, "OTP verified successfully!", Toast.LENGTH_SHORT).show()
+                    isOtpVerified = true
+                    dialog.dismiss()
+                    emailField.isEnabled = false
+                    sendOtpBtn.visibility = View.GONE
+                    showPasswordFields()
                 } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
-
-                runOnUiThread {
-                    if (responseCode == 200) {
-                        Toast.makeText(this@ForgetPassword, "OTP verified successfully!", Toast.LENGTH_SHORT).show()
-                        isOtpVerified = true
-                        dialog.dismiss()
-                        emailField.isEnabled = false
-                        sendOtpBtn.visibility = View.GONE
-                        showPasswordFields()
-                    } else {
-                        Toast.makeText(this@ForgetPassword, "Invalid or expired OTP", Toast.LENGTH_LONG).show()
-                        val verifyBtn = dialog.findViewById<Button>(R.id.verifyBtn)
-                        verifyBtn?.isEnabled = true
-                        verifyBtn?.text = "Verify OTP"
-                    }
+                    Toast.makeText(this@ForgetPassword, "Invalid or expired OTP", Toast.LENGTH_LONG).show()
+                    val verifyBtn = dialog.findViewById<Button>(R.id.verifyBtn)
+                    verifyBtn?.isEnabled = true
+                    verifyBtn?.text = "Verify OTP"
                 }
             }
         } catch (e: Exception) {
@@ -299,37 +266,22 @@ class ForgetPassword : AppCompatActivity() {
 
     private fun resendOtp(email: String, resendBtn: Button) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/otp/resend")
             val json = JSONObject().apply {
                 put("email", email)
                 put("purpose", "PASSWORD_RESET")
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
+            val result = apiClient.post("/api/otp/resend", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
-
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
+            runOnUiThread {
+                resendBtn.isEnabled = true
+                resendBtn.text = "Resend OTP"
+                if (responseCode == 200) {
+                    Toast.makeText(this@ForgetPassword, "OTP resent successfully!", Toast.LENGTH_SHORT).show()
                 } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
-
-                runOnUiThread {
-                    resendBtn.isEnabled = true
-                    resendBtn.text = "Resend OTP"
-                    if (responseCode == 200) {
-                        Toast.makeText(this@ForgetPassword, "OTP resent successfully!", Toast.LENGTH_SHORT).show()
-                    } else {
-                        Toast.makeText(this@ForgetPassword, responseText, Toast.LENGTH_LONG).show()
-                    }
+                    Toast.makeText(this@ForgetPassword, responseText, Toast.LENGTH_LONG).show()
                 }
             }
         } catch (e: Exception) {
@@ -349,47 +301,32 @@ class ForgetPassword : AppCompatActivity() {
 
             // For now, let's assume we have a password update endpoint
             // You'll need to add this to your backend
-            val url = URL("http://192.168.103.87:8082/api/users/update-password")
             val json = JSONObject().apply {
                 put("email", email)
                 put("newPassword", newPassword)
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "PUT"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
+            val result = apiClient.put("/api/users/update-password", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
+            runOnUiThread {
+                submitBtn.isEnabled = true
+                submitBtn.text = "Submit"
 
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
+                if (responseCode == 200) {
+                    Toast.makeText(this@ForgetPassword, "Password updated successfully!", Toast.LENGTH_LONG).show()
+
+                    // Navigate to login with the new credentials
+                    val intent = Intent(this@ForgetPassword, Login::class.java)
+                    intent.putExtra("email", email)
+                    intent.putExtra("password", newPassword)
+                    intent.putExtra("auto_fill", true)
+                    intent.putExtra("password_reset", true)
+                    startActivity(intent)
+                    finish()
                 } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
-
-                runOnUiThread {
-                    submitBtn.isEnabled = true
-                    submitBtn.text = "Submit"
-
-                    if (responseCode == 200) {
-                        Toast.makeText(this@ForgetPassword, "Password updated successfully!", Toast.LENGTH_LONG).show()
-
-                        // Navigate to login with the new credentials
-                        val intent = Intent(this@ForgetPassword, Login::class.java)
-                        intent.putExtra("email", email)
-                        intent.putExtra("password", newPassword)
-                        intent.putExtra("auto_fill", true)
-                        intent.putExtra("password_reset", true)
-                        startActivity(intent)
-                        finish()
-                    } else {
-                        Toast.makeText(this@ForgetPassword, "Failed to update password: $responseText", Toast.LENGTH_LONG).show()
-                    }
+                    Toast.makeText(this@ForgetPassword, "Failed to update password: $responseText", Toast.LENGTH_LONG).show()
                 }
             }
         } catch (e: Exception) {
@@ -7,13 +7,11 @@ import android.widget.EditText
 import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
-import kotlinx.coroutines.CoroutineScope
+import androidx.lifecycle.lifecycleScope
+import com.example.finbot.network.ApiClient
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import org.json.JSONObject
-import java.io.*
-import java.net.HttpURLConnection
-import java.net.URL
 
 class Login : AppCompatActivity() {
 
@@ -61,27 +59,15 @@ class Login : AppCompatActivity() {
     }
 
     private fun loginUser(email: String, password: String) {
-        CoroutineScope(Dispatchers.IO).launch {
+        lifecycleScope.launch(Dispatchers.IO) {
             try {
-                val url = URL("http://192.168.103.87:8082/api/users/login")
-                val conn = url.openConnection() as HttpURLConnection
-                conn.requestMethod = "POST"
-                conn.setRequestProperty("Content-Type", "application/json")
-                conn.doOutput = true
-
                 val jsonRequest = JSONObject()
                 jsonRequest.put("email", email)
                 jsonRequest.put("password", password)
 
-                val outputStream = DataOutputStream(conn.outputStream)
-                outputStream.writeBytes(jsonRequest.toString())
-                outputStream.flush()
-                outputStream.close()
-
-                val responseCode = conn.responseCode
-                val inputStream: InputStream =
-                    if (responseCode == 200) conn.inputStream else conn.errorStream
-                val response = inputStream.bufferedReader().use { it.readText() }
+                // Error responses come back in the body too, so a failed login shows the server's message
+                val result = ApiClient.getInstance().post("/api/users/login", jsonRequest.toString())
+                val response = result.body
 
                 runOnUiThread {
 
@@ -111,8 +97,6 @@ class Login : AppCompatActivity() {
                     }
 
                 }
-
-                conn.disconnect()
             } catch (e: Exception) {
                 runOnUiThread {
                     Toast.makeText(this@Login, "Login failed: ${e.message}", Toast.LENGTH_LONG)
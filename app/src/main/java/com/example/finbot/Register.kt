@@ -7,17 +7,12 @@ import android.widget.Button
 import android.widget.EditText
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
+import com.example.finbot.network.ApiClient
 import com.google.android.material.textfield.TextInputLayout
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import org.json.JSONObject
-import java.io.BufferedReader
-import java.io.BufferedWriter
-import java.io.InputStreamReader
-import java.io.OutputStreamWriter
-import java.net.HttpURLConnection
-import java.net.URL
 import android.util.Patterns
 
 class Register : AppCompatActivity() {
@@ -36,6 +31,8 @@ class Register : AppCompatActivity() {
     private var isOtpSent = false
     private var isOtpVerified = false
 
+    private val apiClient = ApiClient.getInstance()
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_register)
@@ -77,7 +74,7 @@ class Register : AppCompatActivity() {
                 // Send OTP
                 sendOtpBtn.isEnabled = false
                 sendOtpBtn.text = "Sending..."
-                CoroutineScope(Dispatchers.IO).launch {
+                lifecycleScope.launch(Dispatchers.IO) {
                     sendOtpRequest(email)
                 }
             } else {
@@ -90,7 +87,7 @@ class Register : AppCompatActivity() {
 
                 sendOtpBtn.isEnabled = false
                 sendOtpBtn.text = "Verifying..."
-                CoroutineScope(Dispatchers.IO).launch {
+                lifecycleScope.launch(Dispatchers.IO) {
                     verifyOtpRequest(email, otpCode)
                 }
             }
@@ -124,7 +121,7 @@ class Register : AppCompatActivity() {
 
             registerBtn.isEnabled = false
             registerBtn.text = "Registering..."
-            CoroutineScope(Dispatchers.IO).launch {
+            lifecycleScope.launch(Dispatchers.IO) {
                 sendRegisterRequest(name, email, password)
             }
         }
@@ -162,46 +159,31 @@ class Register : AppCompatActivity() {
 
     private fun sendOtpRequest(email: String) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/otp/send/registration")
             val json = JSONObject().apply {
                 put("email", email)
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
-
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
-
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
-                } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
+            val result = apiClient.post("/api/otp/send/registration", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                runOnUiThread {
-                    sendOtpBtn.isEnabled = true
-                    if (responseCode == 200) {
-                        // Check if response contains "already exists" message
-                        if (responseText.contains("already exists", ignoreCase = true)) {
-                            Toast.makeText(this@Register, "Email already registered!", Toast.LENGTH_LONG).show()
-                            sendOtpBtn.text = "Send OTP"
-                        } else {
-                            Toast.makeText(this@Register, "OTP sent successfully!", Toast.LENGTH_SHORT).show()
-                            isOtpSent = true
-                            showOtpField()
-                            sendOtpBtn.text = "Verify OTP"
-                            emailField.isEnabled = false // Disable email field after OTP is sent
-                        }
-                    } else {
-                        Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
+            runOnUiThread {
+                sendOtpBtn.isEnabled = true
+                if (responseCode == 200) {
+                    // Check if response contains "already exists" message
+                    if (responseText.contains("already exists", ignoreCase = true)) {
+                        Toast.makeText(this@Register, "Email already registered!", Toast.LENGTH_LONG).show()
                         sendOtpBtn.text = "Send OTP"
+                    } else {
+                        Toast.makeText(this@Register, "OTP sent successfully!", Toast.LENGTH_SHORT).show()
+                        isOtpSent = true
+                        showOtpField()
+                        sendOtpBtn.text = "Verify OTP"
+                        emailField.isEnabled = false // Disable email field after OTP is sent
                     }
+                } else {
+                    Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
+                    sendOtpBtn.text = "Send OTP"
                 }
             }
         } catch (e: Exception) {
@@ -215,42 +197,27 @@ class Register : AppCompatActivity() {
 
     private fun verifyOtpRequest(email: String, otpCode: String) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/otp/verify")
             val json = JSONObject().apply {
                 put("email", email)
                 put("otpCode", otpCode)
                 put("purpose", "REGISTRATION")
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
+            val result = apiClient.post("/api/otp/verify", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
-
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
+            runOnUiThread {
+                sendOtpBtn.isEnabled = true
+                if (responseCode == 200) {
+                    Toast.makeText(this@Register, "OTP verified successfully!", Toast.LENGTH_SHORT).show()
+                    isOtpVerified = true
+                    showRegistrationFields()
+                    sendOtpBtn.visibility = View.GONE
+                    otpLayout.visibility = View.GONE // Hide OTP field after verification
                 } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
-
-                runOnUiThread {
-                    sendOtpBtn.isEnabled = true
-                    if (responseCode == 200) {
-                        Toast.makeText(this@Register, "OTP verified successfully!", Toast.LENGTH_SHORT).show()
-                        isOtpVerified = true
-                        showRegistrationFields()
-                        sendOtpBtn.visibility = View.GONE
-                        otpLayout.visibility = View.GONE // Hide OTP field after verification
-                    } else {
-                        Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
-                        sendOtpBtn.text = "Verify OTP"
-                    }
+                    Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
+                    sendOtpBtn.text = "Verify OTP"
                 }
             }
         } catch (e: Exception) {
@@ -264,44 +231,29 @@ class Register : AppCompatActivity() {
 
     private fun sendRegisterRequest(username: String, email: String, password: String) {
         try {
-            val url = URL("http://192.168.103.87:8082/api/users/register")
             val json = JSONObject().apply {
                 put("username", username)
                 put("email", email)
                 put("password", password)
             }
 
-            with(url.openConnection() as HttpURLConnection) {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                doOutput = true
-
-                val writer = BufferedWriter(OutputStreamWriter(outputStream, "UTF-8"))
-                writer.write(json.toString())
-                writer.flush()
-                writer.close()
+            val result = apiClient.post("/api/users/register", json.toString())
+            val responseCode = result.code
+            val responseText = result.body
 
-                val responseCode = responseCode
-                val responseText = if (responseCode == 200) {
-                    BufferedReader(InputStreamReader(inputStream)).use { it.readText() }
-                } else {
-                    BufferedReader(InputStreamReader(errorStream)).use { it.readText() }
-                }
-
-                runOnUiThread {
-                    registerBtn.isEnabled = true
-                    registerBtn.text = "Register"
-                    Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
-
-                    if (responseCode == 200 && responseText.contains("success", ignoreCase = true)) {
-                        // Navigate to login page with auto-fill data
-                        val intent = Intent(this@Register, Login::class.java)
-                        intent.putExtra("email", email)
-                        intent.putExtra("password", password)
-                        intent.putExtra("auto_fill", true)
-                        startActivity(intent)
-                        finish() // Close register activity
-                    }
+            runOnUiThread {
+                registerBtn.isEnabled = true
+                registerBtn.text = "Register"
+                Toast.makeText(this@Register, responseText, Toast.LENGTH_LONG).show()
+
+                if (responseCode == 200 && responseText.contains("success", ignoreCase = true)) {
+                    // Navigate to login page with auto-fill data
+                    val intent = Intent(this@Register, Login::class.java)
+                    intent.putExtra("email", email)
+                    intent.putExtra("password", password)
+                    intent.putExtra("auto_fill", true)
+                    startActivity(intent)
+                    finish() // Close register activity
                 }
             }
         } catch (e: Exception) {
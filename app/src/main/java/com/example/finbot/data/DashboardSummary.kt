@@ -0,0 +1,59 @@
+package com.example.finbot.data
+
+import org.json.JSONObject
+
+// Everything the home and earning headers show, as one payload of /api/dashboard/summary:
+//   {"totalExpenses": 1250.5, "totalEarnings": 3000, "budget": 2000, "currency": 1,
+//    "notificationsEnabled": true, "reminderEnabled": false, "alertPercent": 80}
+// The budget fields are left out (or null) when the user has no budget record yet.
+data class DashboardSummary(
+    val totalExpenses: Double,
+    val totalEarnings: Double,
+    // False when the user hasn't saved budget settings; the fields below are then defaults
+    val hasBudgetRecord: Boolean,
+    // 0 when no budget is set
+    val budget: Double,
+    // Index into SharedPreferencesManager.getAvailableCurrencies()
+    val currencyIndex: Int,
+    val notificationsEnabled: Boolean,
+    val reminderEnabled: Boolean,
+    val alertPercent: Int
+) {
+
+    companion object {
+        // Same defaults the settings screen falls back to
+        private const val DEFAULT_ALERT_PERCENT = 80
+
+        fun fromJson(json: JSONObject): DashboardSummary {
+            return DashboardSummary(
+                totalExpenses = json.optDouble("totalExpenses", 0.0),
+                totalEarnings = json.optDouble("totalEarnings", 0.0),
+                hasBudgetRecord = !json.isNull("budget"),
+                budget = json.optDouble("budget", 0.0),
+                currencyIndex = json.optInt("currency", 0),
+                notificationsEnabled = json.optBoolean("notificationsEnabled", true),
+                reminderEnabled = json.optBoolean("reminderEnabled", false),
+                alertPercent = json.optInt("alertPercent", DEFAULT_ALERT_PERCENT)
+            )
+        }
+
+        // Stand-in from the budget record (/api/budget/get) and locally computed totals; settings
+        // is null when the user has no budget record
+        fun fromBudgetSettings(
+            settings: JSONObject?,
+            totalExpenses: Double,
+            totalEarnings: Double
+        ): DashboardSummary {
+            return DashboardSummary(
+                totalExpenses = totalExpenses,
+                totalEarnings = totalEarnings,
+                hasBudgetRecord = settings != null,
+                budget = settings?.optDouble("budget", 0.0) ?: 0.0,
+                currencyIndex = settings?.optInt("currency", 0) ?: 0,
+                notificationsEnabled = settings?.optBoolean("notificationsEnabled", true) ?: true,
+                reminderEnabled = settings?.optBoolean("reminderEnabled", false) ?: false,
+                alertPercent = settings?.optInt("alertPercent", DEFAULT_ALERT_PERCENT) ?: DEFAULT_ALERT_PERCENT
+            )
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.finbot.data
 
+import com.example.finbot.util.LedgerCodec
+
 data class ExpenseReportData(
     val totalExpenses: Double,
     val budgetLimit: Double,
@@ -22,5 +24,7 @@ data class ExpenseItem(
     val date: String,
     val time: String,
     val amount: Double,
-    val userId: String
+    val userId: String,
+    val epochDay: Int = LedgerCodec.parseEpochDay(date),
+    val amountMinor: Long = LedgerCodec.toMinorUnits(amount)
 )
\ No newline at end of file
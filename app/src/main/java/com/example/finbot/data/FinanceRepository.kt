@@ -0,0 +1,172 @@
+package com.example.finbot.data
+
+import android.content.Context
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import com.example.finbot.network.ApiClient
+import com.example.finbot.network.ApiResponse
+import com.example.finbot.network.HttpStatusException
+import com.example.finbot.network.TransactionSync
+import com.example.finbot.network.WriteQueue
+import com.example.finbot.util.LedgerCodec
+import com.example.finbot.util.SharedPreferencesManager
+import org.json.JSONObject
+import java.net.HttpURLConnection
+
+// What the screens read and write, in one place: the local journals and their delta sync, the
+// write queue, the dashboard summary behind the headers and the username.
+// Every call blocks; the ViewModels run them on their own IO dispatcher.
+class FinanceRepository private constructor(context: Context) {
+
+    companion object {
+        @Volatile
+        private var INSTANCE: FinanceRepository? = null
+
+        fun getInstance(context: Context): FinanceRepository {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: FinanceRepository(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+
+        // Answers meaning the backend has no summary endpoint, rather than a failed request
+        private val SUMMARY_MISSING_CODES = setOf(
+            HttpURLConnection.HTTP_NOT_FOUND,
+            HttpURLConnection.HTTP_BAD_METHOD,
+            HttpURLConnection.HTTP_NOT_IMPLEMENTED
+        )
+    }
+
+    private val sharedPrefsManager = SharedPreferencesManager.getInstance(context)
+    private val transactionSync = TransactionSync.getInstance(context)
+    private val writeQueue = WriteQueue.getInstance(context)
+    private val apiClient: ApiClient
+        get() = ApiClient.getInstance()
+
+    // Cleared the first time the backend turns out not to have the summary endpoint
+    @Volatile
+    private var summarySupported = true
+
+    // The local copy of the user's list, or null when the journal doesn't mirror this user
+    fun storedExpenses(userId: String): List<Expense>? {
+        return if (sharedPrefsManager.isExpenseMirrorOf(userId)) sharedPrefsManager.getExpenses() else null
+    }
+
+    fun storedEarnings(userId: String): List<Earning>? {
+        return if (sharedPrefsManager.isEarningMirrorOf(userId)) sharedPrefsManager.getEarnings() else null
+    }
+
+    // The local copy when it's as current as a sync would make it right now, else null. Never
+    // touches the network.
+    fun freshExpenses(userId: String): List<Expense>? {
+        return if (transactionSync.isExpenseJournalFresh(userId)) sharedPrefsManager.getExpenses() else null
+    }
+
+    // The list after syncing it with the backend, or null when the sync changed nothing
+    fun syncExpenses(userId: String): List<Expense>? {
+        return if (transactionSync.syncExpenses(userId)) sharedPrefsManager.getExpenses() else null
+    }
+
+    fun syncEarnings(userId: String): List<Earning>? {
+        return if (transactionSync.syncEarnings(userId)) sharedPrefsManager.getEarnings() else null
+    }
+
+    // Totals, budget, currency and alert settings in one round trip. Without the summary endpoint
+    // the budget record is read instead (cached like the settings screen reads it) and the totals
+    // are summed from the synced journals. Either way, queued writes the server hasn't seen yet
+    // are already counted.
+    fun dashboardSummary(userId: String): DashboardSummary {
+        if (summarySupported) {
+            // Cached like the lists; writes through ApiClient mark it stale straight away
+            val response = apiClient.get("/api/dashboard/summary?userId=$userId", ApiClient.LIST_MAX_AGE_MS)
+            if (response.isSuccessful) {
+                val summary = DashboardSummary.fromJson(response.requireJsonObject())
+                return summary.copy(
+                    totalExpenses = pendingExpenseTotal(userId) ?: summary.totalExpenses,
+                    totalEarnings = pendingEarningTotal(userId) ?: summary.totalEarnings
+                )
+            }
+            if (response.code !in SUMMARY_MISSING_CODES) {
+                throw HttpStatusException(response.code, "Dashboard summary failed with ${response.code}")
+            }
+            summarySupported = false
+        }
+        return localDashboardSummary(userId)
+    }
+
+    fun username(userId: String): ApiResponse {
+        return apiClient.get("/api/users/username/$userId", ApiClient.SETTINGS_MAX_AGE_MS)
+    }
+
+    // Logging out: the next account starts from empty journals. Writes still queued for this one
+    // keep going out, see WriteQueue.
+    fun signOut() {
+        sharedPrefsManager.releaseJournals()
+    }
+
+    fun addExpense(userId: String, expense: Expense): Expense = writeQueue.addExpense(userId, expense)
+
+    fun updateExpense(userId: String, oldExpense: Expense, newExpense: Expense) {
+        writeQueue.updateExpense(userId, oldExpense, newExpense)
+    }
+
+    fun deleteExpense(userId: String, expense: Expense) {
+        writeQueue.deleteExpense(userId, expense)
+    }
+
+    fun addEarning(userId: String, earning: Earning): Earning = writeQueue.addEarning(userId, earning)
+
+    fun updateEarning(userId: String, oldEarning: Earning, newEarning: Earning) {
+        writeQueue.updateEarning(userId, oldEarning, newEarning)
+    }
+
+    fun deleteEarning(userId: String, earning: Earning) {
+        writeQueue.deleteEarning(userId, earning)
+    }
+
+    private fun localDashboardSummary(userId: String): DashboardSummary {
+        val settings = apiClient.get("/api/budget/get?userId=$userId", ApiClient.SETTINGS_MAX_AGE_MS)
+        val budgetRecord = when {
+            settings.isSuccessful -> settings.jsonObject
+                ?: JSONObject().put("budget", settings.body.trim().toDoubleOrNull() ?: 0.0)
+            // No budget set for user
+            settings.code == HttpURLConnection.HTTP_NOT_FOUND -> null
+            else -> throw HttpStatusException(settings.code, "Budget fetch failed with ${settings.code}")
+        }
+        return DashboardSummary.fromBudgetSettings(budgetRecord, localExpenseTotal(userId), localEarningTotal(userId))
+    }
+
+    // The sync is cheap when recent: it only fetches what changed, and nothing within its TTL
+    private fun localExpenseTotal(userId: String): Double {
+        transactionSync.syncExpenses(userId)
+        return storedExpenseTotal(userId) ?: serverTotal("/api/expenses/total?userId=$userId")
+    }
+
+    private fun localEarningTotal(userId: String): Double {
+        transactionSync.syncEarnings(userId)
+        return storedEarningTotal(userId) ?: serverTotal("/api/earnings/total?userId=$userId")
+    }
+
+    // Only reached when the journal doesn't mirror the user, e.g. while a queued write holds back
+    // their first sync
+    private fun serverTotal(path: String): Double {
+        val result = apiClient.get(path)
+        return if (result.code == HttpURLConnection.HTTP_OK) result.body.toDoubleOrNull() ?: 0.0 else 0.0
+    }
+
+    // The local total while edits are still queued, since the server's doesn't include them yet
+    private fun pendingExpenseTotal(userId: String): Double? {
+        return if (writeQueue.hasPending(WriteQueue.EXPENSE, userId)) storedExpenseTotal(userId) else null
+    }
+
+    private fun pendingEarningTotal(userId: String): Double? {
+        return if (writeQueue.hasPending(WriteQueue.EARNING, userId)) storedEarningTotal(userId) else null
+    }
+
+    private fun storedExpenseTotal(userId: String): Double? {
+        return storedExpenses(userId)?.let { expenses -> LedgerCodec.toMajorUnits(expenses.sumOf { it.amountMinor }) }
+    }
+
+    private fun storedEarningTotal(userId: String): Double? {
+        return storedEarnings(userId)?.let { earnings -> LedgerCodec.toMajorUnits(earnings.sumOf { it.amountMinor }) }
+    }
+}
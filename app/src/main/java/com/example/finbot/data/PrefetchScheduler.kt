@@ -0,0 +1,176 @@
+package com.example.finbot.data
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.Handler
+import android.os.Looper
+import android.os.PowerManager
+import com.example.finbot.network.ApiClient
+import com.example.finbot.util.NetworkUtils
+import com.example.finbot.util.NetworkUtils.ConnectionType
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+
+// Warms the local journals and the ApiClient cache in the background, so the home, stats and
+// earning screens and the PDF report find their data already there on the first visit.
+//
+// Driven by NetworkUtils.connectionType and the screen state. Whenever a link comes up, the small
+// summary and username calls go out. Everything else (both list syncs and the report's budget
+// and account records) waits for an unmetered Wi-Fi or Ethernet link and an idle device, taken
+// to mean the screen is off: then nothing the user is doing competes with it, and the data is
+// there when they come back. If the screen is already off when such a link comes up it all goes
+// out at once; otherwise it goes out when the screen turns off, and stops when it turns on.
+// A run starts once the link (or screen) has been steady for SETTLE_DELAY_MS, which also leaves
+// the screen opened at launch to load first. Steps run one at a time and each one fails on its own.
+class PrefetchScheduler private constructor(context: Context) {
+
+    companion object {
+        private const val SETTLE_DELAY_MS = 3_000L
+
+        @Volatile
+        private var INSTANCE: PrefetchScheduler? = null
+
+        fun getInstance(context: Context): PrefetchScheduler {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: PrefetchScheduler(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private enum class Tier { LIGHT, FULL }
+
+    private val appContext = context
+    private val repository = FinanceRepository.getInstance(context)
+    private val apiClient: ApiClient
+        get() = ApiClient.getInstance()
+
+    private val powerManager = context.getSystemService(Context.POWER_SERVICE) as PowerManager?
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var scheduled: Job? = null
+    // The most the current link allows; null while offline. Main thread only
+    private var linkTier: Tier? = null
+
+    // When each tier last completed, and for whom. Within the list TTL the screens would be
+    // served from what that run fetched anyway, so running again only costs traffic.
+    private val lastRunAt = LongArray(Tier.values().size)
+    private val lastRunUser = arrayOfNulls<String>(Tier.values().size)
+
+    init {
+        // NetworkUtils sets its LiveData when created, and LiveData is observed on the main thread
+        Handler(Looper.getMainLooper()).post {
+            val utils = NetworkUtils.getInstance(context)
+            utils.connectionType.observeForever { type -> onConnectionChanged(utils, type) }
+            // Registered on the main thread, so onReceive runs there too
+            context.registerReceiver(object : BroadcastReceiver() {
+                override fun onReceive(receiverContext: Context, intent: Intent) {
+                    onScreenChanged(intent.action == Intent.ACTION_SCREEN_OFF)
+                }
+            }, IntentFilter().apply {
+                addAction(Intent.ACTION_SCREEN_OFF)
+                addAction(Intent.ACTION_SCREEN_ON)
+            })
+        }
+    }
+
+    // Main thread only, like the LiveData callback it comes from
+    private fun onConnectionChanged(utils: NetworkUtils, type: ConnectionType?) {
+        linkTier = when (type) {
+            null, ConnectionType.NONE -> null
+            ConnectionType.WIFI, ConnectionType.ETHERNET -> if (utils.isMetered()) Tier.LIGHT else Tier.FULL
+            ConnectionType.CELLULAR, ConnectionType.UNKNOWN -> Tier.LIGHT
+        }
+        // A new link replaces whatever was planned for the old one
+        val tier = linkTier
+        schedule(if (tier == Tier.FULL && !isDeviceIdle()) Tier.LIGHT else tier)
+    }
+
+    // Main thread only
+    private fun onScreenChanged(screenOff: Boolean) {
+        if (screenOff) {
+            if (linkTier == Tier.FULL) schedule(Tier.FULL)
+        } else {
+            // The user is back; the screens they open load for themselves
+            schedule(null)
+        }
+    }
+
+    // Replaces the planned run, if any; a run in progress stops at its next step
+    private fun schedule(tier: Tier?) {
+        scheduled?.cancel()
+        scheduled = null
+        if (tier == null) return
+        scheduled = scope.launch {
+            delay(SETTLE_DELAY_MS)
+            run(tier)
+        }
+    }
+
+    private fun isDeviceIdle(): Boolean {
+        return powerManager?.isInteractive == false
+    }
+
+    private suspend fun run(tier: Tier) {
+        val userId = sessionUserId()
+        if (userId.isEmpty()) return
+        if (isWarm(tier, userId)) return
+
+        // Light: the screen headers
+        step { repository.dashboardSummary(userId) }
+        step { repository.username(userId) }
+
+        if (tier == Tier.FULL) {
+            // Home and stats read the expense journal, earnings and stats the earning one
+            step { repository.syncExpenses(userId) }
+            step { repository.syncEarnings(userId) }
+            // Same requests and TTL the report makes; its expense list is the journal above
+            step { apiClient.get("/api/budget/get?userId=$userId", ApiClient.SETTINGS_MAX_AGE_MS) }
+            step { apiClient.get("/api/users/$userId", ApiClient.SETTINGS_MAX_AGE_MS) }
+        }
+
+        synchronized(lastRunAt) {
+            // A full run covers the light calls too
+            for (covered in Tier.values()) {
+                if (covered <= tier) {
+                    lastRunAt[covered.ordinal] = System.currentTimeMillis()
+                    lastRunUser[covered.ordinal] = userId
+                }
+            }
+        }
+    }
+
+    private fun isWarm(tier: Tier, userId: String): Boolean {
+        synchronized(lastRunAt) {
+            return lastRunUser[tier.ordinal] == userId &&
+                System.currentTimeMillis() - lastRunAt[tier.ordinal] < ApiClient.LIST_MAX_AGE_MS
+        }
+    }
+
+    // The calls block and some write the journals, so they aren't interrupted; cancellation is
+    // checked between them instead
+    private suspend fun step(call: () -> Any?) {
+        currentCoroutineContext().ensureActive()
+        try {
+            call()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // Nothing waits on a prefetch; the screen makes the same call itself on its visit
+            e.printStackTrace()
+        }
+    }
+
+    private fun sessionUserId(): String {
+        val sharedPref = appContext.getSharedPreferences("user_session", Context.MODE_PRIVATE)
+        return sharedPref.getString("user_id", "") ?: ""
+    }
+}
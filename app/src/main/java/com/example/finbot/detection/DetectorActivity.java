@@ -39,7 +39,10 @@ import com.example.finbot.detection.env.BorderedText;
 import com.example.finbot.detection.env.ImageUtils;
 import com.example.finbot.detection.env.Logger;
 import com.example.finbot.detection.tflite.Classifier;
+import com.example.finbot.detection.tflite.DelegateConfig;
+import com.example.finbot.detection.tflite.DelegateManager;
 import com.example.finbot.detection.tflite.DetectorFactory;
+import com.example.finbot.detection.tflite.DetectorPool;
 import com.example.finbot.detection.tflite.YoloV5Classifier;
 import com.example.finbot.detection.tracking.MultiBoxTracker;
 
@@ -60,19 +63,23 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
 
-    private YoloV5Classifier detector;
+    // Several interpreters over the one model, so a few frames are in inference at a time
+    private volatile DetectorPool detectors;
     private TextRecognizer textRecognizer;
 
-    private long lastProcessingTimeMs;
+    private volatile long lastProcessingTimeMs;
     private Bitmap rgbFrameBitmap = null;
+    // Model input per pool slot, plus one for captures
+    private Bitmap[] croppedBitmaps = null;
     private Bitmap croppedBitmap = null;
     private Bitmap cropCopyBitmap = null;
     private Bitmap capturedBitmap = null; // Store captured image for OCR
 
-    private boolean computingDetection = false;
     private boolean isCapturing = false;
 
     private long timestamp = 0;
+    // Newest frame whose results reached the tracker; slower slots can finish older frames later
+    private long lastTrackedTimestamp = 0;
 
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
@@ -123,7 +130,23 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             final Canvas canvas = new Canvas(croppedBitmap);
             canvas.drawBitmap(capturedBitmap, frameToCropTransform, null);
 
-            final List<Classifier.Recognition> detectionResults = detector.recognizeImage(croppedBitmap);
+            // Null while the model is swapped; -1 when the pool closed while waiting for a free
+            // interpreter. Either way, try again once the new one is loaded
+            final DetectorPool pool = detectors;
+            final int slot = pool != null ? pool.acquire() : -1;
+            if (slot < 0) {
+                runOnUiThread(() -> {
+                    Toast.makeText(DetectorActivity.this, "Detector is not ready yet", Toast.LENGTH_SHORT).show();
+                    resetCaptureButton();
+                });
+                return;
+            }
+            final List<Classifier.Recognition> detectionResults;
+            try {
+                detectionResults = pool.get(slot).recognizeImage(croppedBitmap);
+            } finally {
+                pool.release(slot);
+            }
 
             // 2. Find regions of interest (ROIs) from object detection
             List<RectF> textRegions = extractTextRegions(detectionResults);
@@ -454,7 +477,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         final String modelString = modelStrings.get(modelIndex);
 
         try {
-            detector = DetectorFactory.getDetector(getAssets(), modelString);
+            detectors = new DetectorPool(DetectorFactory.getDetector(this, modelString),
+                    DetectorPool.defaultSize());
         } catch (final IOException e) {
             e.printStackTrace();
             LOGGER.e(e, "Exception initializing classifier!");
@@ -465,7 +489,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             finish();
         }
 
-        int cropSize = detector.getInputSize();
+        int cropSize = detectors.getInputSize();
 
         previewWidth = size.getWidth();
         previewHeight = size.getHeight();
@@ -475,7 +499,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
         rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+        createCroppedBitmaps(cropSize, detectors.size());
 
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
@@ -499,6 +523,58 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                 });
 
         tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+        if (DelegateManager.getInstance(this).getConfig(modelString) == null) {
+            runInBackground(() -> autotuneDelegate(modelString));
+        }
+    }
+
+    // First run of a model on this device: time the delegates once and move the pool onto the
+    // fastest. Detection holds off meanwhile so it doesn't skew the timings
+    private void autotuneDelegate(final String modelString) {
+        final DetectorPool pool = detectors;
+        if (pool == null) return;
+        final int maxThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / pool.size());
+
+        final DelegateConfig tuned;
+        final int[] slots = new int[pool.size()];
+        int held = 0;
+        try {
+            for (; held < slots.length; ++held) {
+                slots[held] = pool.acquire();
+                // Closed meanwhile
+                if (slots[held] < 0) return;
+            }
+            tuned = DelegateManager.getInstance(this).autotune(modelString, pool.get(0), maxThreads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            for (int i = 0; i < held; ++i) {
+                pool.release(slots[i]);
+            }
+        }
+
+        // The pool may have been closed or replaced meanwhile (onDestroy, a model switch); the choice
+        // is stored for next time either way, but the device picker is no longer this run's to set
+        if (pool != detectors) return;
+        try {
+            pool.forEach(detector -> detector.useDelegate(tuned));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (pool != detectors) return;
+        final DelegateConfig applied = pool.get(0).getDelegateConfig();
+        final String device = applied.getKind() == DelegateConfig.Kind.GPU ? "GPU"
+                : applied.getKind() == DelegateConfig.Kind.NNAPI ? "NNAPI" : "CPU";
+        final int deviceIndex = deviceStrings.indexOf(device);
+        currentDevice = deviceIndex;
+        currentNumThreads = applied.getNumThreads();
+        runOnUiThread(() -> {
+            deviceView.setItemChecked(deviceIndex, true);
+            threadsTextView.setText(String.valueOf(applied.getNumThreads()));
+        });
     }
 
     protected void updateActiveModel() {
@@ -517,10 +593,11 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             currentDevice = deviceIndex;
             currentNumThreads = numThreads;
 
-            // Disable classifier while updating
-            if (detector != null) {
-                detector.close();
-                detector = null;
+            // Disable classifier while updating; frames still in inference finish first
+            if (detectors != null) {
+                final DetectorPool oldDetectors = detectors;
+                detectors = null;
+                oldDetectors.close();
             }
 
             // Lookup names of parameters.
@@ -531,6 +608,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
             // Try to load model.
 
+            final YoloV5Classifier detector;
             try {
                 detector = DetectorFactory.getDetector(getAssets(), modelString);
                 // Customize the interpreter to the type of device we want to use.
@@ -546,20 +624,29 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                                 getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
                 toast.show();
                 finish();
+                return;
             }
 
 
-            if (device.equals("CPU")) {
-                detector.useCPU();
-            } else if (device.equals("GPU")) {
-                detector.useGpu();
-            } else if (device.equals("NNAPI")) {
-                detector.useNNAPI();
+            final DetectorPool pool = new DetectorPool(detector, DetectorPool.defaultSize());
+            try {
+                pool.forEach(slotDetector -> {
+                    if (device.equals("CPU")) {
+                        slotDetector.useCPU();
+                    } else if (device.equals("GPU")) {
+                        slotDetector.useGpu();
+                    } else if (device.equals("NNAPI")) {
+                        slotDetector.useNNAPI();
+                    }
+                    slotDetector.setNumThreads(numThreads);
+                });
+            } catch (InterruptedException e) {
+                pool.close();
+                return;
             }
-            detector.setNumThreads(numThreads);
 
-            int cropSize = detector.getInputSize();
-            croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+            int cropSize = pool.getInputSize();
+            createCroppedBitmaps(cropSize, pool.size());
 
             frameToCropTransform =
                     ImageUtils.getTransformationMatrix(
@@ -569,9 +656,19 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
             cropToFrameTransform = new Matrix();
             frameToCropTransform.invert(cropToFrameTransform);
+            detectors = pool;
         });
     }
 
+    private void createCroppedBitmaps(int cropSize, int slots) {
+        final Bitmap[] bitmaps = new Bitmap[slots];
+        for (int i = 0; i < bitmaps.length; ++i) {
+            bitmaps[i] = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+        }
+        croppedBitmaps = bitmaps;
+        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+    }
+
     @Override
     protected void processImage() {
         // Skip regular processing if we're capturing
@@ -584,18 +681,20 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         final long currTimestamp = timestamp;
         trackingOverlay.postInvalidate();
 
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
+        // A frame only goes in when an interpreter is free; the rest are dropped as before
+        final DetectorPool pool = detectors;
+        final int slot = pool != null ? pool.tryAcquire() : -1;
+        if (slot < 0) {
             readyForNextImage();
             return;
         }
-        computingDetection = true;
         LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
         rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
 
         readyForNextImage();
 
+        final Bitmap croppedBitmap = croppedBitmaps[slot];
         final Canvas canvas = new Canvas(croppedBitmap);
         canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
         // For examining the actual TF input.
@@ -603,62 +702,62 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             ImageUtils.saveBitmap(croppedBitmap);
         }
 
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        LOGGER.i("Running detection on image " + currTimestamp);
-                        final long startTime = SystemClock.uptimeMillis();
-                        final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-                        Log.e("CHECK", "run: " + results.size());
-
-                        cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        final Canvas canvas = new Canvas(cropCopyBitmap);
-                        final Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Style.STROKE);
-                        paint.setStrokeWidth(2.0f);
-
-                        float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                        switch (MODE) {
-                            case TF_OD_API:
-                                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                                break;
-                        }
-
-                        final List<Classifier.Recognition> mappedRecognitions =
-                                new LinkedList<Classifier.Recognition>();
-
-                        for (final Classifier.Recognition result : results) {
-                            final RectF location = result.getLocation();
-                            if (location != null && result.getConfidence() >= minimumConfidence) {
-                                canvas.drawRect(location, paint);
+        LOGGER.i("Running detection on image " + currTimestamp);
+        pool.run(slot, croppedBitmap, (ranSlot, results, inferenceMs) -> {
+            lastProcessingTimeMs = inferenceMs;
+
+            Log.e("CHECK", "run: " + results.size());
+
+            final Bitmap cropCopy = Bitmap.createBitmap(croppedBitmap);
+            cropCopyBitmap = cropCopy;
+            final Canvas copyCanvas = new Canvas(cropCopy);
+            final Paint paint = new Paint();
+            paint.setColor(Color.RED);
+            paint.setStyle(Style.STROKE);
+            paint.setStrokeWidth(2.0f);
+
+            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+            switch (MODE) {
+                case TF_OD_API:
+                    minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+                    break;
+            }
 
-                                cropToFrameTransform.mapRect(location);
+            final List<Classifier.Recognition> mappedRecognitions =
+                    new LinkedList<Classifier.Recognition>();
 
-                                result.setLocation(location);
-                                mappedRecognitions.add(result);
-                            }
-                        }
+            for (final Classifier.Recognition result : results) {
+                final RectF location = result.getLocation();
+                if (location != null && result.getConfidence() >= minimumConfidence) {
+                    copyCanvas.drawRect(location, paint);
 
-                        tracker.trackResults(mappedRecognitions, currTimestamp);
-                        trackingOverlay.postInvalidate();
+                    cropToFrameTransform.mapRect(location);
 
-                        computingDetection = false;
+                    result.setLocation(location);
+                    mappedRecognitions.add(result);
+                }
+            }
 
-                        runOnUiThread(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showFrameInfo(previewWidth + "x" + previewHeight);
-                                        showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                                        showInference(lastProcessingTimeMs + "ms");
-                                    }
-                                });
-                    }
-                });
+            synchronized (tracker) {
+                // Results of a frame older than what's already on screen would move boxes back
+                if (currTimestamp < lastTrackedTimestamp) {
+                    return;
+                }
+                lastTrackedTimestamp = currTimestamp;
+                tracker.trackResults(mappedRecognitions, currTimestamp);
+            }
+            trackingOverlay.postInvalidate();
+
+            runOnUiThread(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            showFrameInfo(previewWidth + "x" + previewHeight);
+                            showCropInfo(cropCopy.getWidth() + "x" + cropCopy.getHeight());
+                            showInference(lastProcessingTimeMs + "ms");
+                        }
+                    });
+        });
     }
 
     @Override
@@ -667,6 +766,11 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         if (textRecognizer != null) {
             textRecognizer.close();
         }
+        if (detectors != null) {
+            final DetectorPool oldDetectors = detectors;
+            detectors = null;
+            oldDetectors.close();
+        }
     }
 
     @Override
@@ -687,11 +791,21 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     protected void setUseNNAPI(final boolean isChecked) {
-        runInBackground(() -> detector.setUseNNAPI(isChecked));
+        runInBackground(() -> applyToDetectors(detector -> detector.setUseNNAPI(isChecked)));
     }
 
     @Override
     protected void setNumThreads(final int numThreads) {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+        runInBackground(() -> applyToDetectors(detector -> detector.setNumThreads(numThreads)));
+    }
+
+    private void applyToDetectors(DetectorPool.Action action) {
+        final DetectorPool pool = detectors;
+        if (pool == null) return;
+        try {
+            pool.forEach(action);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
\ No newline at end of file
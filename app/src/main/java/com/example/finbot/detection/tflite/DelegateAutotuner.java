@@ -0,0 +1,163 @@
+package com.example.finbot.detection.tflite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the fastest of several interpreter configurations by timing inferences with each.
+ *
+ * A candidate is opened, run a few times untimed (the first runs pay for delegate compilation and
+ * cold caches), then timed and scored by its median run. A candidate that fails to open or to run
+ * is skipped, and one whose timed runs are already well behind the best so far is cut short.
+ * The winner is kept in a {@link Store} under a key naming the model and device, so tuning only
+ * happens once.
+ *
+ * Nothing here depends on Android: the interpreters come from a {@link Backend} and the storage
+ * from a {@link Store}, so a CPU-only backend can drive it on a plain JVM.
+ */
+public class DelegateAutotuner {
+
+    public interface Backend {
+        /** An inference session for config; throws when config can't run the model here. */
+        Session open(DelegateConfig config) throws Exception;
+    }
+
+    public interface Session {
+        /** One inference on whatever input the session holds. */
+        void run() throws Exception;
+
+        void close();
+    }
+
+    public interface Store {
+        String get(String key);
+
+        void put(String key, String value);
+
+        void remove(String key);
+    }
+
+    /** The time of one candidate; medianNanos is -1 when it failed or was cut short. */
+    public static final class Timing {
+        public final DelegateConfig config;
+        public final long medianNanos;
+        public final String failure;
+
+        Timing(DelegateConfig config, long medianNanos, String failure) {
+            this.config = config;
+            this.medianNanos = medianNanos;
+            this.failure = failure;
+        }
+
+        @Override
+        public String toString() {
+            return config + " " + (medianNanos >= 0 ? medianNanos / 1000 + "us" : failure);
+        }
+    }
+
+    private static final int DEFAULT_WARMUP_RUNS = 2;
+    private static final int DEFAULT_TIMED_RUNS = 5;
+    // A candidate whose run takes this many times the best median can't win any more
+    private static final int CUTOFF_FACTOR = 3;
+
+    private final Store store;
+    private final int warmupRuns;
+    private final int timedRuns;
+    private final LongSupplier clock;
+
+    private final List<Timing> lastTimings = new ArrayList<Timing>();
+
+    public DelegateAutotuner(Store store) {
+        this(store, DEFAULT_WARMUP_RUNS, DEFAULT_TIMED_RUNS);
+    }
+
+    public DelegateAutotuner(Store store, int warmupRuns, int timedRuns) {
+        this(store, warmupRuns, timedRuns, System::nanoTime);
+    }
+
+    /** clock gives the time in nanoseconds; tests pass one that their fake sessions advance. */
+    DelegateAutotuner(Store store, int warmupRuns, int timedRuns, LongSupplier clock) {
+        this.store = store;
+        this.warmupRuns = Math.max(0, warmupRuns);
+        this.timedRuns = Math.max(1, timedRuns);
+        this.clock = clock;
+    }
+
+    /** The config stored under key, or null when none is (or it no longer parses). */
+    public DelegateConfig getStored(String key) {
+        return DelegateConfig.parse(store.get(key));
+    }
+
+    public void forget(String key) {
+        store.remove(key);
+    }
+
+    /**
+     * The stored config for key if there is one among candidates; otherwise times every candidate,
+     * stores the fastest and returns it. Null when no candidate could run at all.
+     */
+    public DelegateConfig select(String key, List<DelegateConfig> candidates, Backend backend) {
+        final DelegateConfig stored = getStored(key);
+        if (stored != null && candidates.contains(stored)) {
+            return stored;
+        }
+        final DelegateConfig best = tune(candidates, backend);
+        if (best != null) {
+            store.put(key, best.toString());
+        }
+        return best;
+    }
+
+    /** Times every candidate in order and returns the fastest, or null when none of them ran. */
+    public DelegateConfig tune(List<DelegateConfig> candidates, Backend backend) {
+        lastTimings.clear();
+        DelegateConfig best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (DelegateConfig config : candidates) {
+            final Timing timing = time(config, backend, bestNanos);
+            lastTimings.add(timing);
+            if (timing.medianNanos >= 0 && timing.medianNanos < bestNanos) {
+                best = config;
+                bestNanos = timing.medianNanos;
+            }
+        }
+        return best;
+    }
+
+    /** What the last {@link #tune} measured, in candidate order. */
+    public List<Timing> getLastTimings() {
+        return new ArrayList<Timing>(lastTimings);
+    }
+
+    private Timing time(DelegateConfig config, Backend backend, long bestNanos) {
+        final Session session;
+        try {
+            session = backend.open(config);
+        } catch (Exception | LinkageError e) {
+            return new Timing(config, -1, "failed to open: " + e);
+        }
+        try {
+            for (int i = 0; i < warmupRuns; ++i) {
+                session.run();
+            }
+            final long cutoff = bestNanos == Long.MAX_VALUE ? Long.MAX_VALUE : bestNanos * CUTOFF_FACTOR;
+            final long[] runs = new long[timedRuns];
+            for (int i = 0; i < timedRuns; ++i) {
+                final long start = clock.getAsLong();
+                session.run();
+                runs[i] = clock.getAsLong() - start;
+                if (runs[i] > cutoff) {
+                    return new Timing(config, -1, "cut short at " + runs[i] / 1000 + "us");
+                }
+            }
+            Arrays.sort(runs);
+            return new Timing(config, runs[timedRuns / 2], null);
+        } catch (Exception | LinkageError e) {
+            return new Timing(config, -1, "failed to run: " + e);
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.finbot.detection.tflite;
+
+/**
+ * How an interpreter runs a model: on the CPU, plain or through XNNPACK, or handed to the NNAPI
+ * or GPU delegate. The thread count is for the CPU, and with a delegate for whatever ops it
+ * leaves to the CPU.
+ *
+ * Kept as text such as "XNNPACK:2" by {@link #toString()} and read back by {@link #parse(String)}.
+ */
+public final class DelegateConfig {
+
+    public enum Kind {
+        CPU, XNNPACK, NNAPI, GPU
+    }
+
+    private final Kind kind;
+    private final int numThreads;
+
+    public DelegateConfig(Kind kind, int numThreads) {
+        this.kind = kind;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public static DelegateConfig cpu(int numThreads) {
+        return new DelegateConfig(Kind.CPU, numThreads);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public DelegateConfig withNumThreads(int numThreads) {
+        return new DelegateConfig(kind, numThreads);
+    }
+
+    /** The config written as "KIND:threads", or null when text isn't one. */
+    public static DelegateConfig parse(String text) {
+        if (text == null) return null;
+        final int colon = text.indexOf(':');
+        if (colon < 0) return null;
+        try {
+            final Kind kind = Kind.valueOf(text.substring(0, colon));
+            final int numThreads = Integer.parseInt(text.substring(colon + 1));
+            return numThreads > 0 ? new DelegateConfig(kind, numThreads) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind.name() + ":" + numThreads;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DelegateConfig)) return false;
+        final DelegateConfig other = (DelegateConfig) o;
+        return kind == other.kind && numThreads == other.numThreads;
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode() * 31 + numThreads;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.finbot.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.example.finbot.detection.env.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers, per model and device, which interpreter configuration runs detection fastest, and
+ * finds it the first time a model is used by timing each candidate with a
+ * {@link DelegateAutotuner}.
+ *
+ * The key holds the build fingerprint, so a system update (new GPU driver or NNAPI
+ * implementation) tunes again. A stored config that stops working is forgotten by
+ * {@link DetectorFactory} once the classifier has fallen back to the CPU.
+ */
+public class DelegateManager {
+
+    private static final Logger LOGGER = new Logger();
+
+    private static final String PREFS_NAME = "detector_delegates";
+    // Bump when the candidates or the timing change, so earlier choices are made again
+    private static final int TUNING_VERSION = 1;
+
+    private static volatile DelegateManager INSTANCE;
+
+    public static DelegateManager getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (DelegateManager.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DelegateManager(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final DelegateAutotuner autotuner;
+
+    private DelegateManager(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        autotuner = new DelegateAutotuner(new DelegateAutotuner.Store() {
+            @Override
+            public String get(String key) {
+                return prefs.getString(key, null);
+            }
+
+            @Override
+            public void put(String key, String value) {
+                prefs.edit().putString(key, value).apply();
+            }
+
+            @Override
+            public void remove(String key) {
+                prefs.edit().remove(key).apply();
+            }
+        });
+    }
+
+    /** The tuned config for modelFilename on this device, or null until it has been tuned. */
+    public DelegateConfig getConfig(String modelFilename) {
+        return autotuner.getStored(keyFor(modelFilename));
+    }
+
+    public void forget(String modelFilename) {
+        autotuner.forget(keyFor(modelFilename));
+    }
+
+    /**
+     * Times the candidates for up to maxThreads CPU threads on copies of prototype and stores the
+     * fastest for modelFilename; returns the stored one straight away when there is one. Takes a
+     * few seconds on a first run, so call it off the main thread, with nothing else inferring.
+     * Falls back to a single CPU thread when nothing could be timed.
+     */
+    public DelegateConfig autotune(String modelFilename, final YoloV5Classifier prototype, int maxThreads) {
+        final DelegateConfig best = autotuner.select(keyFor(modelFilename), candidates(maxThreads),
+                config -> {
+                    final YoloV5Classifier detector = prototype.copy(config);
+                    return new DelegateAutotuner.Session() {
+                        @Override
+                        public void run() {
+                            detector.runInference();
+                        }
+
+                        @Override
+                        public void close() {
+                            detector.close();
+                        }
+                    };
+                });
+        for (DelegateAutotuner.Timing timing : autotuner.getLastTimings()) {
+            LOGGER.i("Delegate timing for %s: %s", modelFilename, timing);
+        }
+        LOGGER.i("Delegate for %s: %s", modelFilename, best);
+        return best != null ? best : YoloV5Classifier.DEFAULT_DELEGATE;
+    }
+
+    /** CPU with 1 to maxThreads threads, XNNPACK, NNAPI and GPU, in that order. */
+    static List<DelegateConfig> candidates(int maxThreads) {
+        final int threads = Math.max(1, maxThreads);
+        final List<DelegateConfig> candidates = new ArrayList<DelegateConfig>();
+        for (int i = 1; i <= threads; ++i) {
+            candidates.add(DelegateConfig.cpu(i));
+        }
+        candidates.add(new DelegateConfig(DelegateConfig.Kind.XNNPACK, threads));
+        candidates.add(new DelegateConfig(DelegateConfig.Kind.NNAPI, 1));
+        candidates.add(new DelegateConfig(DelegateConfig.Kind.GPU, 1));
+        return candidates;
+    }
+
+    private static String keyFor(String modelFilename) {
+        return keyFor(modelFilename, Build.FINGERPRINT);
+    }
+
+    /** The store key for a model on a device, given by its build fingerprint. */
+    static String keyFor(String modelFilename, String fingerprint) {
+        return TUNING_VERSION + "|" + modelFilename + "|" + fingerprint;
+    }
+}
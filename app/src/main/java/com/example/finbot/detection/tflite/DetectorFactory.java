@@ -1,5 +1,6 @@
 package com.example.finbot.detection.tflite;
 
+import android.content.Context;
 import android.content.res.AssetManager;
 
 import java.io.IOException;
@@ -9,6 +10,33 @@ public class DetectorFactory {
             final AssetManager assetManager,
             final String modelFilename)
             throws IOException {
+        return getDetector(assetManager, modelFilename, YoloV5Classifier.DEFAULT_DELEGATE);
+    }
+
+    /**
+     * A detector on the delegate tuned for this model and device, or on the default one until
+     * {@link DelegateManager#autotune} has run. A tuned delegate that no longer works is
+     * forgotten, so the next autotune picks again.
+     */
+    public static YoloV5Classifier getDetector(
+            final Context context,
+            final String modelFilename)
+            throws IOException {
+        final DelegateManager delegates = DelegateManager.getInstance(context);
+        final DelegateConfig tuned = delegates.getConfig(modelFilename);
+        final YoloV5Classifier detector = getDetector(context.getAssets(), modelFilename,
+                tuned != null ? tuned : YoloV5Classifier.DEFAULT_DELEGATE);
+        if (tuned != null && !tuned.equals(detector.getDelegateConfig())) {
+            delegates.forget(modelFilename);
+        }
+        return detector;
+    }
+
+    public static YoloV5Classifier getDetector(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final DelegateConfig delegate)
+            throws IOException {
         String labelFilename = null;
         boolean isQuantized = false;
         int inputSize = 0;
@@ -47,7 +75,7 @@ public class DetectorFactory {
             };
         }
         return YoloV5Classifier.create(assetManager, modelFilename, labelFilename, isQuantized,
-                inputSize);
+                inputSize, delegate);
     }
 
 }
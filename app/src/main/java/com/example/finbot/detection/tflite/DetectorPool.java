@@ -0,0 +1,208 @@
+package com.example.finbot.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import com.example.finbot.detection.env.Logger;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several classifiers over one memory-mapped model, so that several frames can be in inference
+ * at once instead of one interpreter working through them in turn.
+ *
+ * Each slot is a classifier with its own interpreter, input and output buffers. A caller takes
+ * an idle slot with {@link #tryAcquire()} (or waits for one with {@link #acquire()}), fills
+ * whatever input it keeps for that slot, and either runs it itself or hands it to
+ * {@link #run(int, Bitmap, Callback)}, which infers on the pool's own threads and frees the slot
+ * when the callback returns. Frames finish out of order when slots differ in speed.
+ */
+public class DetectorPool {
+
+    private static final Logger LOGGER = new Logger();
+
+    public interface Callback {
+        /** Called on a pool thread; the slot stays taken until this returns. */
+        void onResults(int slot, List<Classifier.Recognition> results, long inferenceMs);
+    }
+
+    /** A slot per two cores, up to three: each interpreter holds its own tensors in memory. */
+    public static int defaultSize() {
+        return Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+    // How often a waiting acquire() checks whether the pool is closing
+    private static final long ACQUIRE_POLL_MS = 100;
+
+    private final YoloV5Classifier[] detectors;
+    private final BlockingQueue<Integer> idle;
+    // Which slots are out, so that releasing one twice can't put it in the idle queue twice
+    private final boolean[] taken;
+    private final ExecutorService executor;
+    private volatile boolean closed;
+
+    /** Takes ownership of first and adds size - 1 copies of it. */
+    public DetectorPool(YoloV5Classifier first, int size) {
+        final int slots = Math.max(1, size);
+        detectors = new YoloV5Classifier[slots];
+        idle = new ArrayBlockingQueue<Integer>(slots);
+        taken = new boolean[slots];
+        detectors[0] = first;
+        for (int i = 1; i < slots; ++i) {
+            detectors[i] = first.copy();
+        }
+        if (slots > 1) {
+            // The slots already use the cores; splitting each frame's preprocessing as well
+            // would only oversubscribe them
+            first.setPreprocessThreads(1);
+        }
+        for (int i = 0; i < slots; ++i) {
+            idle.add(i);
+        }
+        executor = Executors.newFixedThreadPool(slots, runnable -> {
+            Thread thread = new Thread(runnable, "DetectorPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOGGER.i("Detector pool with %d interpreters", slots);
+    }
+
+    public int size() {
+        return detectors.length;
+    }
+
+    public YoloV5Classifier get(int slot) {
+        return detectors[slot];
+    }
+
+    /** Input size of the model, the same for every slot. */
+    public int getInputSize() {
+        return detectors[0].getInputSize();
+    }
+
+    /** An idle slot, now taken, or -1 when all of them are busy or the pool is closing. */
+    public int tryAcquire() {
+        if (closed) return -1;
+        final Integer slot = idle.poll();
+        return slot != null ? markTaken(slot) : -1;
+    }
+
+    /** Waits for an idle slot and takes it, or returns -1 once the pool is closing. */
+    public int acquire() throws InterruptedException {
+        while (!closed) {
+            final Integer slot = idle.poll(ACQUIRE_POLL_MS, TimeUnit.MILLISECONDS);
+            if (slot != null) return markTaken(slot);
+        }
+        return -1;
+    }
+
+    /** Frees a taken slot; releasing a slot that is already idle does nothing. */
+    public void release(int slot) {
+        synchronized (taken) {
+            if (!taken[slot]) {
+                LOGGER.w("Slot %d released twice", slot);
+                return;
+            }
+            taken[slot] = false;
+        }
+        idle.add(slot);
+    }
+
+    private int markTaken(int slot) {
+        synchronized (taken) {
+            taken[slot] = true;
+        }
+        return slot;
+    }
+
+    /** Runs detection on input with the taken slot on a pool thread, then frees the slot. */
+    public void run(final int slot, final Bitmap input, final Callback callback) {
+        try {
+            executor.execute(() -> {
+                try {
+                    final long startTime = SystemClock.uptimeMillis();
+                    final List<Classifier.Recognition> results = detectors[slot].recognizeImage(input);
+                    callback.onResults(slot, results, SystemClock.uptimeMillis() - startTime);
+                } catch (RuntimeException e) {
+                    LOGGER.e(e, "Detection failed");
+                } finally {
+                    release(slot);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is closing; the frame is dropped
+            release(slot);
+        }
+    }
+
+    /**
+     * Applies a setting to every classifier, once none of them is running. Does nothing when the
+     * pool closes first.
+     */
+    public void forEach(Action action) throws InterruptedException {
+        final int slots = detectors.length;
+        final int[] held = new int[slots];
+        int count = 0;
+        try {
+            for (; count < slots; ++count) {
+                held[count] = acquire();
+                if (held[count] < 0) return;
+            }
+            for (YoloV5Classifier detector : detectors) {
+                action.apply(detector);
+            }
+        } finally {
+            for (int i = 0; i < count; ++i) {
+                release(held[i]);
+            }
+        }
+    }
+
+    public interface Action {
+        void apply(YoloV5Classifier detector);
+    }
+
+    /**
+     * Takes back every slot, waiting up to five seconds for the ones in use, then closes their
+     * classifiers. A slot that doesn't come back in time keeps its interpreter open: freeing it
+     * under a running inference would crash in native code.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        final boolean[] drained = new boolean[detectors.length];
+        final long deadline = SystemClock.uptimeMillis() + CLOSE_TIMEOUT_MS;
+        boolean interrupted = false;
+        for (int i = 0; i < detectors.length; ++i) {
+            Integer slot;
+            try {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                slot = interrupted || remaining <= 0
+                        ? idle.poll() : idle.poll(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                slot = idle.poll();
+            }
+            if (slot == null) break;
+            // Stays taken, so nothing acquires it again
+            drained[markTaken(slot)] = true;
+        }
+        for (int i = 0; i < detectors.length; ++i) {
+            if (drained[i]) {
+                detectors[i].close();
+            } else {
+                LOGGER.w("Slot %d still busy after %dms, leaving its interpreter open", i, CLOSE_TIMEOUT_MS);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.finbot.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns ARGB pixels into the model's input tensor (RGB, row-major, one value per channel).
+ *
+ * Every channel value is looked up in a 256-entry table built once per channel: normalized
+ * floats for float models, (v - mean) / std / scale + zeroPoint bytes for quantized ones. Rows
+ * are converted into a plain array and copied into the buffer in bulk.
+ * With more than one thread the image is split into row bands that convert in parallel; each
+ * band has its own scratch row and buffer view, so the bands share nothing.
+ */
+public class ImagePreprocessor {
+
+    private final int width;
+    private final int height;
+    private final boolean quantized;
+
+    // Indexed by channel (R, G, B), then by the 8-bit channel value
+    private final float[][] floatTables = new float[3][256];
+    private final byte[][] byteTables = new byte[3][256];
+
+    private final Band[] bands;
+    private final ExecutorService executor;
+
+    private int[] pixels;
+    private ByteBuffer output;
+
+    /**
+     * Mean and std are per channel (R, G, B). scale and zeroPoint are the input quantization of
+     * a quantized model and unused otherwise.
+     */
+    public ImagePreprocessor(int width, int height, boolean quantized,
+                             float[] mean, float[] std, float scale, int zeroPoint, int threads) {
+        this.width = width;
+        this.height = height;
+        this.quantized = quantized;
+        for (int c = 0; c < 3; ++c) {
+            for (int v = 0; v < 256; ++v) {
+                final float normalized = (v - mean[c]) / std[c];
+                floatTables[c][v] = normalized;
+                if (quantized) {
+                    byteTables[c][v] = (byte) (normalized / scale + zeroPoint);
+                }
+            }
+        }
+
+        final int bandCount = Math.max(1, Math.min(threads, height));
+        bands = new Band[bandCount];
+        for (int b = 0; b < bandCount; ++b) {
+            bands[b] = new Band(height * b / bandCount, height * (b + 1) / bandCount);
+        }
+        executor = bandCount > 1 ? Executors.newFixedThreadPool(bandCount - 1, runnable -> {
+            Thread thread = new Thread(runnable, "ImagePreprocessor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /** Same mean and std for every channel. */
+    public ImagePreprocessor(int width, int height, boolean quantized,
+                             float mean, float std, float scale, int zeroPoint, int threads) {
+        this(width, height, quantized, new float[]{mean, mean, mean}, new float[]{std, std, std},
+                scale, zeroPoint, threads);
+    }
+
+    /**
+     * Converts width * height ARGB pixels into output, which must be a native-order buffer of
+     * the model's input size; its position is left at 0.
+     */
+    public void convert(int[] pixels, ByteBuffer output) {
+        this.pixels = pixels;
+        if (this.output != output) {
+            this.output = output;
+            for (Band band : bands) band.attach(output);
+        }
+
+        if (executor == null) {
+            bands[0].call();
+        } else {
+            // The calling thread converts the first band itself while the pool does the rest
+            List<Future<Void>> pending = new ArrayList<Future<Void>>(bands.length - 1);
+            for (int b = 1; b < bands.length; ++b) {
+                pending.add(executor.submit(bands[b]));
+            }
+            bands[0].call();
+            try {
+                for (Future<Void> future : pending) future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Preprocessing interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Preprocessing failed", e.getCause());
+            }
+        }
+        output.rewind();
+    }
+
+    public void close() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    // Rows [firstRow, endRow) of the image
+    private class Band implements Callable<Void> {
+        private final int firstRow;
+        private final int endRow;
+        private final float[] floatRow = new float[width * 3];
+        private final byte[] byteRow = new byte[width * 3];
+        private FloatBuffer floatView;
+        private ByteBuffer byteView;
+
+        Band(int firstRow, int endRow) {
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        void attach(ByteBuffer output) {
+            if (quantized) {
+                byteView = output.duplicate();
+            } else {
+                output.rewind();
+                floatView = output.asFloatBuffer();
+            }
+        }
+
+        @Override
+        public Void call() {
+            final float[] red = floatTables[0];
+            final float[] green = floatTables[1];
+            final float[] blue = floatTables[2];
+            final byte[] redBytes = byteTables[0];
+            final byte[] greenBytes = byteTables[1];
+            final byte[] blueBytes = byteTables[2];
+
+            if (quantized) {
+                byteView.position(firstRow * width * 3);
+            } else {
+                floatView.position(firstRow * width * 3);
+            }
+            for (int y = firstRow; y < endRow; ++y) {
+                int p = y * width;
+                if (quantized) {
+                    for (int i = 0; i < byteRow.length; i += 3, ++p) {
+                        final int pixel = pixels[p];
+                        byteRow[i] = redBytes[(pixel >> 16) & 0xFF];
+                        byteRow[i + 1] = greenBytes[(pixel >> 8) & 0xFF];
+                        byteRow[i + 2] = blueBytes[pixel & 0xFF];
+                    }
+                    byteView.put(byteRow);
+                } else {
+                    for (int i = 0; i < floatRow.length; i += 3, ++p) {
+                        final int pixel = pixels[p];
+                        floatRow[i] = red[(pixel >> 16) & 0xFF];
+                        floatRow[i + 1] = green[(pixel >> 8) & 0xFF];
+                        floatRow[i + 2] = blue[pixel & 0xFF];
+                    }
+                    floatView.put(floatRow);
+                }
+            }
+            return null;
+        }
+    }
+}
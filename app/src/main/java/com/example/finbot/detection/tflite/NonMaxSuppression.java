@@ -0,0 +1,211 @@
+package com.example.finbot.detection.tflite;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Non-maximum suppression over boxes held in primitive arrays (left, top, right, bottom, score,
+ * class), shared by the YOLO classifiers.
+ *
+ * Candidates are sorted by score once; every kept box then suppresses the lower-scored boxes it
+ * overlaps by at least the IoU threshold. By default only boxes of the same class suppress each
+ * other, as the per-label loop this replaces did. Soft-NMS instead decays the scores of
+ * overlapping boxes (Gaussian, exp(-iou^2 / sigma)) and drops them once they fall below
+ * the minimum score.
+ *
+ * Scratch arrays grow to the largest input seen and are reused, so a run allocates nothing.
+ * Not thread-safe; each classifier owns one.
+ */
+public class NonMaxSuppression {
+
+    private float iouThreshold = 0.6f;
+    private boolean classAware = true;
+    private int maxDetections = Integer.MAX_VALUE;
+    // 0 means hard suppression
+    private float softSigma = 0f;
+    private float softMinScore = 0f;
+
+    private long[] sortKeys = new long[0];
+    private int[] order = new int[0];
+    private float[] areas = new float[0];
+    private float[] scores = new float[0];
+    private boolean[] removed = new boolean[0];
+
+    private int[] keptIndices = new int[0];
+    private float[] keptScores = new float[0];
+
+    // Used by apply(), for callers that have Recognitions rather than arrays
+    private float[] left = new float[0];
+    private float[] top = new float[0];
+    private float[] right = new float[0];
+    private float[] bottom = new float[0];
+    private float[] score = new float[0];
+    private int[] detectedClass = new int[0];
+
+    public void setIouThreshold(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    /** When false, boxes suppress each other regardless of class. */
+    public void setClassAware(boolean classAware) {
+        this.classAware = classAware;
+    }
+
+    /** Caps the number of boxes kept; the highest-scored ones win. */
+    public void setMaxDetections(int maxDetections) {
+        this.maxDetections = maxDetections;
+    }
+
+    /** Switches to Gaussian soft-NMS; a sigma of 0 goes back to hard suppression. */
+    public void setSoftNms(float sigma, float minScore) {
+        this.softSigma = sigma;
+        this.softMinScore = minScore;
+    }
+
+    /**
+     * Runs over the first {@code count} boxes and returns how many were kept. The kept boxes are
+     * then {@link #keptIndex(int)} (an index into the input arrays) with {@link #keptScore(int)},
+     * highest score first. The input arrays are not modified.
+     */
+    public int run(float[] left, float[] top, float[] right, float[] bottom,
+                   float[] score, int[] detectedClass, int count) {
+        ensureCapacity(count);
+        for (int i = 0; i < count; ++i) {
+            areas[i] = Math.max(0f, right[i] - left[i]) * Math.max(0f, bottom[i] - top[i]);
+        }
+        if (softSigma > 0f) {
+            return runSoft(left, top, right, bottom, score, detectedClass, count);
+        }
+
+        sortByScore(score, count);
+        Arrays.fill(removed, 0, count, false);
+        int kept = 0;
+        for (int a = 0; a < count && kept < maxDetections; ++a) {
+            final int i = order[a];
+            if (removed[i]) continue;
+            keptIndices[kept] = i;
+            keptScores[kept] = score[i];
+            kept++;
+            for (int b = a + 1; b < count; ++b) {
+                final int j = order[b];
+                if (removed[j] || (classAware && detectedClass[j] != detectedClass[i])) continue;
+                if (iou(left, top, right, bottom, i, j) >= iouThreshold) {
+                    removed[j] = true;
+                }
+            }
+        }
+        return kept;
+    }
+
+    public int keptIndex(int k) {
+        return keptIndices[k];
+    }
+
+    public float keptScore(int k) {
+        return keptScores[k];
+    }
+
+    /**
+     * Same as {@link #run} for a list of Recognitions; returns the kept ones, highest score
+     * first. With soft-NMS the decayed score is what the returned Recognitions carry.
+     */
+    public ArrayList<Classifier.Recognition> apply(List<Classifier.Recognition> detections) {
+        final int count = detections.size();
+        ensureInputCapacity(count);
+        for (int i = 0; i < count; ++i) {
+            final Classifier.Recognition detection = detections.get(i);
+            final RectF location = detection.getLocation();
+            left[i] = location.left;
+            top[i] = location.top;
+            right[i] = location.right;
+            bottom[i] = location.bottom;
+            score[i] = detection.getConfidence();
+            detectedClass[i] = detection.getDetectedClass();
+        }
+
+        final int kept = run(left, top, right, bottom, score, detectedClass, count);
+        final ArrayList<Classifier.Recognition> result = new ArrayList<Classifier.Recognition>(kept);
+        for (int k = 0; k < kept; ++k) {
+            final int i = keptIndices[k];
+            final Classifier.Recognition detection = detections.get(i);
+            if (keptScores[k] == score[i]) {
+                result.add(detection);
+            } else {
+                result.add(new Classifier.Recognition(detection.getId(), detection.getTitle(),
+                        keptScores[k], detection.getLocation(), detection.getDetectedClass()));
+            }
+        }
+        return result;
+    }
+
+    // Soft-NMS picks the best remaining box each round, since decaying changes the order
+    private int runSoft(float[] left, float[] top, float[] right, float[] bottom,
+                        float[] score, int[] detectedClass, int count) {
+        System.arraycopy(score, 0, scores, 0, count);
+        Arrays.fill(removed, 0, count, false);
+        int kept = 0;
+        while (kept < maxDetections) {
+            int best = -1;
+            for (int i = 0; i < count; ++i) {
+                if (!removed[i] && (best == -1 || scores[i] > scores[best])) best = i;
+            }
+            if (best == -1) break;
+            removed[best] = true;
+            keptIndices[kept] = best;
+            keptScores[kept] = scores[best];
+            kept++;
+            for (int j = 0; j < count; ++j) {
+                if (removed[j] || (classAware && detectedClass[j] != detectedClass[best])) continue;
+                final float overlap = iou(left, top, right, bottom, best, j);
+                if (overlap <= 0f) continue;
+                scores[j] *= (float) Math.exp(-(overlap * overlap) / softSigma);
+                if (scores[j] < softMinScore) removed[j] = true;
+            }
+        }
+        return kept;
+    }
+
+    // Scores are positive, so their float bits sort like the values; the index rides in the
+    // low half and keeps the sort on primitives
+    private void sortByScore(float[] score, int count) {
+        for (int i = 0; i < count; ++i) {
+            sortKeys[i] = ((long) Float.floatToIntBits(Math.max(score[i], 0f)) << 32) | i;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        for (int a = 0; a < count; ++a) {
+            order[a] = (int) sortKeys[count - 1 - a];
+        }
+    }
+
+    private float iou(float[] left, float[] top, float[] right, float[] bottom, int i, int j) {
+        final float w = Math.min(right[i], right[j]) - Math.max(left[i], left[j]);
+        final float h = Math.min(bottom[i], bottom[j]) - Math.max(top[i], top[j]);
+        if (w < 0 || h < 0) return 0f;
+        final float intersection = w * h;
+        return intersection / (areas[i] + areas[j] - intersection);
+    }
+
+    private void ensureCapacity(int count) {
+        if (order.length >= count) return;
+        sortKeys = new long[count];
+        order = new int[count];
+        areas = new float[count];
+        scores = new float[count];
+        removed = new boolean[count];
+        keptIndices = new int[count];
+        keptScores = new float[count];
+    }
+
+    private void ensureInputCapacity(int count) {
+        if (left.length >= count) return;
+        left = new float[count];
+        top = new float[count];
+        right = new float[count];
+        bottom = new float[count];
+        score = new float[count];
+        detectedClass = new int[count];
+    }
+}
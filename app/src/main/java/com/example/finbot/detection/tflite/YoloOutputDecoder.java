@@ -0,0 +1,151 @@
+package com.example.finbot.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Turns the raw YOLOv5 output tensor into candidate boxes, read in place from the interpreter's
+ * output buffer.
+ *
+ * Each row is x, y, w, h (normalized), objectness, then one score per class. Most rows are
+ * background, so objectness is checked before any class score is read: a row is skipped when its
+ * objectness is too low for any class score to lift it over the threshold. That bound only holds
+ * when the scores are sigmoid outputs in [0, 1]; a model exporting raw logits would lose
+ * detections to it. So the early exit is only taken once the outputs are known to be in range:
+ * for int8 models, when the output quantization can't represent much outside [0, 1]; for float
+ * models, after a first frame decoded in full found every score in [0, 1]. Rows that pass go into
+ * preallocated primitive arrays, one slot per output row at most, so decoding a frame allocates
+ * nothing. Float outputs are read through a FloatBuffer view, int8 ones dequantized byte by byte.
+ *
+ * Nothing here depends on Android, so it can be checked on a plain JVM.
+ */
+final class YoloOutputDecoder {
+
+    // How far an int8 output's range may reach past [0, 1], a few quantization steps, and still
+    // count as a sigmoid's
+    private static final float QUANTIZED_RANGE_SLACK = 0.05f;
+
+    private final ByteBuffer output;
+    private final FloatBuffer outputFloats;
+    private final boolean quantized;
+    private final float scale;
+    private final int zeroPoint;
+    private final int rows;
+    private final int numClass;
+    private final int inputSize;
+    private final float threshold;
+    // Rows whose objectness is at or below this can't reach threshold with any class
+    private final float objectnessFloor;
+    // Whether rows at or below objectnessFloor are skipped, i.e. the scores are known to be
+    // sigmoid outputs; rangeChecked once that has been decided
+    private boolean skipLowObjectness;
+    private boolean rangeChecked;
+
+    final float[] left;
+    final float[] top;
+    final float[] right;
+    final float[] bottom;
+    final float[] score;
+    final int[] classes;
+
+    /**
+     * output holds rows rows of numClass + 5 values for an inputSize square input; scale and
+     * zeroPoint are the output quantization and only matter when quantized.
+     */
+    YoloOutputDecoder(ByteBuffer output, int rows, int numClass, int inputSize,
+                      boolean quantized, float scale, int zeroPoint, float threshold) {
+        this.output = output;
+        this.outputFloats = quantized ? null : output.asFloatBuffer();
+        this.quantized = quantized;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.rows = rows;
+        this.numClass = numClass;
+        this.inputSize = inputSize;
+        this.threshold = threshold;
+        // With sigmoid scores, a class score can't lift objectness by more than the largest value
+        // the output can hold (1, or a little more once quantized)
+        final float maxScore = quantized ? Math.max(1f, scale * (255 - zeroPoint)) : 1f;
+        this.objectnessFloor = threshold / maxScore;
+        if (quantized) {
+            // Every int8 value dequantizes into this range, so it decides the question up front
+            skipLowObjectness = scale * -zeroPoint >= -QUANTIZED_RANGE_SLACK
+                    && scale * (255 - zeroPoint) <= 1 + QUANTIZED_RANGE_SLACK;
+            rangeChecked = true;
+        }
+        left = new float[rows];
+        top = new float[rows];
+        right = new float[rows];
+        bottom = new float[rows];
+        score = new float[rows];
+        classes = new int[rows];
+    }
+
+    /**
+     * Fills the candidate arrays with the rows scoring above the threshold, boxes clipped to
+     * imageWidth x imageHeight, and returns how many there are. Only the first classCount
+     * classes are considered.
+     */
+    int decode(int imageWidth, int imageHeight, int classCount) {
+        final int rowSize = numClass + 5;
+        final int classLimit = Math.min(numClass, classCount);
+        final boolean skipLow = skipLowObjectness;
+        final boolean checkRange = !rangeChecked;
+        boolean outOfRange = false;
+        int count = 0;
+        for (int i = 0, row = 0; i < rows; ++i, row += rowSize) {
+            final float confidence = valueAt(row + 4);
+            if (skipLow && confidence <= objectnessFloor) continue;
+            if (checkRange && !isProbability(confidence)) outOfRange = true;
+
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < classLimit; ++c) {
+                final float classScore = valueAt(row + 5 + c);
+                if (checkRange && !isProbability(classScore)) outOfRange = true;
+                if (classScore > maxClass) {
+                    detectedClass = c;
+                    maxClass = classScore;
+                }
+            }
+
+            final float confidenceInClass = maxClass * confidence;
+            if (confidenceInClass > threshold) {
+                // Denormalize xywh
+                final float xPos = valueAt(row) * inputSize;
+                final float yPos = valueAt(row + 1) * inputSize;
+                final float w = valueAt(row + 2) * inputSize;
+                final float h = valueAt(row + 3) * inputSize;
+
+                left[count] = Math.max(0, xPos - w / 2);
+                top[count] = Math.max(0, yPos - h / 2);
+                right[count] = Math.min(imageWidth - 1, xPos + w / 2);
+                bottom[count] = Math.min(imageHeight - 1, yPos + h / 2);
+                score[count] = confidenceInClass;
+                classes[count] = detectedClass;
+                count++;
+            }
+        }
+        if (checkRange) {
+            skipLowObjectness = !outOfRange;
+            rangeChecked = true;
+        }
+        return count;
+    }
+
+    /** Whether low-objectness rows are skipped, i.e. the scores are known to be sigmoid outputs. */
+    boolean skipsLowObjectness() {
+        return skipLowObjectness;
+    }
+
+    private static boolean isProbability(float value) {
+        return value >= 0f && value <= 1f;
+    }
+
+    private float valueAt(int index) {
+        if (quantized) {
+            return scale * ((output.get(index) & 0xFF) - zeroPoint);
+        }
+        return outputFloats.get(index);
+    }
+}
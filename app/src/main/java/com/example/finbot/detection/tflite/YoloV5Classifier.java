@@ -18,7 +18,6 @@ package com.example.finbot.detection.tflite;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.Build;
 import android.util.Log;
 
 import org.tensorflow.lite.Interpreter;
@@ -37,10 +36,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 public class YoloV5Classifier implements Classifier {
@@ -56,46 +53,61 @@ public class YoloV5Classifier implements Classifier {
             final int[][] masks,
             final int[] anchors*/)
             throws IOException {
-        final YoloV5Classifier d = new YoloV5Classifier();
+        return create(assetManager, modelFilename, labelFilename, isQuantized, inputSize, DEFAULT_DELEGATE);
+    }
 
+    /**
+     * As above, with the interpreter set up for delegate; a delegate that can't take the model
+     * on this device falls back to the CPU (see {@link #getDelegateConfig()}).
+     */
+    public static YoloV5Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final boolean isQuantized,
+            final int inputSize,
+            final DelegateConfig delegate)
+            throws IOException {
+        final Vector<String> labels = new Vector<String>();
         String actualFilename = labelFilename.split("file:///android_asset/")[1];
         InputStream labelsInput = assetManager.open(actualFilename);
         BufferedReader br = new BufferedReader(new InputStreamReader(labelsInput));
         String line;
         while ((line = br.readLine()) != null) {
             LOGGER.w(line);
-            d.labels.add(line);
+            labels.add(line);
         }
         br.close();
 
-        try {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                d.nnapiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    d.nnapiDelegate = new NnApiDelegate();
-                    options.addDelegate(d.nnapiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-//                    options.setUseNNAPI(false);
-//                    options.setAllowFp16PrecisionForFp32(true);
-//                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-            if (isGPU) {
-                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
-                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
-                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
-                d.gpuDelegate = new GpuDelegate(gpu_options);
-                options.addDelegate(d.gpuDelegate);
-            }
-            d.tfliteModel = Utils.loadModelFile(assetManager, modelFilename);
-            d.tfLite = new Interpreter(d.tfliteModel, options);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return create(Utils.loadModelFile(assetManager, modelFilename), labels, isQuantized, inputSize,
+                PREPROCESS_THREADS, delegate, false);
+    }
+
+    /**
+     * Another classifier over the same memory-mapped model and labels, with its own interpreter
+     * and buffers, so the two can run at the same time. Its preprocessing is single-threaded.
+     */
+    public YoloV5Classifier copy() {
+        return create(tfliteModel, labels, isModelQuantized, INPUT_SIZE, 1, delegateConfig, false);
+    }
+
+    /** A copy running exactly delegate, for timing it; throws instead of falling back. */
+    YoloV5Classifier copy(DelegateConfig delegate) {
+        return create(tfliteModel, labels, isModelQuantized, INPUT_SIZE, 1, delegate, true);
+    }
+
+    private static YoloV5Classifier create(
+            final MappedByteBuffer model,
+            final Vector<String> labels,
+            final boolean isQuantized,
+            final int inputSize,
+            final int preprocessThreads,
+            final DelegateConfig delegate,
+            final boolean strict) {
+        final YoloV5Classifier d = new YoloV5Classifier();
+        d.labels = labels;
+        d.tfliteModel = model;
+        d.openInterpreter(delegate, strict);
 
         d.isModelQuantized = isQuantized;
         // Pre-allocate buffers.
@@ -123,11 +135,16 @@ public class YoloV5Classifier implements Classifier {
             d.oup_zero_point = oupten.quantizationParams().getZeroPoint();
         }
 
+        d.preprocessor = new ImagePreprocessor(d.INPUT_SIZE, d.INPUT_SIZE, d.isModelQuantized,
+                d.IMAGE_MEAN, d.IMAGE_STD, d.inp_scale, d.inp_zero_point, preprocessThreads);
+
         int[] shape = d.tfLite.getOutputTensor(0).shape();
         int numClass = shape[shape.length - 1] - 5;
         d.numClass = numClass;
         d.outData = ByteBuffer.allocateDirect(d.output_box * (numClass + 5) * numBytesPerChannel);
         d.outData.order(ByteOrder.nativeOrder());
+        d.decoder = new YoloOutputDecoder(d.outData, d.output_box, numClass, d.INPUT_SIZE,
+                d.isModelQuantized, d.oup_scale, d.oup_zero_point, d.getObjThresh());
         return d;
     }
 
@@ -145,21 +162,24 @@ public class YoloV5Classifier implements Classifier {
 
     @Override
     public void close() {
-        tfLite.close();
-        tfLite = null;
-        if (gpuDelegate != null) {
-            gpuDelegate.close();
-            gpuDelegate = null;
-        }
-        if (nnapiDelegate != null) {
-            nnapiDelegate.close();
-            nnapiDelegate = null;
-        }
+        closeInterpreter();
         tfliteModel = null;
+        if (preprocessor != null) {
+            preprocessor.close();
+            preprocessor = null;
+        }
     }
 
     public void setNumThreads(int num_threads) {
         if (tfLite != null) tfLite.setNumThreads(num_threads);
+        delegateConfig = delegateConfig.withNumThreads(num_threads);
+    }
+
+    /** Row bands preprocessing is split into; 1 when several classifiers run side by side. */
+    public void setPreprocessThreads(int threads) {
+        if (preprocessor != null) preprocessor.close();
+        preprocessor = new ImagePreprocessor(INPUT_SIZE, INPUT_SIZE, isModelQuantized,
+                IMAGE_MEAN, IMAGE_STD, inp_scale, inp_zero_point, threads);
     }
 
     @Override
@@ -167,29 +187,76 @@ public class YoloV5Classifier implements Classifier {
 //        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
     }
 
-    private void recreateInterpreter() {
-        if (tfLite != null) {
-            tfLite.close();
-            tfLite = new Interpreter(tfliteModel, tfliteOptions);
-        }
+    /** What the interpreter runs on now, after any fallback to the CPU. */
+    public DelegateConfig getDelegateConfig() {
+        return delegateConfig;
+    }
+
+    /** Rebuilds the interpreter for delegate, falling back to the CPU if it can't be used. */
+    public void useDelegate(DelegateConfig delegate) {
+        openInterpreter(delegate, false);
     }
 
     public void useGpu() {
-        if (gpuDelegate == null) {
-            gpuDelegate = new GpuDelegate();
-            tfliteOptions.addDelegate(gpuDelegate);
-            recreateInterpreter();
-        }
+        useDelegate(new DelegateConfig(DelegateConfig.Kind.GPU, delegateConfig.getNumThreads()));
     }
 
     public void useCPU() {
-        recreateInterpreter();
+        useDelegate(DelegateConfig.cpu(delegateConfig.getNumThreads()));
     }
 
     public void useNNAPI() {
-        nnapiDelegate = new NnApiDelegate();
-        tfliteOptions.addDelegate(nnapiDelegate);
-        recreateInterpreter();
+        useDelegate(new DelegateConfig(DelegateConfig.Kind.NNAPI, delegateConfig.getNumThreads()));
+    }
+
+    // Replaces the interpreter with one for delegate. Delegates fail at runtime on devices or
+    // models they don't support; unless strict, that falls back to the CPU with the same threads
+    private void openInterpreter(DelegateConfig delegate, boolean strict) {
+        closeInterpreter();
+        try {
+            Interpreter.Options options = new Interpreter.Options();
+            options.setNumThreads(delegate.getNumThreads());
+            switch (delegate.getKind()) {
+                case XNNPACK:
+                    options.setUseXNNPACK(true);
+                    break;
+                case NNAPI:
+                    nnapiDelegate = new NnApiDelegate();
+                    options.addDelegate(nnapiDelegate);
+                    break;
+                case GPU:
+                    GpuDelegate.Options gpu_options = new GpuDelegate.Options();
+                    gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
+                    gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
+                    gpuDelegate = new GpuDelegate(gpu_options);
+                    options.addDelegate(gpuDelegate);
+                    break;
+                default:
+                    break;
+            }
+            tfLite = new Interpreter(tfliteModel, options);
+            delegateConfig = delegate;
+        } catch (RuntimeException | LinkageError e) {
+            closeInterpreter();
+            if (strict || delegate.getKind() == DelegateConfig.Kind.CPU) throw e;
+            LOGGER.w(e, "Cannot use %s, falling back to the CPU", delegate);
+            openInterpreter(DelegateConfig.cpu(delegate.getNumThreads()), false);
+        }
+    }
+
+    private void closeInterpreter() {
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = null;
+        }
+        if (gpuDelegate != null) {
+            gpuDelegate.close();
+            gpuDelegate = null;
+        }
+        if (nnapiDelegate != null) {
+            nnapiDelegate.close();
+            nnapiDelegate = null;
+        }
     }
 
     @Override
@@ -216,10 +283,11 @@ public class YoloV5Classifier implements Classifier {
 
     private static final int NUM_BOXES_PER_BLOCK = 3;
 
-    // Number of threads in the java app
-    private static final int NUM_THREADS = 1;
-    private static boolean isNNAPI = false;
-    private static boolean isGPU = false;
+    // Until a tuned config is known: one CPU thread, as before
+    static final DelegateConfig DEFAULT_DELEGATE = DelegateConfig.cpu(1);
+    // Row bands converted in parallel by the preprocessor; the interpreter is idle meanwhile
+    private static final int PREPROCESS_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     private boolean isModelQuantized;
 
@@ -231,8 +299,8 @@ public class YoloV5Classifier implements Classifier {
     /** The loaded TensorFlow Lite model. */
     private MappedByteBuffer tfliteModel;
 
-    /** Options for configuring the Interpreter. */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+    /** What the interpreter was built for. */
+    private DelegateConfig delegateConfig = DEFAULT_DELEGATE;
 
     // Config values.
 
@@ -241,7 +309,13 @@ public class YoloV5Classifier implements Classifier {
     private int[] intValues;
 
     private ByteBuffer imgData;
+    private ImagePreprocessor preprocessor;
     private ByteBuffer outData;
+    // Reads outData in place into the boxes that passed the threshold in the last frame
+    private YoloOutputDecoder decoder;
+
+    private final Object[] inputArray = new Object[1];
+    private final Map<Integer, Object> outputMap = new HashMap<>();
 
     private Interpreter tfLite;
     private float inp_scale;
@@ -254,79 +328,14 @@ public class YoloV5Classifier implements Classifier {
 
     //non maximum suppression
     protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
+        nonMaxSuppression.setIouThreshold(mNmsThresh);
+        return nonMaxSuppression.apply(list);
     }
 
     protected float mNmsThresh = 0.6f;
 
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
-
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
-
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
+    // Class-aware, like the per-label loop it replaced
+    private final NonMaxSuppression nonMaxSuppression = new NonMaxSuppression();
 
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
@@ -339,106 +348,39 @@ public class YoloV5Classifier implements Classifier {
 //        byteBuffer.order(ByteOrder.nativeOrder());
 //        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
+        preprocessor.convert(intValues, imgData);
         return imgData;
     }
 
     public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
-        ByteBuffer byteBuffer_ = convertBitmapToByteBuffer(bitmap);
-
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-//        float[][][] outbuf = new float[1][output_box][labels.size() + 5];
-        outData.rewind();
-        outputMap.put(0, outData);
-        Log.d("YoloV5Classifier", "mObjThresh: " + getObjThresh());
-
-        Object[] inputArray = {imgData};
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(0);
-        byteBuffer.rewind();
-
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
+        convertBitmapToByteBuffer(bitmap);
+        runInference();
 
-        float[][][] out = new float[1][output_box][numClass + 5];
         Log.d("YoloV5Classifier", "out[0] detect start");
-        for (int i = 0; i < output_box; ++i) {
-            for (int j = 0; j < numClass + 5; ++j) {
-                if (isModelQuantized){
-                    out[0][i][j] = oup_scale * (((int) byteBuffer.get() & 0xFF) - oup_zero_point);
-                }
-                else {
-                    out[0][i][j] = byteBuffer.getFloat();
-                }
-            }
-            // Denormalize xywh
-            for (int j = 0; j < 4; ++j) {
-                out[0][i][j] *= getInputSize();
-            }
-        }
-        for (int i = 0; i < output_box; ++i){
-            final int offset = 0;
-            final float confidence = out[0][i][4];
-            int detectedClass = -1;
-            float maxClass = 0;
-
-            final float[] classes = new float[labels.size()];
-            for (int c = 0; c < labels.size(); ++c) {
-                classes[c] = out[0][i][5 + c];
-            }
-
-            for (int c = 0; c < labels.size(); ++c) {
-                if (classes[c] > maxClass) {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
-            }
+        final YoloOutputDecoder d = decoder;
+        final int candidates = d.decode(bitmap.getWidth(), bitmap.getHeight(), labels.size());
+        Log.d("YoloV5Classifier", "detect end");
 
-            final float confidenceInClass = maxClass * confidence;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][i][0];
-                final float yPos = out[0][i][1];
-
-                final float w = out[0][i][2];
-                final float h = out[0][i][3];
-                Log.d("YoloV5Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
-            }
+        // Suppression runs on the candidate arrays; only the boxes it keeps become Recognitions
+        nonMaxSuppression.setIouThreshold(mNmsThresh);
+        final int kept = nonMaxSuppression.run(d.left, d.top, d.right, d.bottom, d.score, d.classes, candidates);
+        final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(kept);
+        for (int k = 0; k < kept; ++k) {
+            final int i = nonMaxSuppression.keptIndex(k);
+            final RectF rect = new RectF(d.left[i], d.top[i], d.right[i], d.bottom[i]);
+            recognitions.add(new Recognition("0", labels.get(d.classes[i]), nonMaxSuppression.keptScore(k), rect, d.classes[i]));
         }
-
-        Log.d("YoloV5Classifier", "detect end");
-        final ArrayList<Recognition> recognitions = nms(detections);
-//        final ArrayList<Recognition> recognitions = detections;
         return recognitions;
     }
 
+    // One pass of the interpreter from imgData to outData, as it stands
+    void runInference() {
+        outData.rewind();
+        inputArray[0] = imgData;
+        outputMap.put(0, outData);
+        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+    }
+
     public boolean checkInvalidateBox(float x, float y, float width, float height, float oriW, float oriH, int intputSize) {
         // (1) (x, y, w, h) --> (xmin, ymin, xmax, ymax)
         float halfHeight = height / 2.0f;
@@ -37,10 +37,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 import static com.example.finbot.detection.env.Utils.expit;
@@ -136,6 +134,9 @@ public class YoloV5ClassifierDetect implements Classifier {
                 d.oup_zero_points[i] = oupten.quantizationParams().getZeroPoint();
             }
         }
+        d.preprocessor = new ImagePreprocessor(d.INPUT_SIZE, d.INPUT_SIZE, d.isModelQuantized,
+                d.IMAGE_MEAN, d.IMAGE_STD, d.inp_scale, d.inp_zero_point, PREPROCESS_THREADS);
+
         d.MASKS = masks;
         d.ANCHORS = anchors;
         return d;
@@ -166,6 +167,10 @@ public class YoloV5ClassifierDetect implements Classifier {
             nnapiDelegate = null;
         }
         tfliteModel = null;
+        if (preprocessor != null) {
+            preprocessor.close();
+            preprocessor = null;
+        }
     }
 
     public void setNumThreads(int num_threads) {
@@ -227,6 +232,9 @@ public class YoloV5ClassifierDetect implements Classifier {
 
     // Number of threads in the java app
     private static final int NUM_THREADS = 1;
+    // Row bands converted in parallel by the preprocessor; the interpreter is idle meanwhile
+    private static final int PREPROCESS_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
     private static boolean isNNAPI = false;
     private static boolean isGPU = false;
 
@@ -250,6 +258,7 @@ public class YoloV5ClassifierDetect implements Classifier {
     private int[] intValues;
 
     private ByteBuffer imgData;
+    private ImagePreprocessor preprocessor;
     private ByteBuffer[] outData;
     private Interpreter tfLite;
 
@@ -262,79 +271,14 @@ public class YoloV5ClassifierDetect implements Classifier {
 
     //non maximum suppression
     protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
+        nonMaxSuppression.setIouThreshold(mNmsThresh);
+        return nonMaxSuppression.apply(list);
     }
 
     protected float mNmsThresh = 0.6f;
 
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
-
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
-
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
+    // Class-aware, like the per-label loop it replaced
+    private final NonMaxSuppression nonMaxSuppression = new NonMaxSuppression();
 
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
@@ -343,22 +287,7 @@ public class YoloV5ClassifierDetect implements Classifier {
         Map<Integer, Object> outputMap = new HashMap<>();
 
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
+        preprocessor.convert(intValues, imgData);
 
         for (int i = 0; i < OUTPUT_WIDTH.length; i++) {
             outData[i].rewind();
@@ -10,26 +10,22 @@ import android.view.View
 import android.view.ViewGroup
 import android.widget.*
 import androidx.fragment.app.Fragment
+import androidx.fragment.app.viewModels
 import com.example.finbot.MainActivity
 import com.example.finbot.R
+import com.example.finbot.model.Expense
 import com.example.finbot.util.NotificationHelper
 import com.example.finbot.util.SharedPreferencesManager
 import com.example.finbot.util.SnackbarUtil
 import com.google.android.material.snackbar.Snackbar
-import org.json.JSONObject
-import java.io.DataOutputStream
-import java.net.HttpURLConnection
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import java.net.URL
 import java.text.SimpleDateFormat
-import kotlinx.coroutines.launch
 import java.util.*
 import android.graphics.Color
 import androidx.activity.result.ActivityResultLauncher
 import androidx.core.content.ContextCompat
 import com.example.finbot.Login
 import com.example.finbot.detection.DetectorActivity
+import com.example.finbot.viewmodel.AddExpenseViewModel
 
 class AddExpenseFragment : Fragment() {
 
@@ -44,6 +40,7 @@ class AddExpenseFragment : Fragment() {
 
     private lateinit var sharedPrefsManager: SharedPreferencesManager
     private lateinit var notificationHelper: NotificationHelper
+    private val viewModel: AddExpenseViewModel by viewModels()
 
     override fun onCreateView(
         inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?
@@ -73,6 +70,33 @@ class AddExpenseFragment : Fragment() {
         return view
     }
 
+    override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
+        super.onViewCreated(view, savedInstanceState)
+
+        viewModel.saved.observe(viewLifecycleOwner) { event ->
+            event.take() ?: return@observe
+            val snackbar = Snackbar.make(requireView(), "Expense added successfully", 3000)
+            snackbar.setBackgroundTint(ContextCompat.getColor(requireContext(), R.color.snackbar_background_light))
+            snackbar.setTextColor(ContextCompat.getColor(requireContext(), R.color.snackbar_text_light))
+            snackbar.show()
+
+            notificationHelper.checkAndShowBudgetAlertIfNeeded()
+            (requireActivity() as MainActivity).loadFragment(
+                (requireActivity() as MainActivity).supportFragmentManager.findFragmentByTag("homeFragment")
+                    ?: com.example.finbot.fragments.homeFragment()
+            )
+        }
+        viewModel.errors.observe(viewLifecycleOwner) { event ->
+            val error = event.take() ?: return@observe
+            val snackbar = Snackbar.make(requireView(), "Error: ${error.exception?.message}", 3000)
+            val snackbarView = snackbar.view
+            snackbarView.background = ContextCompat.getDrawable(requireContext(), R.drawable.snackbar_background)
+            val textView = snackbarView.findViewById<TextView>(com.google.android.material.R.id.snackbar_text)
+            textView.setTextColor(Color.WHITE)
+            snackbar.show()
+        }
+    }
+
     @Deprecated("Deprecated in Java") // but still works!
     override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
         super.onActivityResult(requestCode, resultCode, data)
@@ -138,63 +162,10 @@ class AddExpenseFragment : Fragment() {
             //  Get current time in "HH:mm" format
             val time = SimpleDateFormat("HH:mm", Locale.getDefault()).format(Date())
 
-            // ✅ Create JSON object with time
-            val expenseJson = JSONObject().apply {
-                put("name", name)
-                put("categoryId", categoryId)
-                put("date", date)
-                put("time", time)
-                put("amount", amount)
-                put("userId", userId)
-            }
-
-            CoroutineScope(Dispatchers.IO).launch {
-                try {
-                    val url = URL("http://192.168.103.87:8082/api/expenses/add")
-                    val conn = url.openConnection() as HttpURLConnection
-                    conn.requestMethod = "POST"
-                    conn.setRequestProperty("Content-Type", "application/json")
-                    conn.doOutput = true
-
-                    val outputStream = DataOutputStream(conn.outputStream)
-                    outputStream.writeBytes(expenseJson.toString())
-                    outputStream.flush()
-                    outputStream.close()
-
-                    val responseCode = conn.responseCode
-                    val responseText = conn.inputStream.bufferedReader().use { it.readText() }
-                    conn.disconnect()
-
-                    requireActivity().runOnUiThread {
-                        if (responseCode == 200) {
-                            val snackbar = Snackbar.make(requireView(), "Expense added successfully", 3000)
-                            snackbar.setBackgroundTint(ContextCompat.getColor(requireContext(), R.color.snackbar_background_light))
-                            snackbar.setTextColor(ContextCompat.getColor(requireContext(), R.color.snackbar_text_light))
-                            snackbar.show()
-
-                            notificationHelper.checkAndShowBudgetAlertIfNeeded()
-                            (requireActivity() as MainActivity).loadFragment(
-                                (requireActivity() as MainActivity).supportFragmentManager.findFragmentByTag("homeFragment")
-                                    ?: com.example.finbot.fragments.homeFragment()
-                            )
-                        } else {
-                            val snackbar = Snackbar.make(requireView(), "Failed to add expense: $responseText", 3000)
-                            snackbar.setBackgroundTint(ContextCompat.getColor(requireContext(), R.color.snackbar_background_light))
-                            snackbar.setTextColor(ContextCompat.getColor(requireContext(), R.color.snackbar_text_light))
-                            snackbar.show()
-                        }
-                    }
-                } catch (e: Exception) {
-                    requireActivity().runOnUiThread {
-                        val snackbar = Snackbar.make(requireView(), "Error: ${e.message}", 3000)
-                        val snackbarView = snackbar.view
-                        snackbarView.background = ContextCompat.getDrawable(requireContext(), R.drawable.snackbar_background)
-                        val textView = snackbarView.findViewById<TextView>(com.google.android.material.R.id.snackbar_text)
-                        textView.setTextColor(Color.WHITE)
-                        snackbar.show()
-                    }
-                }
-            }
+            val expense = Expense(0, name, category, date, time, amount, categoryId, "")
+
+            // Started by the ViewModel, so leaving the screen right after the tap can't cancel it
+            viewModel.addExpense(userId, expense)
 
         } else {
             val toast = Toast.makeText(requireContext(), "Please fill all fields", Toast.LENGTH_SHORT)
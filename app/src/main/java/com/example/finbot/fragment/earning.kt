@@ -12,21 +12,19 @@ import android.widget.EditText
 import android.widget.TextView
 import android.widget.Toast
 import androidx.fragment.app.Fragment
+import androidx.fragment.app.viewModels
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.example.finbot.R
 import com.example.finbot.adapter.EarningsAdapter
 import com.example.finbot.model.Earning
+import com.example.finbot.util.LedgerCodec
 import com.example.finbot.util.SharedPreferencesManager
-import java.net.HttpURLConnection
-import java.net.URL
+import com.example.finbot.viewmodel.EarningViewModel
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Date
 import java.util.Locale
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
 
 class earningFragment : Fragment() {
 
@@ -35,6 +33,7 @@ class earningFragment : Fragment() {
     private lateinit var totalSavingsText: TextView
     private lateinit var noEarningsText: TextView
     private lateinit var sharedPrefsManager: SharedPreferencesManager
+    private val viewModel: EarningViewModel by viewModels()
 
     private lateinit var earningsAdapter: EarningsAdapter
 
@@ -64,97 +63,69 @@ class earningFragment : Fragment() {
         return view
     }
 
+    override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
+        super.onViewCreated(view, savedInstanceState)
+
+        viewModel.earnings.observe(viewLifecycleOwner) { showEarnings(it) }
+        viewModel.totals.observe(viewLifecycleOwner) { totals ->
+            val currency = sharedPrefsManager.getCurrency()
+            totalEarningsText.text = "$currency ${String.format("%.2f", totals.totalEarnings)}"
+            totalSavingsText.text = "$currency ${String.format("%.2f", totals.totalSavings)}"
+        }
+        viewModel.messages.observe(viewLifecycleOwner) { event ->
+            event.take()?.let { Toast.makeText(context, it, Toast.LENGTH_SHORT).show() }
+        }
+        viewModel.errors.observe(viewLifecycleOwner) { event ->
+            val error = event.take() ?: return@observe
+            if (error.exception != null) {
+                error.exception.printStackTrace()
+                Toast.makeText(context, "${error.operation}: ${error.exception.message}", Toast.LENGTH_SHORT).show()
+            } else {
+                val message = when (error.operation) {
+                    EarningViewModel.LOAD_TOTALS -> "Failed to fetch savings"
+                    EarningViewModel.ADD_EARNING -> "Failed to add earning"
+                    EarningViewModel.UPDATE_EARNING -> "Failed to update earning"
+                    EarningViewModel.DELETE_EARNING -> "Failed to delete earning"
+                    else -> "Failed to fetch earnings"
+                }
+                Toast.makeText(context, message, Toast.LENGTH_SHORT).show()
+            }
+        }
+    }
+
     override fun onResume() {
         super.onResume()
-        loadEarnings()
-        fetchAndDisplayTotalSavings()
+        // Skipped when the ViewModel loaded moments ago, e.g. before a rotation
+        if (!viewModel.isFresh()) {
+            viewModel.refresh(getUserIdFromSession())
+        }
     }
 
-    private fun loadEarnings() {
-        // Check if fragment is attached before starting async operation
-        if (!isAdded || context == null) return
-
-        val userId = getUserIdFromSession()
+    private fun showEarnings(earningsList: List<Earning>) {
         val currency = sharedPrefsManager.getCurrency()
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/user/$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = connection.inputStream.bufferedReader().use { it.readText() }
-
-                    // Parse JSON manually (or use a proper library like Moshi/Gson)
-                    val jsonArray = org.json.JSONArray(response)
-                    val earningsList = mutableListOf<Earning>()
-                    for (i in 0 until jsonArray.length()) {
-                        val obj = jsonArray.getJSONObject(i)
-                        val earning = Earning(
-                            obj.getString("id"),
-                            obj.getString("category"),
-                            obj.getDouble("amount"),
-                            obj.getString("date"),
-                            obj.getString("time"),
-                            obj.getString("userId")
-                        )
-                        earningsList.add(earning)
-                    }
-
-                    // Check if fragment is still attached before updating UI
-                    if (isAdded && activity != null && context != null) {
-                        activity?.runOnUiThread {
-                            // Double-check before accessing views
-                            if (isAdded && context != null) {
-                                if (earningsList.isEmpty()) {
-                                    earningsRecyclerView.visibility = View.GONE
-                                    noEarningsText.visibility = View.VISIBLE
-                                } else {
-                                    earningsRecyclerView.visibility = View.VISIBLE
-                                    noEarningsText.visibility = View.GONE
-                                    earningsAdapter = EarningsAdapter(
-                                        requireContext(),
-                                        earningsList,
-                                        { earning -> showEditEarningDialog(earning) },
-                                        { earning -> showDeleteEarningDialog(earning) }
-                                    )
-                                    earningsRecyclerView.adapter = earningsAdapter
-                                }
-
-                                // Calculate total
-                                val totalEarnings = earningsList.sumOf { it.amount }
-                                totalEarningsText.text = "$currency ${String.format("%.2f", totalEarnings)}"
-
-                                val totalExpenses = sharedPrefsManager.getCurrentMonthExpenses().toDouble()
-                                val totalSavings = totalEarnings - totalExpenses
-                                totalSavingsText.text = "$currency ${String.format("%.2f", totalSavings)}"
-                            }
-                        }
-                    }
+        if (earningsList.isEmpty()) {
+            earningsRecyclerView.visibility = View.GONE
+            noEarningsText.visibility = View.VISIBLE
+        } else {
+            earningsRecyclerView.visibility = View.VISIBLE
+            noEarningsText.visibility = View.GONE
+            earningsAdapter = EarningsAdapter(
+                requireContext(),
+                earningsList,
+                { earning -> showEditEarningDialog(earning) },
+                { earning -> showDeleteEarningDialog(earning) }
+            )
+            earningsRecyclerView.adapter = earningsAdapter
+        }
 
-                } else {
-                    if (isAdded && activity != null && context != null) {
-                        activity?.runOnUiThread {
-                            if (isAdded && context != null) {
-                                Toast.makeText(context, "Failed to load earnings", Toast.LENGTH_SHORT).show()
-                            }
-                        }
-                    }
-                }
+        // Calculate total
+        val totalEarnings = LedgerCodec.toMajorUnits(earningsList.sumOf { it.amountMinor })
+        totalEarningsText.text = "$currency ${String.format("%.2f", totalEarnings)}"
 
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
+        val totalExpenses = sharedPrefsManager.getCurrentMonthExpenses().toDouble()
+        val totalSavings = totalEarnings - totalExpenses
+        totalSavingsText.text = "$currency ${String.format("%.2f", totalSavings)}"
     }
 
     private fun showAddEarningDialog() {
@@ -281,113 +252,6 @@ class earningFragment : Fragment() {
             .show()
     }
 
-    private fun fetchAndDisplayTotalEarnings() {
-        if (!isAdded || context == null) return
-
-        val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/total?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = connection.inputStream.bufferedReader().use { it.readText() }
-                    val totalEarnings = response.toDoubleOrNull() ?: 0.0
-
-                    if (isAdded && activity != null && context != null) {
-                        activity?.runOnUiThread {
-                            if (isAdded && context != null) {
-                                totalEarningsText.text = "$currency ${String.format("%.2f", totalEarnings)}"
-                            }
-                        }
-                    }
-                } else {
-                    if (isAdded && activity != null && context != null) {
-                        activity?.runOnUiThread {
-                            if (isAdded && context != null) {
-                                Toast.makeText(context, "Failed to fetch earnings", Toast.LENGTH_SHORT).show()
-                            }
-                        }
-                    }
-                }
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private fun fetchAndDisplayTotalSavings() {
-        if (!isAdded || context == null) return
-
-        val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                // Fetch total earnings
-                val earningsUrl = URL("http://192.168.103.87:8082/api/earnings/total?userId=$userId")
-                val earningsConnection = earningsUrl.openConnection() as HttpURLConnection
-                earningsConnection.requestMethod = "GET"
-
-                val earningsResponseCode = earningsConnection.responseCode
-                var totalEarnings = 0.0
-
-                if (earningsResponseCode == HttpURLConnection.HTTP_OK) {
-                    val earningsResponse = earningsConnection.inputStream.bufferedReader().use { it.readText() }
-                    totalEarnings = earningsResponse.toDoubleOrNull() ?: 0.0
-                }
-                earningsConnection.disconnect()
-
-                // Fetch total expenses
-                val expenseUrl = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val expenseConnection = expenseUrl.openConnection() as HttpURLConnection
-                expenseConnection.requestMethod = "GET"
-
-                val expenseResponseCode = expenseConnection.responseCode
-                var totalExpenses = 0.0
-
-                if (expenseResponseCode == HttpURLConnection.HTTP_OK) {
-                    val expenseResponse = expenseConnection.inputStream.bufferedReader().use { it.readText() }
-                    totalExpenses = expenseResponse.toDoubleOrNull() ?: 0.0
-                }
-                expenseConnection.disconnect()
-
-                // Calculate total savings (earnings - expenses)
-                val totalSavings = totalEarnings - totalExpenses
-
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            totalEarningsText.text = "$currency ${String.format("%.2f", totalEarnings)}"
-                            totalSavingsText.text = "$currency ${String.format("%.2f", totalSavings)}"
-                        }
-                    }
-                }
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error fetching savings: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
-    }
-
     private fun showDeleteEarningDialog(earning: Earning) {
         if (!isAdded || context == null) return
 
@@ -423,159 +287,27 @@ class earningFragment : Fragment() {
         val time = getCurrentTime() // Optional: get current time if needed
         val userId = getUserIdFromSession() // Retrieve from session if needed
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/add")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "POST"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.doOutput = true
-
-                val jsonObject = org.json.JSONObject().apply {
-                    put("category", category)
-                    put("amount", amount)
-                    put("date", date)
-                    put("time", time)
-                    put("userId", userId) // Optional if required
-                }
-
-                val outputStream = connection.outputStream
-                outputStream.write(jsonObject.toString().toByteArray())
-                outputStream.flush()
-                outputStream.close()
-
-                val responseCode = connection.responseCode
-
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_CREATED) {
-                                Toast.makeText(context, "Earning added successfully", Toast.LENGTH_SHORT).show()
-                                loadEarnings() // reload data from backend
-                                fetchAndDisplayTotalSavings() // Update total savings immediately
-                            } else {
-                                Toast.makeText(context, "Failed to add earning", Toast.LENGTH_SHORT).show()
-                            }
-                        }
-                    }
-                }
-
-                connection.disconnect()
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
+        viewModel.addEarning(userId, Earning("", category, amount, date, time, userId))
     }
 
 
     private fun updateEarning(oldEarning: Earning, newEarning: Earning) {
         if (!isAdded || context == null) return
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/update/${oldEarning.id}")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "PUT"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.doOutput = true
-
-                val jsonObject = org.json.JSONObject().apply {
-                    put("category", newEarning.category)
-                    put("amount", newEarning.amount)
-                    put("date", newEarning.date)
-                    put("time", newEarning.time)
-                    put("userId", newEarning.userId)
-                }
-
-                val outputStream = connection.outputStream
-                outputStream.write(jsonObject.toString().toByteArray())
-                outputStream.flush()
-                outputStream.close()
-
-                val responseCode = connection.responseCode
-
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            if (responseCode == HttpURLConnection.HTTP_OK) {
-                                Toast.makeText(context, "Earning updated successfully", Toast.LENGTH_SHORT).show()
-                                loadEarnings()
-                                fetchAndDisplayTotalEarnings()
-                            } else {
-                                Toast.makeText(context, "Failed to update earning", Toast.LENGTH_SHORT).show()
-                            }
-                        }
-                    }
-                }
-
-                connection.disconnect()
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
+        viewModel.updateEarning(getUserIdFromSession(), oldEarning, newEarning)
     }
 
     private fun deleteEarning(earning: Earning) {
         if (!isAdded || context == null) return
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/delete/${earning.id}")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "DELETE"
-
-                val responseCode = connection.responseCode
-
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            if (responseCode == HttpURLConnection.HTTP_OK) {
-                                Toast.makeText(context, "Earning deleted successfully", Toast.LENGTH_SHORT).show()
-                                loadEarnings()
-                                fetchAndDisplayTotalEarnings()
-                            } else {
-                                Toast.makeText(context, "Failed to delete earning", Toast.LENGTH_SHORT).show()
-                            }
-                        }
-                    }
-                }
-
-                connection.disconnect()
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                if (isAdded && activity != null && context != null) {
-                    activity?.runOnUiThread {
-                        if (isAdded && context != null) {
-                            Toast.makeText(context, "Error: ${e.message}", Toast.LENGTH_SHORT).show()
-                        }
-                    }
-                }
-            }
-        }
+        viewModel.deleteEarning(getUserIdFromSession(), earning)
     }
 
     private fun updateTotals() {
         if (!isAdded || context == null) return
 
         val earnings = sharedPrefsManager.getEarnings()
-        val totalEarnings = earnings.sumOf { it.amount }
+        val totalEarnings = LedgerCodec.toMajorUnits(earnings.sumOf { it.amountMinor })
         val currency = sharedPrefsManager.getCurrency()
 
         totalEarningsText.text = "$currency ${String.format("%.2f", totalEarnings)}"
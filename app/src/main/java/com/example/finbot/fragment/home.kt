@@ -14,22 +14,19 @@ import android.view.ViewGroup
 import android.widget.*
 import androidx.core.app.NotificationCompat
 import androidx.fragment.app.Fragment
+import androidx.fragment.app.viewModels
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.example.finbot.R
 import com.example.finbot.adapter.ExpenseAdapter
 import com.example.finbot.model.Expense
+import com.example.finbot.network.BackendUnavailableException
 import com.example.finbot.util.NetworkUtils
 import com.example.finbot.util.NotificationHelper
 import com.example.finbot.util.SharedPreferencesManager
+import com.example.finbot.viewmodel.HomeViewModel
 import com.google.android.material.progressindicator.LinearProgressIndicator
-import java.net.HttpURLConnection
-import java.net.URL
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import java.text.SimpleDateFormat
-import kotlinx.coroutines.launch
-import org.json.JSONObject
 import java.util.*
 import android.app.PendingIntent
 import android.content.Intent
@@ -56,6 +53,7 @@ class homeFragment : Fragment() {
     private lateinit var limitText: TextView
     private lateinit var welcomeNote: TextView
     private lateinit var sharedPrefsManager: SharedPreferencesManager
+    private val viewModel: HomeViewModel by viewModels()
     private lateinit var notificationHelper: NotificationHelper
     private lateinit var adapter: ExpenseAdapter
     private lateinit var networkUtils: NetworkUtils
@@ -63,16 +61,6 @@ class homeFragment : Fragment() {
     // Categories used for expense spinner
     private val categories = arrayOf("Food", "Shopping", "Transport", "Health", "Utility", "Other")
 
-    // Currency mapping
-    private val currencyMap = mapOf(
-        0 to "LKR",
-        1 to "USD",
-        2 to "EUR",
-        3 to "GBP",
-        4 to "INR",
-        5 to "AUD"
-    )
-
     // Notification tracking
     private val NOTIFICATION_PREF = "budget_notification_tracker"
     private val NOTIFICATION_SENT_KEY = "notification_sent"
@@ -114,7 +102,36 @@ class homeFragment : Fragment() {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
 
+        // Initialize current displayed value before any new figures arrive
+        initializeCurrentDisplayedValue()
 
+        viewModel.username.observe(viewLifecycleOwner) { username ->
+            if (username != null) {
+                welcomeNote.text = "Welcome, $username"
+                val sharedPref = requireContext().getSharedPreferences("user_session", MODE_PRIVATE)
+                sharedPref.edit().putString("username", username).apply()
+            } else {
+                // Always fallback to cached username
+                loadCachedUsername()
+            }
+        }
+        viewModel.expenses.observe(viewLifecycleOwner) { showExpenses(it) }
+        viewModel.totalExpenses.observe(viewLifecycleOwner) { showTotalExpenses(it) }
+        viewModel.budgetSummary.observe(viewLifecycleOwner) { showBudgetSummary(it) }
+        viewModel.notices.observe(viewLifecycleOwner) { event ->
+            event.take()?.let { showInfoSnackbar(it) }
+        }
+        viewModel.errors.observe(viewLifecycleOwner) { event ->
+            val error = event.take() ?: return@observe
+            if (error.exception != null) {
+                handleNetworkException(error.exception, error.operation)
+            } else {
+                handleHttpErrorResponse(error.code, error.operation)
+            }
+        }
+        viewModel.changes.observe(viewLifecycleOwner) { event ->
+            event.take()?.let { showChangeFeedback(it) }
+        }
 
         // Animate UI elements when fragment is created
         animateUIElements()
@@ -123,18 +140,10 @@ class homeFragment : Fragment() {
     override fun onResume() {
         super.onResume()
 
-        // Always try to load data - individual methods will handle errors appropriately
-        loadUsernameFromBackend()
-        fetchCurrencyFromBackend()
-
-        // Initialize current displayed value before fetching new data
-        if (::totalExpenseTextView.isInitialized) {
-            initializeCurrentDisplayedValue()
+        // Back within a few seconds, e.g. after a rotation: the ViewModel still has everything
+        if (!viewModel.isFresh()) {
+            viewModel.refresh(getUserIdFromSession())
         }
-
-        loadExpenses()
-        updateBudgetInfo()
-        fetchAndDisplayTotalExpensesWithAnimation()
     }
 
 
@@ -143,21 +152,6 @@ class homeFragment : Fragment() {
         return sharedPref.getString("user_id", "") ?: ""
     }
 
-    private fun loadDefaultCurrency() {
-        activity?.runOnUiThread {
-            safeUIUpdate {
-                // Try to get cached currency first, otherwise use LKR as default
-                val cachedCurrency = sharedPrefsManager.getCurrency()
-                if (cachedCurrency.isEmpty()) {
-                    sharedPrefsManager.setCurrency("LKR")
-                }
-                updateBudgetInfo()
-                fetchAndDisplayTotalExpenses()
-            }
-        }
-    }
-
-
     private fun showInfoSnackbar(message: String) {
         try {
             val snackbar = Snackbar.make(requireView(), message, Snackbar.LENGTH_LONG)
@@ -173,153 +167,6 @@ class homeFragment : Fragment() {
         }
     }
 
-    private fun fetchCurrencyFromBackend() {
-        val userId = getUserIdFromSession()
-        if (userId.isEmpty()) {
-            // Set default currency when no user session
-            activity?.runOnUiThread {
-                safeUIUpdate {
-                    sharedPrefsManager.setCurrency("USD") // or your preferred default
-                    updateBudgetInfo()
-                    fetchAndDisplayTotalExpenses()
-                }
-            }
-            return
-        }
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/budget/currency?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-
-                    val currencyId = try {
-                        response.trim().toInt()
-                    } catch (e: NumberFormatException) {
-                        0 // Default to LKR if parsing fails
-                    }
-
-                    val currencyString = currencyMap[currencyId] ?: "LKR"
-
-                    activity?.runOnUiThread {
-                        safeUIUpdate {
-                            sharedPrefsManager.setCurrency(currencyString)
-                            updateBudgetInfo()
-                            fetchAndDisplayTotalExpenses()
-                        }
-                    }
-                } else if (responseCode == 404) {
-                    // Budget not found for user - create default budget entry
-                    activity?.runOnUiThread {
-                        safeUIUpdate {
-                            // Set default currency
-                            val defaultCurrency = "LKR"
-                            sharedPrefsManager.setCurrency(defaultCurrency)
-
-                            // Show user-friendly message instead of error
-                            showInfoSnackbar("Budget not set. Please configure your budget in settings.")
-
-                            updateBudgetInfo()
-                            fetchAndDisplayTotalExpenses()
-                        }
-                    }
-                } else {
-                    activity?.runOnUiThread {
-                        handleHttpErrorResponse(responseCode, "Currency fetch")
-                        // Fallback to cached or default currency
-                        loadDefaultCurrency()
-                    }
-                }
-                connection.disconnect()
-            } catch (e: SocketTimeoutException) {
-                println("Timeout fetching currency: ${e.message}")
-                loadDefaultCurrency()
-            } catch (e: ConnectException) {
-                println("Connection failed fetching currency: ${e.message}")
-                loadDefaultCurrency()
-            } catch (e: UnknownHostException) {
-                loadDefaultCurrency()
-            } catch (e: Exception) {
-                println("Error fetching currency: ${e.message}")
-                loadDefaultCurrency()
-            }
-        }
-    }
-
-
-
-    private fun loadUsernameFromBackend() {
-        val userId = getUserIdFromSession()
-        if (userId.isEmpty()) {
-            safeUIUpdate {
-                if (::welcomeNote.isInitialized) {
-                    welcomeNote.text = "Welcome, User"
-                }
-            }
-            return
-        }
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/users/username/$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-                    val username = response.trim()
-
-                    activity?.runOnUiThread {
-                        safeUIUpdate {
-                            welcomeNote.text = "Welcome, $username"
-                            val sharedPref = requireContext().getSharedPreferences("user_session", MODE_PRIVATE)
-                            sharedPref.edit().putString("username", username).apply()
-                        }
-                    }
-                } else {
-                    activity?.runOnUiThread {
-                        handleHttpErrorResponse(responseCode, "Username fetch")
-                        // Always fallback to cached username
-                        loadCachedUsername()
-                    }
-                    println("Username fetch failed with response code: $responseCode")
-                }
-                connection.disconnect()
-            } catch (e: SocketTimeoutException) {
-                println("Timeout loading username: ${e.message}")
-                handleNetworkException(e, "Connection timeout while loading username")
-                loadCachedUsername()
-            } catch (e: ConnectException) {
-                println("Connection failed loading username: ${e.message}")
-                handleNetworkException(e, "Unable to connect to server")
-                loadCachedUsername()
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-                loadCachedUsername()
-            } catch (e: Exception) {
-                println("Error loading username: ${e.message}")
-                handleNetworkException(e, "Error loading username")
-                loadCachedUsername()
-            }
-        }
-    }
-
-
-
-
     private fun loadCachedUsername() {
         if (isAdded && context != null) {
             activity?.runOnUiThread {
@@ -354,6 +201,9 @@ class homeFragment : Fragment() {
             activity?.runOnUiThread {
                 safeUIUpdate {
                     when (exception) {
+                        is BackendUnavailableException -> {
+                            showNetworkErrorSnackbar("Server unavailable. Showing saved data.")
+                        }
                         is UnknownHostException -> {
                             showNetworkErrorSnackbar("No internet connection available")
                         }
@@ -429,166 +279,41 @@ class homeFragment : Fragment() {
     }
 
 
-    // Enhanced fetchAndDisplayTotalExpenses with error handling
-    private fun fetchAndDisplayTotalExpenses() {
-        val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-
-                    val totalExpenses = response.toDoubleOrNull() ?: 0.0
-
-                    if (isAdded && context != null) {
-                        val currentActivity = activity
-                        currentActivity?.runOnUiThread {
-                            if (!isAdded || context == null || !::totalExpenseTextView.isInitialized) return@runOnUiThread
-
-                            try {
-                                totalExpenseTextView.text =
-                                    "$currency ${String.format("%.2f", totalExpenses)}"
-                            } catch (e: IllegalStateException) {
-                                println("Fragment detached during total expenses update: ${e.message}")
-                            }
-                        }
-                    }
-                } else {
-                    // Handle specific error codes - only show UI errors when appropriate
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            // Only show server errors, not network errors when online
-                            if (responseCode == 404) {
-
-                            } else if (responseCode >= 500) {
-
-                            }
-                            // Don't show anything for other errors - just log them
-                        }
-                    }
-                }
-                connection.disconnect()
-
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout while fetching total expenses")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed while fetching expenses")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error fetching total expenses")
-            }
+    private fun showExpenses(stored: List<Expense>) {
+        // Icons are resource ids, so they're attached here rather than kept in the journal
+        val expenses = stored.map { expense ->
+            Expense(
+                getCategoryIconResId(expense.category), expense.name, expense.category, expense.date,
+                expense.time, expense.amount, expense.categoryId, expense.id,
+                expense.epochDay, expense.amountMinor
+            )
         }
-    }
 
-    // Enhanced loadExpenses with error handling
-    private fun loadExpenses() {
-        val userId = getUserIdFromSession()
+        safeUIUpdate {
+            if (expenses.isEmpty()) {
+                recyclerView.visibility = View.GONE
+                emptyStateTextView.visibility = View.VISIBLE
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/user?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-
-                    val expenses = mutableListOf<Expense>()
-                    val jsonArray = org.json.JSONArray(response)
-
-                    for (i in 0 until jsonArray.length()) {
-                        val item = jsonArray.getJSONObject(i)
-
-                        val id = item.getString("id")
-                        val name = item.getString("name")
-                        val date = item.getString("date")
-                        val amount = item.getString("amount")
-                        val categoryId = item.getInt("categoryId")
-                        val time = if (item.has("time")) item.getString("time") else "00:00"
-
-                        val category = getCategoryFromId(categoryId)
-                        val iconResId = getCategoryIconResId(category)
-
-                        val expense =
-                            Expense(iconResId, name, category, date, time, amount, categoryId, id)
-                        expenses.add(expense)
-                    }
+                // Animate empty state
+                emptyStateTextView.alpha = 0f
+                emptyStateTextView.animate()
+                    .alpha(1f)
+                    .setDuration(500)
+                    .start()
+            } else {
+                recyclerView.visibility = View.VISIBLE
+                emptyStateTextView.visibility = View.GONE
 
-                    if (isAdded && context != null) {
-                        val currentActivity = activity
-                        currentActivity?.runOnUiThread {
-                            if (!isAdded || context == null) return@runOnUiThread
-
-                            try {
-                                if (expenses.isEmpty()) {
-                                    recyclerView.visibility = View.GONE
-                                    emptyStateTextView.visibility = View.VISIBLE
-
-                                    // Animate empty state
-                                    emptyStateTextView.alpha = 0f
-                                    emptyStateTextView.animate()
-                                        .alpha(1f)
-                                        .setDuration(500)
-                                        .start()
-                                } else {
-                                    recyclerView.visibility = View.VISIBLE
-                                    emptyStateTextView.visibility = View.GONE
-
-                                    adapter =
-                                        ExpenseAdapter(requireContext(), expenses) { expense ->
-                                            showExpenseOptionsDialog(expense)
-                                        }
-                                    recyclerView.adapter = adapter
-
-                                    // Animate the expense items after a short delay
-                                    recyclerView.postDelayed({
-                                        animateExpenseItems()
-                                    }, 100)
-                                }
-                            } catch (e: IllegalStateException) {
-                                println("Fragment detached during expenses UI update: ${e.message}")
-                            }
-                        }
+                adapter =
+                    ExpenseAdapter(requireContext(), expenses) { expense ->
+                        showExpenseOptionsDialog(expense)
                     }
+                recyclerView.adapter = adapter
 
-                } else {
-                    // Handle specific error codes - only show UI errors when appropriate
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            // Only show server errors, not network errors when online
-                            if (responseCode == 404) {
-
-                            } else if (responseCode >= 500) {
-
-                            }
-                            // Don't show anything for other errors - just log them
-                        }
-                    }
-                }
-                connection.disconnect()
-
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout while loading expenses")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed while loading expenses")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error loading expenses")
+                // Animate the expense items after a short delay
+                recyclerView.postDelayed({
+                    animateExpenseItems()
+                }, 100)
             }
         }
     }
@@ -637,130 +362,60 @@ class homeFragment : Fragment() {
         }
     }
 
-    private fun updateBudgetInfo() {
+    private fun showBudgetSummary(summary: HomeViewModel.BudgetSummary?) {
         val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                // Fetch total expenses first
-                val expenseUrl = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val expenseConnection = expenseUrl.openConnection() as HttpURLConnection
-                expenseConnection.requestMethod = "GET"
-                expenseConnection.connectTimeout = 8000
-                expenseConnection.readTimeout = 8000
-
-                val totalExpenses = if (expenseConnection.responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = expenseConnection.inputStream.bufferedReader().use { it.readText() }
-                    response.toDoubleOrNull() ?: 0.0
-                } else {
-                    expenseConnection.disconnect()
-                    0.0 // Default to 0 if expenses can't be fetched
-                }
-
-                // Fetch budget from backend
-                val budgetUrl = URL("http://192.168.103.87:8082/api/budget/get?userId=$userId")
-                val budgetConnection = budgetUrl.openConnection() as HttpURLConnection
-                budgetConnection.requestMethod = "GET"
-                budgetConnection.connectTimeout = 8000
-                budgetConnection.readTimeout = 8000
-
-                val responseCode = budgetConnection.responseCode
-                val budget = if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val budgetResponse = budgetConnection.inputStream.bufferedReader().use { it.readText() }
-                    try {
-                        val budgetJson = JSONObject(budgetResponse)
-                        budgetJson.optDouble("budget", 0.0)
-                    } catch (jsonException: Exception) {
-                        budgetResponse.trim().toDoubleOrNull() ?: 0.0
-                    }
-                } else if (responseCode == 404) {
-                    // No budget set for user
-                    0.0
-                } else {
-                    budgetConnection.disconnect()
-                    expenseConnection.disconnect()
-                    return@launch
-                }
-
-                // Calculate percentage with proper validation
-                val percentUsed = if (budget > 0) {
-                    ((totalExpenses / budget) * 100).toInt()
-                } else {
-                    0
-                }
-
-                // Update UI on main thread
-                if (isAdded && context != null) {
-                    activity?.runOnUiThread {
-                        if (!isAdded || context == null) return@runOnUiThread
-
-                        try {
-                            // Update total expenses with consistent currency
-                            totalExpenseTextView.text = "$currency ${String.format("%.2f", totalExpenses)}"
-
-                            // Update budget display
-                            if (budget > 0) {
-                                budgetTextView.text = "Budget: $currency ${String.format("%.2f", budget)} ($percentUsed% used)"
-                                progressBar.progress = percentUsed.coerceIn(0, 100)
-                                progressPercentage.text = "$percentUsed%"
-                                spentPercentText.text = "Spent: $percentUsed%"
-                                limitText.text = "of $currency ${String.format("%.2f", budget)} limit"
-                            } else {
-                                // Show when no budget is set
-                                budgetTextView.text = "No budget set"
-                                progressBar.progress = 0
-                                progressPercentage.text = "0%"
-                                spentPercentText.text = "Spent: $currency ${String.format("%.2f", totalExpenses)}"
-                                limitText.text = "Set budget in settings"
-                            }
-
-                            // Handle notifications only if budget exists
-                            if (budget > 0) {
-                                val notificationsEnabled = sharedPrefsManager.areNotificationsEnabled()
-                                if (notificationsEnabled) {
-                                    checkAndResetExceededNotification(percentUsed)
-                                    handleBudgetNotifications(percentUsed, totalExpenses, budget, currency)
-                                }
-                            }
-
-                            // Update colors based on percentage
-                            updateUIColors(percentUsed, budget > 0)
+        safeUIUpdate {
+            if (summary == null) {
+                // Set safe default values
+                budgetTextView.text = "Budget: $currency 0.00 (0% used)"
+                progressBar.progress = 0
+                progressPercentage.text = "0%"
+                spentPercentText.text = "Spent: 0%"
+                limitText.text = "of $currency 0.00 limit"
+                return@safeUIUpdate
+            }
 
-                        } catch (e: IllegalStateException) {
-                            println("Fragment detached during UI update: ${e.message}")
-                        }
-                    }
-                }
+            val totalExpenses = summary.totalExpenses
+            val budget = summary.budget
 
-                expenseConnection.disconnect()
-                budgetConnection.disconnect()
+            // Calculate percentage with proper validation
+            val percentUsed = if (budget > 0) {
+                ((totalExpenses / budget) * 100).toInt()
+            } else {
+                0
+            }
 
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error updating budget info")
+            // Update budget display
+            if (budget > 0) {
+                budgetTextView.text = "Budget: $currency ${String.format("%.2f", budget)} ($percentUsed% used)"
+                progressBar.progress = percentUsed.coerceIn(0, 100)
+                progressPercentage.text = "$percentUsed%"
+                spentPercentText.text = "Spent: $percentUsed%"
+                limitText.text = "of $currency ${String.format("%.2f", budget)} limit"
+            } else {
+                // Show when no budget is set
+                budgetTextView.text = "No budget set"
+                progressBar.progress = 0
+                progressPercentage.text = "0%"
+                spentPercentText.text = "Spent: $currency ${String.format("%.2f", totalExpenses)}"
+                limitText.text = "Set budget in settings"
+            }
 
-                // Set safe default values
-                if (isAdded && context != null) {
-                    activity?.runOnUiThread {
-                        if (!isAdded || context == null) return@runOnUiThread
-
-                        try {
-                            val currency = sharedPrefsManager.getCurrency()
-                            budgetTextView.text = "Budget: $currency 0.00 (0% used)"
-                            progressBar.progress = 0
-                            progressPercentage.text = "0%"
-                            spentPercentText.text = "Spent: 0%"
-                            limitText.text = "of $currency 0.00 limit"
-                        } catch (ex: IllegalStateException) {
-                            println("Fragment detached during error handling: ${ex.message}")
-                        }
-                    }
+            // Handle notifications only if budget exists
+            if (budget > 0) {
+                val notificationsEnabled = sharedPrefsManager.areNotificationsEnabled()
+                if (notificationsEnabled) {
+                    checkAndResetExceededNotification(percentUsed)
+                    handleBudgetNotifications(percentUsed, totalExpenses, budget, currency)
                 }
             }
+
+            // Update colors based on percentage
+            updateUIColors(percentUsed, budget > 0)
         }
     }
 
-
     private fun handleBudgetNotifications(
         percentUsed: Int,
         totalExpenses: Double,
@@ -1069,7 +724,7 @@ class homeFragment : Fragment() {
                         expense.id
                     )
 
-                    updateExpenseOnServer(updatedExpense)
+                    updateExpenseOnServer(expense, updatedExpense)
                 } else {
                     Toast.makeText(requireContext(), "Please fill all fields", Toast.LENGTH_SHORT)
                         .show()
@@ -1079,78 +734,10 @@ class homeFragment : Fragment() {
             .show()
     }
 
-    private fun updateExpenseOnServer(updatedExpense: Expense) {
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/update/${updatedExpense.id}")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "PUT"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.doOutput = true
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val jsonObject = org.json.JSONObject().apply {
-                    put("name", updatedExpense.name)
-                    put("categoryId", updatedExpense.categoryId)
-                    put("date", updatedExpense.date)
-                    put("time", updatedExpense.time)
-                    put("amount", updatedExpense.amount)
-                }
-
-                val outputStream = connection.outputStream
-                outputStream.write(jsonObject.toString().toByteArray())
-                outputStream.flush()
-                outputStream.close()
-
-                val responseCode = connection.responseCode
-
-                requireActivity().runOnUiThread {
-                    if (responseCode == HttpURLConnection.HTTP_OK) {
-                        safeUIUpdate {
-                            val snackbar = Snackbar.make(
-                                requireView(),
-                                "Expense updated successfully",
-                                3000
-                            )
-                            snackbar.setBackgroundTint(
-                                ContextCompat.getColor(requireContext(), R.color.food)
-                            )
-                            snackbar.setTextColor(
-                                ContextCompat.getColor(requireContext(), R.color.white)
-                            )
-                            snackbar.show()
-
-                            loadExpenses()
-                            updateBudgetInfo()
-                            animateAfterUpdate()
-
-                            try {
-                                notificationHelper.checkAndShowBudgetAlertIfNeeded()
-                            } catch (e: Exception) {
-                                e.printStackTrace()
-                            }
-                        }
-                    } else {
-                        handleHttpErrorResponse(responseCode, "Update expense")
-                    }
-                }
-
-                connection.disconnect()
-
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout while updating expense")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed while updating expense")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error updating expense")
-            }
-        }
+    private fun updateExpenseOnServer(expense: Expense, updatedExpense: Expense) {
+        viewModel.updateExpense(getUserIdFromSession(), expense, updatedExpense)
     }
 
-
     private fun getCategoryIconResId(category: String): Int {
         return when (category) {
             "Food" -> R.drawable.food
@@ -1196,58 +783,41 @@ class homeFragment : Fragment() {
     }
 
     private fun deleteExpenseFromServer(expense: Expense) {
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/${expense.id}")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "DELETE"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-
-                requireActivity().runOnUiThread {
-                    if (responseCode == HttpURLConnection.HTTP_OK) {
-                        safeUIUpdate {
-                            val snackbar = Snackbar.make(requireView(), "Expense deleted", 2500)
-                            snackbar.setBackgroundTint(
-                                ContextCompat.getColor(requireContext(), R.color.food)
-                            )
-                            snackbar.setTextColor(
-                                ContextCompat.getColor(requireContext(), R.color.white)
-                            )
-                            snackbar.show()
-
-                            loadExpenses()
-                            updateBudgetInfo()
-                            animateAfterDelete()
-
-                            try {
-                                notificationHelper.checkAndShowBudgetAlertIfNeeded()
-                            } catch (e: Exception) {
-                                e.printStackTrace()
-                            }
-                        }
-                    } else {
-                        handleHttpErrorResponse(responseCode, "Delete expense")
-                    }
-                }
+        viewModel.deleteExpense(getUserIdFromSession(), expense)
+    }
 
-                connection.disconnect()
+    // The ViewModel reloads the list and the figures itself; this only sets up the feedback
+    private fun showChangeFeedback(change: HomeViewModel.Change) {
+        val message: String
+        val duration: Int
+        if (change == HomeViewModel.Change.UPDATED) {
+            message = "Expense updated successfully"
+            duration = 3000
+            pendingTotalAnimation = AnimationType.UPDATE
+        } else {
+            message = "Expense deleted"
+            duration = 2500
+            pendingTotalAnimation = AnimationType.DELETE
+        }
+
+        safeUIUpdate {
+            val snackbar = Snackbar.make(requireView(), message, duration)
+            snackbar.setBackgroundTint(
+                ContextCompat.getColor(requireContext(), R.color.food)
+            )
+            snackbar.setTextColor(
+                ContextCompat.getColor(requireContext(), R.color.white)
+            )
+            snackbar.show()
 
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout while deleting expense")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed while deleting expense")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
+            try {
+                notificationHelper.checkAndShowBudgetAlertIfNeeded()
             } catch (e: Exception) {
-                handleNetworkException(e, "Error deleting expense")
+                e.printStackTrace()
             }
         }
     }
 
-
     private fun animateUIElements() {
         // Welcome card animation
         val welcomeCard = view?.findViewById<androidx.cardview.widget.CardView>(R.id.welcomeCard)
@@ -1354,6 +924,9 @@ class homeFragment : Fragment() {
 
     private var currentDisplayedValue: Double = 0.0
 
+    // How the next total is brought in, set by the last update or delete
+    private var pendingTotalAnimation = AnimationType.DEFAULT
+
     private fun extractValueFromText(text: String): Double {
         return try {
             // Remove currency and extract number
@@ -1373,74 +946,43 @@ class homeFragment : Fragment() {
         }
     }
 
-    // Enhanced fetchAndDisplayTotalExpenses method with rolling animation
-    private fun fetchAndDisplayTotalExpensesWithAnimation() {
+    private fun showTotalExpenses(totalExpenses: Double) {
         val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
+        val animationType = pendingTotalAnimation
+        pendingTotalAnimation = AnimationType.DEFAULT
 
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-
-                    val totalExpenses = response.toDoubleOrNull() ?: 0.0
-
-                    if (isAdded && context != null) {
-                        val currentActivity = activity
-                        currentActivity?.runOnUiThread {
-                            if (!isAdded || context == null || !::totalExpenseTextView.isInitialized) return@runOnUiThread
-
-                            try {
-                                // Only animate if the value actually changed
-                                if (Math.abs(totalExpenses - currentDisplayedValue) > 0.01) {
-                                    // Use current displayed value as starting point
-                                    animateValueChange(
-                                        totalExpenseTextView,
-                                        currentDisplayedValue,
-                                        totalExpenses,
-                                        currency,
-                                        AnimationType.DEFAULT
-                                    )
-                                    // Update tracked value
-                                    currentDisplayedValue = totalExpenses
-                                } else {
-                                    // Value hasn't changed significantly, just update text
-                                    totalExpenseTextView.text =
-                                        "$currency ${String.format("%.2f", totalExpenses)}"
-                                }
-
-                            } catch (e: IllegalStateException) {
-                                println("Fragment detached during total expenses update: ${e.message}")
-                            }
-                        }
-                    }
-                } else {
-                    // Handle specific error codes - only show UI errors when appropriate
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            // Don't show anything for other errors - just log them
-                        }
-                    }
-                }
-                connection.disconnect()
-
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout while fetching total expenses with animation")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed while fetching expenses")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error fetching total expenses with animation")
+        safeUIUpdate {
+            // Only animate if the value actually changed
+            if (Math.abs(totalExpenses - currentDisplayedValue) <= 0.01) {
+                totalExpenseTextView.text = "$currency ${String.format("%.2f", totalExpenses)}"
+                currentDisplayedValue = totalExpenses
+                return@safeUIUpdate
             }
+
+            when (animationType) {
+                AnimationType.UPDATE -> showUpdateFeedback()
+                AnimationType.DELETE -> showDeleteFeedback()
+                else -> {}
+            }
+
+            // Feedback first, then roll the figure; a slightly longer pause for deletes
+            val delayMs = when (animationType) {
+                AnimationType.UPDATE -> 300L
+                AnimationType.DELETE -> 400L
+                else -> 0L
+            }
+            totalExpenseTextView.postDelayed({
+                if (isAdded && context != null) {
+                    animateValueChange(
+                        totalExpenseTextView,
+                        currentDisplayedValue,
+                        totalExpenses,
+                        currency,
+                        animationType
+                    )
+                    currentDisplayedValue = totalExpenses
+                }
+            }, delayMs)
         }
     }
 
@@ -1486,79 +1028,6 @@ class homeFragment : Fragment() {
         }
     }
 
-    private fun animateAfterUpdate() {
-        val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = connection.inputStream.bufferedReader().use { it.readText() }
-                    val totalExpenses = response.toDoubleOrNull() ?: 0.0
-
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            if (!isAdded || context == null || !::totalExpenseTextView.isInitialized) return@runOnUiThread
-
-                            try {
-                                if (Math.abs(totalExpenses - currentDisplayedValue) > 0.01) {
-                                    // Show visual feedback before animation
-                                    showUpdateFeedback()
-
-                                    // Delay the animation slightly for better visual effect
-                                    totalExpenseTextView.postDelayed({
-                                        if (isAdded && context != null) {
-                                            animateValueChange(
-                                                totalExpenseTextView,
-                                                currentDisplayedValue,
-                                                totalExpenses,
-                                                currency,
-                                                AnimationType.UPDATE
-                                            )
-                                            currentDisplayedValue = totalExpenses
-                                        }
-                                    }, 300)
-                                } else {
-                                    // Small change, just update without animation
-                                    totalExpenseTextView.text =
-                                        "$currency ${String.format("%.2f", totalExpenses)}"
-                                    currentDisplayedValue = totalExpenses
-                                }
-                            } catch (e: IllegalStateException) {
-                                println("Fragment detached during update animation: ${e.message}")
-                            }
-                        }
-                    }
-                } else {
-                    // Handle specific error codes - only show UI errors when appropriate
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            // Only show server errors, not network errors when online
-
-                            // Don't show anything for other errors - just log them
-                        }
-                    }
-                }
-                connection.disconnect()
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout during update animation")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed during update")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error during update animation")
-            }
-        }
-    }
-
     private fun animateValueChange(
         textView: TextView,
         fromValue: Double,
@@ -1609,82 +1078,6 @@ class homeFragment : Fragment() {
         animator.start()
     }
 
-    private fun animateAfterDelete() {
-        val currency = sharedPrefsManager.getCurrency()
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/total?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.connectTimeout = 8000
-                connection.readTimeout = 8000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = connection.inputStream.bufferedReader().use { it.readText() }
-                    val totalExpenses = response.toDoubleOrNull() ?: 0.0
-
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            if (!isAdded || context == null || !::totalExpenseTextView.isInitialized) return@runOnUiThread
-
-                            try {
-                                if (Math.abs(totalExpenses - currentDisplayedValue) > 0.01) {
-                                    // Show visual feedback before animation
-                                    showDeleteFeedback()
-
-                                    // Delay the animation slightly for dramatic effect
-                                    totalExpenseTextView.postDelayed({
-                                        if (isAdded && context != null) {
-                                            animateValueChange(
-                                                totalExpenseTextView,
-                                                currentDisplayedValue,
-                                                totalExpenses,
-                                                currency,
-                                                AnimationType.DELETE
-                                            )
-                                            currentDisplayedValue = totalExpenses
-                                        }
-                                    }, 400) // Slightly longer delay for delete
-                                } else {
-                                    // Small change, just update without animation
-                                    totalExpenseTextView.text =
-                                        "$currency ${String.format("%.2f", totalExpenses)}"
-                                    currentDisplayedValue = totalExpenses
-                                }
-                            } catch (e: IllegalStateException) {
-                                println("Fragment detached during delete animation: ${e.message}")
-                            }
-                        }
-                    }
-                } else {
-                    // Handle specific error codes - only show UI errors when appropriate
-                    if (isAdded && context != null) {
-                        activity?.runOnUiThread {
-                            // Only show server errors, not network errors when online
-                            if (responseCode == 404) {
-                            } else if (responseCode >= 500) {
-
-                            }
-                            // Don't show anything for other errors - just log them
-                        }
-                    }
-                }
-                connection.disconnect()
-            } catch (e: SocketTimeoutException) {
-                handleNetworkException(e, "Timeout during delete animation")
-            } catch (e: ConnectException) {
-                handleNetworkException(e, "Connection failed during delete")
-            } catch (e: UnknownHostException) {
-                handleNetworkException(e, "Network unavailable")
-            } catch (e: Exception) {
-                handleNetworkException(e, "Error during delete animation")
-            }
-        }
-    }
-
     private fun shouldShowNetworkError(): Boolean {
         return !networkUtils.isNetworkAvailable()
     }
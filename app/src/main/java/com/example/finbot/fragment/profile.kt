@@ -15,24 +15,34 @@ import androidx.core.content.FileProvider
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
 import com.example.finbot.R
+import com.example.finbot.network.ApiClient
+import com.example.finbot.network.ApiResponse
+import com.example.finbot.network.TransactionJson
 import com.example.finbot.util.NotificationHelper
 import com.example.finbot.util.SnackbarUtil
 import com.example.finbot.data.ExpenseReportData
 import com.example.finbot.data.ExpenseItem
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Expense
 import com.google.android.material.snackbar.Snackbar
 import java.net.HttpURLConnection
-import java.net.URL
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import org.json.JSONObject
-import org.json.JSONArray
 import android.content.res.Configuration
 import androidx.appcompat.app.AppCompatDelegate
 import androidx.core.content.ContextCompat
 import com.example.finbot.util.PDFGenerator
 import com.example.finbot.util.ThemeManager
+import com.example.finbot.util.Ledger
+import com.example.finbot.util.LedgerCodec
 import java.text.SimpleDateFormat
 import java.util.*
 import kotlin.collections.groupBy
@@ -40,6 +50,8 @@ import kotlin.collections.groupBy
 class profileFragment : Fragment() {
 
     private lateinit var notificationHelper: NotificationHelper
+    private val apiClient = ApiClient.getInstance()
+    private val repository by lazy { FinanceRepository.getInstance(requireContext()) }
 
     // UI components
     private lateinit var userNameInput: EditText
@@ -57,6 +69,11 @@ class profileFragment : Fragment() {
 
     private val currencies = arrayOf("LKR", "USD", "EUR", "GBP", "INR", "AUD")
 
+    companion object {
+        // One budget for all of a report's requests together
+        private const val REPORT_FETCH_DEADLINE_MS = 20_000L
+    }
+
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
@@ -108,6 +125,8 @@ class profileFragment : Fragment() {
             // Clear login state
             val sharedPref = requireActivity().getSharedPreferences("user_session", android.content.Context.MODE_PRIVATE)
             sharedPref.edit().clear().apply()
+            // Drop this account's records so the next one doesn't see them
+            FinanceRepository.getInstance(requireContext()).signOut()
 
             // Navigate to Login activity
             val intent = Intent(requireContext(), com.example.finbot.Login::class.java)
@@ -180,39 +199,62 @@ class profileFragment : Fragment() {
 
     private suspend fun fetchReportData(userId: String): ExpenseReportData? {
         return try {
-            // Fetch expenses
-            val expenses = fetchUserExpenses(userId)
-
-            // Fetch budget data
-            val budgetData = fetchUserBudget(userId)
-
-            // Fetch user data
-            val userData = fetchUserData(userId)
+            // The requests don't depend on each other, so they all go out at once and the report
+            // waits for the slowest one instead of their sum. Whatever is still running at the
+            // deadline is cancelled and the report fails as a whole.
+            val fetched = withTimeoutOrNull(REPORT_FETCH_DEADLINE_MS) {
+                coroutineScope {
+                    val expensesCall = async { fetchUserExpenses(userId) }
+                    val budgetCall = async { fetchUserBudget(userId) }
+                    val userCall = async { fetchUserData(userId) }
+                    Triple(expensesCall.await(), budgetCall.await(), userCall.await())
+                }
+            } ?: return null
+            val (expenses, budgetData, userData) = fetched
 
-            if (expenses != null && budgetData != null && userData != null) {
+            if (expenses != null && budgetData != null) {
                 // Calculate analytics
-                val totalExpenses = expenses.sumOf { it.amount }
+                val ledger = Ledger.ofReportItems(expenses)
+                val totalExpenses = LedgerCodec.toMajorUnits(ledger.sum())
                 val budgetLimit = budgetData.optDouble("budget", 0.0)
                 val budgetPercentage = if (budgetLimit > 0) (totalExpenses / budgetLimit) * 100 else 0.0
                 val currencyIndex = budgetData.optInt("currency", 0)
                 val currencyType = getCurrencySymbol(currencyIndex)
 
                 // Calculate highest used category
-                val categoryTotals = expenses.groupBy { it.categoryId }
-                    .mapValues { entry -> entry.value.sumOf { it.amount } }
-                val highestCategory = categoryTotals.maxByOrNull { it.value }
-                val highestUsedCategory = if (highestCategory != null) {
-                    getCategoryName(highestCategory.key)
+                val categoryTotals = ledger.categoryTotals()
+                var highestCategoryId = -1
+                for (categoryId in categoryTotals.indices) {
+                    if (categoryTotals[categoryId] == 0L) continue
+                    if (highestCategoryId == -1 || categoryTotals[categoryId] > categoryTotals[highestCategoryId]) {
+                        highestCategoryId = categoryId
+                    }
+                }
+                val highestUsedCategory = if (highestCategoryId != -1) {
+                    getCategoryName(highestCategoryId)
                 } else {
                     "N/A"
                 }
 
-                // Calculate daily analytics
-                val dailyTotals = expenses.groupBy { it.date }
-                    .mapValues { entry -> entry.value.sumOf { it.amount } }
-                val mostExpensesValuePerDay = dailyTotals.values.maxOrNull() ?: 0.0
-                val dailyAverageValue = if (dailyTotals.isNotEmpty()) {
-                    dailyTotals.values.average()
+                // Calculate daily analytics; the ledger is sorted by day, so each day is one run
+                var dayCount = 0
+                var datedTotal = 0L
+                var mostPerDay = 0L
+                var i = ledger.lowerBound(LedgerCodec.INVALID_DAY + 1)
+                while (i < ledger.size) {
+                    val day = ledger.day(i)
+                    var dayTotal = 0L
+                    while (i < ledger.size && ledger.day(i) == day) {
+                        dayTotal += ledger.amount(i)
+                        i++
+                    }
+                    if (dayCount == 0 || dayTotal > mostPerDay) mostPerDay = dayTotal
+                    datedTotal += dayTotal
+                    dayCount++
+                }
+                val mostExpensesValuePerDay = LedgerCodec.toMajorUnits(mostPerDay)
+                val dailyAverageValue = if (dayCount > 0) {
+                    datedTotal / 100.0 / dayCount
                 } else {
                     0.0
                 }
@@ -240,115 +282,81 @@ class profileFragment : Fragment() {
     }
 
     private suspend fun fetchUserExpenses(userId: String): List<ExpenseItem>? {
+        // Synced moments ago (by a screen or PrefetchScheduler): the journal is the list
+        repository.freshExpenses(userId)?.let { stored ->
+            return stored.map { toReportItem(it, userId) }
+        }
         return try {
-            val url = URL("http://192.168.103.87:8082/api/expenses/user?userId=$userId")
-            val connection = url.openConnection() as HttpURLConnection
-            connection.requestMethod = "GET"
-            connection.setRequestProperty("Content-Type", "application/json")
-
-            val responseCode = connection.responseCode
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                val inputStream = connection.inputStream
-                val response = inputStream.bufferedReader().use { it.readText() }
-
-                val jsonArray = JSONArray(response)
-                val expenses = mutableListOf<ExpenseItem>()
-
-                for (i in 0 until jsonArray.length()) {
-                    val expenseJson = jsonArray.getJSONObject(i)
-                    val expense = ExpenseItem(
-                        id = expenseJson.optString("id", ""),
-                        name = expenseJson.optString("name", ""),
-                        categoryId = expenseJson.optInt("categoryId", 0),
-                        categoryName = getCategoryName(expenseJson.optInt("categoryId", 0)),
-                        date = expenseJson.optString("date", ""),
-                        time = expenseJson.optString("time", ""),
-                        amount = expenseJson.optString("amount", "0").toDoubleOrNull() ?: 0.0,
-                        userId = expenseJson.optString("userId", "")
-                    )
-                    expenses.add(expense)
+            // Rows are decoded straight off the response stream; the full history never sits in
+            // memory as one String or JSON tree
+            runInterruptible(Dispatchers.IO) {
+                apiClient.getStreamed("/api/expenses/user?userId=$userId", false) { reader ->
+                    TransactionJson.readArray(reader) { TransactionJson.readExpenseItem(it, ::getCategoryName) }
                 }
-
-                connection.disconnect()
-                expenses
-            } else {
-                connection.disconnect()
-                null
             }
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
             e.printStackTrace()
             null
         }
     }
 
+    private fun toReportItem(expense: Expense, userId: String): ExpenseItem {
+        return ExpenseItem(
+            id = expense.id,
+            name = expense.name,
+            categoryId = expense.categoryId,
+            categoryName = getCategoryName(expense.categoryId),
+            date = expense.date,
+            time = expense.time,
+            amount = LedgerCodec.toMajorUnits(expense.amountMinor),
+            userId = userId,
+            epochDay = expense.epochDay,
+            amountMinor = expense.amountMinor
+        )
+    }
+
     private suspend fun fetchUserBudget(userId: String): JSONObject? {
-        return try {
-            val url = URL("http://192.168.103.87:8082/api/budget/get?userId=$userId")
-            val connection = url.openConnection() as HttpURLConnection
-            connection.requestMethod = "GET"
-            connection.setRequestProperty("Content-Type", "application/json")
-
-            val responseCode = connection.responseCode
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                val inputStream = connection.inputStream
-                val response = inputStream.bufferedReader().use { it.readText() }
-                connection.disconnect()
-                JSONObject(response)
-            } else {
-                connection.disconnect()
-                null
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-            null
-        }
+        val result = reportGet("/api/budget/get?userId=$userId") ?: return null
+        return if (result.code == HttpURLConnection.HTTP_OK) result.jsonObject else null
     }
 
-    private suspend fun fetchUserData(userId: String): JSONObject? {
-        return try {
-            // Fetch username
-            val usernameUrl = URL("http://192.168.103.87:8082/api/users/username/$userId")
-            val usernameConnection = usernameUrl.openConnection() as HttpURLConnection
-            usernameConnection.requestMethod = "GET"
-            usernameConnection.setRequestProperty("Content-Type", "application/json")
-
-            val usernameResponseCode = usernameConnection.responseCode
-            var username = "Unknown"
-            if (usernameResponseCode == HttpURLConnection.HTTP_OK) {
-                val usernameInputStream = usernameConnection.inputStream
-                username = usernameInputStream.bufferedReader().use { it.readText() }.trim()
-            }
-            usernameConnection.disconnect()
-
-            // Fetch user details including email
-            val userDetailsUrl = URL("http://192.168.103.87:8082/api/users/$userId")
-            val userDetailsConnection = userDetailsUrl.openConnection() as HttpURLConnection
-            userDetailsConnection.requestMethod = "GET"
-            userDetailsConnection.setRequestProperty("Content-Type", "application/json")
-
-            val userDetailsResponseCode = userDetailsConnection.responseCode
-            var email = "user@finbot.com" // fallback
-
-            if (userDetailsResponseCode == HttpURLConnection.HTTP_OK) {
-                val userDetailsInputStream = userDetailsConnection.inputStream
-                val userResponse = userDetailsInputStream.bufferedReader().use { it.readText() }
-                val userJson = JSONObject(userResponse)
-                email = userJson.optString("email", "user@finbot.com")
-            }
-            userDetailsConnection.disconnect()
+    // Username and email come from two endpoints, fetched side by side. Either one failing
+    // only costs its own field, which falls back to a placeholder.
+    private suspend fun fetchUserData(userId: String): JSONObject = coroutineScope {
+        val usernameCall = async { reportGet("/api/users/username/$userId") }
+        val userDetailsCall = async { reportGet("/api/users/$userId") }
 
-            val userData = JSONObject()
-            userData.put("username", username)
-            userData.put("email", email)
+        var username = "Unknown"
+        val usernameResult = usernameCall.await()
+        if (usernameResult?.code == HttpURLConnection.HTTP_OK) {
+            username = usernameResult.body.trim()
+        }
 
-            userData
+        var email = "user@finbot.com" // fallback
+        val userDetailsResult = userDetailsCall.await()
+        if (userDetailsResult?.code == HttpURLConnection.HTTP_OK) {
+            email = userDetailsResult.jsonObject?.optString("email", email) ?: email
+        }
+
+        val userData = JSONObject()
+        userData.put("username", username)
+        userData.put("email", email)
+        userData
+    }
+
+    // Blocking GET for the report; the thread is interrupted if the report deadline passes.
+    // Null when the request fails. Cached like the settings screen reads these, so records
+    // PrefetchScheduler fetched aren't asked for again.
+    private suspend fun reportGet(path: String): ApiResponse? {
+        return try {
+            runInterruptible(Dispatchers.IO) { apiClient.get(path, ApiClient.SETTINGS_MAX_AGE_MS) }
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
             e.printStackTrace()
-            // Return default data if API calls fail
-            val userData = JSONObject()
-            userData.put("username", "Unknown")
-            userData.put("email", "user@finbot.com")
-            userData
+            null
         }
     }
 
@@ -467,15 +475,11 @@ class profileFragment : Fragment() {
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
             try {
-                val url = URL("http://192.168.103.87:8082/api/users/username/$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.setRequestProperty("Content-Type", "application/json")
+                val result = apiClient.get("/api/users/username/$userId")
 
-                val responseCode = connection.responseCode
+                val responseCode = result.code
                 if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
+                    val response = result.body
                     val username = response.trim()
 
                     // Check if fragment is still attached before UI operations
@@ -495,7 +499,6 @@ class profileFragment : Fragment() {
                         }
                     }
                 }
-                connection.disconnect()
             } catch (e: Exception) {
                 e.printStackTrace()
                 if (isAdded && context != null) {
@@ -517,12 +520,6 @@ class profileFragment : Fragment() {
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
             try {
-                val url = URL("http://192.168.103.87:8082/api/budget/save")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "POST"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.doOutput = true
-
                 val jsonBody = JSONObject().apply {
                     put("userId", userId)
                     put("budget", 0.0)
@@ -532,13 +529,9 @@ class profileFragment : Fragment() {
                     put("alertPercent", 80)
                 }
 
-                val outputStream = connection.outputStream
-                outputStream.write(jsonBody.toString().toByteArray())
-                outputStream.flush()
-                outputStream.close()
+                val result = apiClient.post("/api/budget/save", jsonBody.toString())
 
-                val responseCode = connection.responseCode
-                connection.disconnect()
+                val responseCode = result.code
 
                 if (responseCode == HttpURLConnection.HTTP_OK && isAdded && context != null) {
                     requireActivity().runOnUiThread {
@@ -563,65 +556,68 @@ class profileFragment : Fragment() {
         if (!isAdded || context == null) return
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
+            val path = "/api/budget/get?userId=$userId"
+            // A failed refresh (network or server error) keeps the cached settings rather than
+            // writing defaults over them
+            val cached = apiClient.peek(path)
             try {
-                val url = URL("http://192.168.103.87:8082/api/budget/get?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.connectTimeout = 10000
-                connection.readTimeout = 10000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
+                if (cached != null) showBudgetSettings(cached)
 
-                    if (response.isNullOrEmpty() || response.trim().isEmpty()) {
-                        if (isAdded && context != null) {
-                            createDefaultBudgetForUser()
-                        }
-                        connection.disconnect()
-                        return@launch
+                val result = apiClient.get(path, ApiClient.SETTINGS_MAX_AGE_MS)
+                if (result !== cached && (cached == null || result.isSuccessful)) showBudgetSettings(result)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                if (cached == null) {
+                    if (isAdded && context != null) {
+                        createDefaultBudgetForUser()
                     }
+                }
+            }
+        }
+    }
 
-                    try {
-                        val jsonObject = JSONObject(response)
-                        val budget = jsonObject.optDouble("budget", 0.0)
-                        val currencyIndex = jsonObject.optInt("currency", 0)
+    private fun showBudgetSettings(result: ApiResponse) {
+        val responseCode = result.code
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            val response = result.body
 
-                        if (isAdded && context != null) {
-                            requireActivity().runOnUiThread {
-                                if (isAdded && ::monthlyBudgetInput.isInitialized && ::currencySpinner.isInitialized) {
-                                    monthlyBudgetInput.setText(budget.toString())
-                                    if (currencyIndex >= 0 && currencyIndex < currencies.size) {
-                                        currencySpinner.setSelection(currencyIndex)
-                                    } else {
-                                        currencySpinner.setSelection(0)
-                                    }
-                                }
+            if (response.isNullOrEmpty() || response.trim().isEmpty()) {
+                if (isAdded && context != null) {
+                    createDefaultBudgetForUser()
+                }
+                return
+            }
+
+            try {
+                val jsonObject = result.requireJsonObject()
+                val budget = jsonObject.optDouble("budget", 0.0)
+                val currencyIndex = jsonObject.optInt("currency", 0)
+
+                if (isAdded && context != null) {
+                    requireActivity().runOnUiThread {
+                        if (isAdded && ::monthlyBudgetInput.isInitialized && ::currencySpinner.isInitialized) {
+                            monthlyBudgetInput.setText(budget.toString())
+                            if (currencyIndex >= 0 && currencyIndex < currencies.size) {
+                                currencySpinner.setSelection(currencyIndex)
+                            } else {
+                                currencySpinner.setSelection(0)
                             }
                         }
-                    } catch (jsonException: Exception) {
-                        if (isAdded && context != null) {
-                            createDefaultBudgetForUser()
-                        }
-                    }
-                } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
-                    if (isAdded && context != null) {
-                        createDefaultBudgetForUser()
-                    }
-                } else {
-                    if (isAdded && context != null) {
-                        createDefaultBudgetForUser()
                     }
                 }
-                connection.disconnect()
-            } catch (e: Exception) {
-                e.printStackTrace()
+            } catch (jsonException: Exception) {
                 if (isAdded && context != null) {
                     createDefaultBudgetForUser()
                 }
             }
+        } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            if (isAdded && context != null) {
+                createDefaultBudgetForUser()
+            }
+        } else {
+            if (isAdded && context != null) {
+                createDefaultBudgetForUser()
+            }
         }
     }
 
@@ -632,53 +628,55 @@ class profileFragment : Fragment() {
         if (!isAdded || context == null) return
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
+            val path = "/api/budget/get?userId=$userId"
+            // Cached settings show at once; a failed refresh leaves them in place
+            val cached = apiClient.peek(path)
             try {
-                val url = URL("http://192.168.103.87:8082/api/budget/get?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.connectTimeout = 10000
-                connection.readTimeout = 10000
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
+                if (cached != null) showNotificationSettings(cached)
 
-                    if (response.isNullOrEmpty() || response.trim().isEmpty()) {
-                        setDefaultNotificationSettings()
-                        connection.disconnect()
-                        return@launch
-                    }
+                val result = apiClient.get(path, ApiClient.SETTINGS_MAX_AGE_MS)
+                if (result !== cached) showNotificationSettings(result)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                if (cached == null) {
+                    setDefaultNotificationSettings()
+                }
+            }
+        }
+    }
 
-                    try {
-                        val jsonObject = JSONObject(response)
-                        val notificationsEnabled = jsonObject.optBoolean("notificationsEnabled", true)
-                        val reminderEnabled = jsonObject.optBoolean("reminderEnabled", false)
-                        val alertPercent = jsonObject.optInt("alertPercent", 80)
+    private fun showNotificationSettings(result: ApiResponse) {
+        val responseCode = result.code
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            val response = result.body
 
-                        if (isAdded && context != null) {
-                            requireActivity().runOnUiThread {
-                                if (isAdded && ::budgetAlertsSwitch.isInitialized) {
-                                    budgetAlertsSwitch.isChecked = notificationsEnabled
-                                    dailyReminderSwitch.isChecked = reminderEnabled
-                                    alertThresholdSeekBar.progress = alertPercent
-                                    updateThresholdText(alertPercent)
-                                    alertThresholdLayout.visibility = if (notificationsEnabled) View.VISIBLE else View.GONE
-                                }
-                            }
+            if (response.isNullOrEmpty() || response.trim().isEmpty()) {
+                setDefaultNotificationSettings()
+                return
+            }
+
+            try {
+                val jsonObject = result.requireJsonObject()
+                val notificationsEnabled = jsonObject.optBoolean("notificationsEnabled", true)
+                val reminderEnabled = jsonObject.optBoolean("reminderEnabled", false)
+                val alertPercent = jsonObject.optInt("alertPercent", 80)
+
+                if (isAdded && context != null) {
+                    requireActivity().runOnUiThread {
+                        if (isAdded && ::budgetAlertsSwitch.isInitialized) {
+                            budgetAlertsSwitch.isChecked = notificationsEnabled
+                            dailyReminderSwitch.isChecked = reminderEnabled
+                            alertThresholdSeekBar.progress = alertPercent
+                            updateThresholdText(alertPercent)
+                            alertThresholdLayout.visibility = if (notificationsEnabled) View.VISIBLE else View.GONE
                         }
-                    } catch (jsonException: Exception) {
-                        setDefaultNotificationSettings()
                     }
-                } else {
-                    setDefaultNotificationSettings()
                 }
-                connection.disconnect()
-            } catch (e: Exception) {
-                e.printStackTrace()
+            } catch (jsonException: Exception) {
                 setDefaultNotificationSettings()
             }
+        } else {
+            setDefaultNotificationSettings()
         }
     }
 
@@ -737,22 +735,13 @@ class profileFragment : Fragment() {
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
             try {
-                val url = URL("http://192.168.103.87:8082/api/users/username/$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "PUT"
-                connection.setRequestProperty("Content-Type", "application/json")
-                connection.doOutput = true
-
                 val jsonBody = JSONObject().apply {
                     put("username", newUsername)
                 }
 
-                val outputStream = connection.outputStream
-                outputStream.write(jsonBody.toString().toByteArray())
-                outputStream.flush()
-                outputStream.close()
+                val result = apiClient.put("/api/users/username/$userId", jsonBody.toString())
 
-                val responseCode = connection.responseCode
+                val responseCode = result.code
 
                 if (isAdded && context != null) {
                     requireActivity().runOnUiThread {
@@ -822,22 +811,12 @@ class profileFragment : Fragment() {
 
             viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
                 try {
-                    val budgetUrl = URL("http://192.168.103.87:8082/api/budget/update/budget?userId=$userId&budget=$budget")
-                    val budgetConnection = budgetUrl.openConnection() as HttpURLConnection
-                    budgetConnection.requestMethod = "PUT"
-                    budgetConnection.setRequestProperty("Content-Type", "application/json")
-
-                    val budgetResponseCode = budgetConnection.responseCode
-                    budgetConnection.disconnect()
+                    val budgetResult = apiClient.put("/api/budget/update/budget?userId=$userId&budget=$budget")
+                    val budgetResponseCode = budgetResult.code
 
                     if (budgetResponseCode == HttpURLConnection.HTTP_OK) {
-                        val currencyUrl = URL("http://192.168.103.87:8082/api/budget/update/currency?userId=$userId&currency=$currencyIndex")
-                        val currencyConnection = currencyUrl.openConnection() as HttpURLConnection
-                        currencyConnection.requestMethod = "PUT"
-                        currencyConnection.setRequestProperty("Content-Type", "application/json")
-
-                        val currencyResponseCode = currencyConnection.responseCode
-                        currencyConnection.disconnect()
+                        val currencyResult = apiClient.put("/api/budget/update/currency?userId=$userId&currency=$currencyIndex")
+                        val currencyResponseCode = currencyResult.code
 
                         if (isAdded && context != null) {
                             requireActivity().runOnUiThread {
@@ -905,13 +884,8 @@ class profileFragment : Fragment() {
 
         viewLifecycleOwner.lifecycleScope.launch(Dispatchers.IO) {
             try {
-                val url = URL("http://192.168.103.87:8082/api/budget/update/notifications?userId=$userId&notificationsEnabled=$notificationsEnabled&reminderEnabled=$reminderEnabled&alertPercent=$alertPercent")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "PUT"
-                connection.setRequestProperty("Content-Type", "application/json")
-
-                val responseCode = connection.responseCode
-                connection.disconnect()
+                val result = apiClient.put("/api/budget/update/notifications?userId=$userId&notificationsEnabled=$notificationsEnabled&reminderEnabled=$reminderEnabled&alertPercent=$alertPercent")
+                val responseCode = result.code
 
                 if (isAdded && context != null) {
                     requireActivity().runOnUiThread {
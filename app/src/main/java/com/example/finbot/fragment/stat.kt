@@ -10,32 +10,27 @@ import android.widget.LinearLayout
 import android.widget.TextView
 import androidx.core.content.ContextCompat.getColor
 import androidx.fragment.app.Fragment
+import androidx.fragment.app.viewModels
 import com.example.finbot.R
-import com.example.finbot.model.Earning
-import com.example.finbot.model.Expense
+import com.example.finbot.util.Ledger
+import com.example.finbot.util.LedgerCodec
+import com.example.finbot.util.LedgerStats
 import com.example.finbot.util.SharedPreferencesManager
+import com.example.finbot.viewmodel.StatViewModel
 import com.github.mikephil.charting.charts.LineChart
 import com.github.mikephil.charting.charts.PieChart
 import com.github.mikephil.charting.components.XAxis
 import com.github.mikephil.charting.data.*
 import com.google.android.flexbox.FlexboxLayout
 import com.google.android.material.chip.ChipGroup
-import java.net.URL
-import java.text.SimpleDateFormat
 import java.util.*
 import kotlin.collections.ArrayList
 import kotlin.collections.HashMap
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import java.net.HttpURLConnection
-import org.json.JSONArray
-import org.json.JSONObject
 
 class statFragment : Fragment() {
 
     private lateinit var sharedPrefsManager: SharedPreferencesManager
+    private val viewModel: StatViewModel by viewModels()
     private lateinit var pieChart: PieChart
     private lateinit var lineChart: LineChart
     private lateinit var earningsLineChart: LineChart
@@ -46,6 +41,10 @@ class statFragment : Fragment() {
 
     private var currentPeriod = PERIOD_WEEK
 
+    // Last fetched data, kept so period toggles only re-slice it; main thread only
+    private var expenseLedger: Ledger? = null
+    private var earningLedger: Ledger? = null
+
     companion object {
         const val PERIOD_WEEK = 0
         const val PERIOD_MONTH = 1
@@ -105,147 +104,49 @@ class statFragment : Fragment() {
         return Pair(startCalendar, endCalendar)
     }
 
-    private fun fetchExpenses(period: Int) {
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/expenses/user?userId=$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val inputStream = connection.inputStream
-                    val response = inputStream.bufferedReader().use { it.readText() }
-
-                    val expenses = mutableListOf<Expense>()
-                    val jsonArray = JSONArray(response)
-
-                    for (i in 0 until jsonArray.length()) {
-                        val item = jsonArray.getJSONObject(i)
-
-                        val id = item.getString("id")
-                        val name = item.getString("name")
-                        val date = item.getString("date")
-                        val time = if (item.has("time")) item.getString("time") else "00:00"
-                        val amount = item.getString("amount")
-                        val categoryId = item.getInt("categoryId")
-
-                        val category = getCategoryFromId(categoryId)
-                        val expense = Expense(0, name, category, date, time, amount, categoryId, id)
-                        expenses.add(expense)
-                    }
-
-                    // Filter expenses by the selected period
-                    val filtered = filterExpensesByPeriod(expenses, period)
-
-                    withContext(Dispatchers.Main) {
-                        updateSummaryCards(filtered)
-                        setupPieChart(pieChart, filtered)
-                        setupLineChart(lineChart, filtered, period)
-                    }
-
-                } else {
-                    withContext(Dispatchers.Main) {
-                        setupEmptyPieChart()
-                    }
-                }
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                withContext(Dispatchers.Main) {
-                    setupEmptyPieChart()
-                }
-            }
-        }
+    // Rows dated from the period's first day through today; two binary searches, no copying
+    private fun getPeriodRange(ledger: Ledger, period: Int): Ledger.Range {
+        val (startCalendar, endCalendar) = getDateRange(period)
+        return ledger.between(LedgerCodec.epochDayOf(startCalendar), LedgerCodec.epochDayOf(endCalendar))
     }
 
-    private fun fetchEarnings(period: Int) {
-        val userId = getUserIdFromSession()
-
-        CoroutineScope(Dispatchers.IO).launch {
-            try {
-                val url = URL("http://192.168.103.87:8082/api/earnings/user/$userId")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.requestMethod = "GET"
-
-                val responseCode = connection.responseCode
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val response = connection.inputStream.bufferedReader().use { it.readText() }
-
-                    val earnings = mutableListOf<Earning>()
-                    val jsonArray = JSONArray(response)
-
-                    for (i in 0 until jsonArray.length()) {
-                        val obj = jsonArray.getJSONObject(i)
-                        val earning = Earning(
-                            obj.getString("id"),
-                            obj.getString("category"),
-                            obj.getDouble("amount"),
-                            obj.getString("date"),
-                            obj.getString("time"),
-                            obj.getString("userId")
-                        )
-                        earnings.add(earning)
-                    }
-
-                    // Filter earnings by the selected period
-                    val filtered = filterEarningsByPeriod(earnings, period)
-
-                    withContext(Dispatchers.Main) {
-                        setupEarningsLineChart(earningsLineChart, filtered, period)
-                    }
-
-                } else {
-                    withContext(Dispatchers.Main) {
-                        setupEmptyEarningsLineChart()
-                    }
-                }
+    // One aggregation pass over the period feeds every chart and card for that data set
+    private fun getPeriodStats(ledger: Ledger, period: Int): LedgerStats {
+        val calendar = Calendar.getInstance()
+        return LedgerStats.of(
+            getPeriodRange(ledger, period), calendar.firstDayOfWeek, calendar.minimalDaysInFirstWeek
+        )
+    }
 
-            } catch (e: Exception) {
-                e.printStackTrace()
-                withContext(Dispatchers.Main) {
-                    setupEmptyEarningsLineChart()
-                }
-            }
+    private fun getPeriodBuckets(stats: LedgerStats, period: Int): LongArray {
+        return when (period) {
+            PERIOD_WEEK -> stats.dailyTotals
+            PERIOD_MONTH -> stats.weeklyTotals
+            else -> stats.monthlyTotals
         }
     }
 
-    private fun filterExpensesByPeriod(expenses: List<Expense>, period: Int): List<Expense> {
-        val (startCalendar, endCalendar) = getDateRange(period)
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
-
-        return expenses.filter {
-            try {
-                val expenseDate = dateFormat.parse(it.date)
-                expenseDate != null &&
-                        expenseDate.after(startCalendar.time) &&
-                        expenseDate.before(endCalendar.time) ||
-                        expenseDate == startCalendar.time ||
-                        expenseDate == endCalendar.time
-            } catch (e: Exception) {
-                false
-            }
-        }
+    private fun showExpenses(ledger: Ledger) {
+        val stats = getPeriodStats(ledger, currentPeriod)
+        updateSummaryCards(stats)
+        setupPieChart(pieChart, stats)
+        setupLineChart(lineChart, stats, currentPeriod)
     }
 
-    private fun filterEarningsByPeriod(earnings: List<Earning>, period: Int): List<Earning> {
-        val (startCalendar, endCalendar) = getDateRange(period)
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
-
-        return earnings.filter {
-            try {
-                val earningDate = dateFormat.parse(it.date)
-                earningDate != null &&
-                        earningDate.after(startCalendar.time) &&
-                        earningDate.before(endCalendar.time) ||
-                        earningDate == startCalendar.time ||
-                        earningDate == endCalendar.time
-            } catch (e: Exception) {
-                false
-            }
+    private fun showEarnings(ledger: Ledger) {
+        setupEarningsLineChart(earningsLineChart, getPeriodStats(ledger, currentPeriod), currentPeriod)
+    }
+
+    // Period toggles re-slice what is already loaded instead of fetching again
+    private fun showPeriod() {
+        val expenses = expenseLedger
+        val earnings = earningLedger
+        if (expenses == null || earnings == null) {
+            loadData()
+            return
         }
+        showExpenses(expenses)
+        showEarnings(earnings)
     }
 
     override fun onCreateView(
@@ -266,14 +167,35 @@ class statFragment : Fragment() {
         legendContainer = view.findViewById(R.id.legendContainer)
 
         setupPeriodSelectionListeners()
-        loadData(PERIOD_WEEK)
 
         return view
     }
 
+    override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
+        super.onViewCreated(view, savedInstanceState)
+
+        viewModel.expenseLedger.observe(viewLifecycleOwner) { ledger ->
+            expenseLedger = ledger
+            showExpenses(ledger)
+        }
+        viewModel.earningLedger.observe(viewLifecycleOwner) { ledger ->
+            earningLedger = ledger
+            showEarnings(ledger)
+        }
+        viewModel.errors.observe(viewLifecycleOwner) { event ->
+            when (event.take()?.operation) {
+                StatViewModel.LOAD_EXPENSES -> setupEmptyPieChart()
+                StatViewModel.LOAD_EARNINGS -> setupEmptyEarningsLineChart()
+            }
+        }
+    }
+
     override fun onResume() {
         super.onResume()
-        loadData(currentPeriod)
+        // A rotation keeps the ViewModel's ledgers; only reload once they may be out of date
+        if (!viewModel.isFresh()) {
+            loadData()
+        }
     }
 
     private fun setupPeriodSelectionListeners() {
@@ -281,24 +203,23 @@ class statFragment : Fragment() {
             when (checkedId) {
                 R.id.chipWeek -> {
                     currentPeriod = PERIOD_WEEK
-                    loadData(PERIOD_WEEK)
+                    showPeriod()
                 }
                 R.id.chipMonth -> {
                     currentPeriod = PERIOD_MONTH
-                    loadData(PERIOD_MONTH)
+                    showPeriod()
                 }
                 R.id.chipYear -> {
                     currentPeriod = PERIOD_YEAR
-                    loadData(PERIOD_YEAR)
+                    showPeriod()
                 }
             }
         }
     }
 
-    private fun loadData(period: Int) {
+    private fun loadData() {
         try {
-            fetchExpenses(period)
-            fetchEarnings(period)
+            viewModel.refresh(getUserIdFromSession())
         } catch (e: Exception) {
             e.printStackTrace()
             totalSpentText.text = "${sharedPrefsManager.getCurrency()} 0.00"
@@ -310,16 +231,12 @@ class statFragment : Fragment() {
     }
 
     // Updated setupPieChart function
-    private fun setupPieChart(pieChart: PieChart, expenses: List<Expense>) {
+    private fun setupPieChart(pieChart: PieChart, stats: LedgerStats) {
         try {
-            val categoryMap = HashMap<String, Double>()
-            expenses.forEach { expense ->
-                val amount = expense.amount.toDoubleOrNull() ?: 0.0
-                categoryMap[expense.category] = (categoryMap[expense.category] ?: 0.0) + amount
-            }
+            val categoryMap = getCategorySums(stats)
+            val totalAmount = stats.total
 
             val entries = ArrayList<PieEntry>()
-            val totalAmount = categoryMap.values.sum()
 
             if (totalAmount <= 0) {
                 setupEmptyPieChart()
@@ -337,7 +254,7 @@ class statFragment : Fragment() {
 
             val colors = ArrayList<Int>()
             categoryMap.forEach { (category, amount) ->
-                val percentage = (amount / totalAmount * 100).toFloat()
+                val percentage = (amount.toDouble() / totalAmount * 100).toFloat()
                 entries.add(PieEntry(percentage, category))
                 colors.add(colorMap[category] ?: Color.GREEN)
             }
@@ -445,17 +362,24 @@ class statFragment : Fragment() {
         }
     }
 
-    private fun updateSummaryCards(expenses: List<Expense>) {
-        val totalSpent = expenses.sumOf { it.amount.toDoubleOrNull() ?: 0.0 }
-        val currency = sharedPrefsManager.getCurrency()
+    // Per-category totals keyed by display name
+    private fun getCategorySums(stats: LedgerStats): LinkedHashMap<String, Long> {
+        val totals = stats.categoryTotals
+        val categorySums = LinkedHashMap<String, Long>()
+        for (categoryId in totals.indices) {
+            if (totals[categoryId] == 0L) continue
+            val category = getCategoryFromId(categoryId)
+            categorySums[category] = (categorySums[category] ?: 0L) + totals[categoryId]
+        }
+        return categorySums
+    }
 
-        totalSpentText.text = "$currency ${String.format("%.2f", totalSpent)}"
+    private fun updateSummaryCards(stats: LedgerStats) {
+        val totalSpent = stats.total
+        val categorySums = getCategorySums(stats)
 
-        val categorySums = HashMap<String, Double>()
-        expenses.forEach { expense ->
-            val amount = expense.amount.toDoubleOrNull() ?: 0.0
-            categorySums[expense.category] = (categorySums[expense.category] ?: 0.0) + amount
-        }
+        val currency = sharedPrefsManager.getCurrency()
+        totalSpentText.text = "$currency ${String.format("%.2f", LedgerCodec.toMajorUnits(totalSpent))}"
 
         val highestCategory = categorySums.maxByOrNull { it.value }?.key ?: "None"
         highestCategoryText.text = highestCategory
@@ -511,79 +435,13 @@ class statFragment : Fragment() {
 
 
     // Updated setupLineChart function
-    private fun setupLineChart(lineChart: LineChart, expenses: List<Expense>, period: Int) {
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
+    private fun setupLineChart(lineChart: LineChart, stats: LedgerStats, period: Int) {
         val entries = ArrayList<Entry>()
-        val (startCalendar, endCalendar) = getDateRange(period)
 
-        when (period) {
-            PERIOD_WEEK -> {
-                // Group by days of the week
-                val dailyExpenses = Array(7) { 0f }
-
-                expenses.forEach { expense ->
-                    try {
-                        val expenseDate = dateFormat.parse(expense.date) ?: return@forEach
-                        val expenseCalendar = Calendar.getInstance().apply { time = expenseDate }
-
-                        val dayOfWeek = expenseCalendar.get(Calendar.DAY_OF_WEEK)
-                        val index = if (dayOfWeek == Calendar.SUNDAY) 6 else dayOfWeek - Calendar.MONDAY
-
-                        val amount = expense.amount.toFloatOrNull() ?: 0f
-                        dailyExpenses[index] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in dailyExpenses.indices) {
-                    entries.add(Entry(i.toFloat(), dailyExpenses[i]))
-                }
-            }
-            PERIOD_MONTH -> {
-                // Group by weeks in the month
-                val weeklyExpenses = Array(5) { 0f }
-
-                expenses.forEach { expense ->
-                    try {
-                        val expenseDate = dateFormat.parse(expense.date) ?: return@forEach
-                        val expenseCalendar = Calendar.getInstance().apply { time = expenseDate }
-
-                        val weekOfMonth = expenseCalendar.get(Calendar.WEEK_OF_MONTH) - 1
-                        val index = weekOfMonth.coerceIn(0, 4)
-
-                        val amount = expense.amount.toFloatOrNull() ?: 0f
-                        weeklyExpenses[index] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in weeklyExpenses.indices) {
-                    entries.add(Entry(i.toFloat(), weeklyExpenses[i]))
-                }
-            }
-            PERIOD_YEAR -> {
-                // Group by months in the year
-                val monthlyExpenses = Array(12) { 0f }
-
-                expenses.forEach { expense ->
-                    try {
-                        val expenseDate = dateFormat.parse(expense.date) ?: return@forEach
-                        val expenseCalendar = Calendar.getInstance().apply { time = expenseDate }
-
-                        val month = expenseCalendar.get(Calendar.MONTH)
-                        val amount = expense.amount.toFloatOrNull() ?: 0f
-                        monthlyExpenses[month] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in monthlyExpenses.indices) {
-                    entries.add(Entry(i.toFloat(), monthlyExpenses[i]))
-                }
-            }
+        // Buckets come from the single aggregation pass; pick the ones for this period
+        val buckets = getPeriodBuckets(stats, period)
+        for (i in buckets.indices) {
+            entries.add(Entry(i.toFloat(), buckets[i] / 100f))
         }
 
         if (entries.isEmpty() || entries.all { it.y <= 0f }) {
@@ -650,76 +508,13 @@ class statFragment : Fragment() {
 
 
     // Updated setupEarningsLineChart function
-    private fun setupEarningsLineChart(lineChart: LineChart, earnings: List<Earning>, period: Int) {
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
+    private fun setupEarningsLineChart(lineChart: LineChart, stats: LedgerStats, period: Int) {
         val entries = ArrayList<Entry>()
-        val (startCalendar, endCalendar) = getDateRange(period)
-
-        when (period) {
-            PERIOD_WEEK -> {
-                val dailyEarnings = Array(7) { 0f }
-
-                earnings.forEach { earning ->
-                    try {
-                        val earningDate = dateFormat.parse(earning.date) ?: return@forEach
-                        val earningCalendar = Calendar.getInstance().apply { time = earningDate }
 
-                        val dayOfWeek = earningCalendar.get(Calendar.DAY_OF_WEEK)
-                        val index = if (dayOfWeek == Calendar.SUNDAY) 6 else dayOfWeek - Calendar.MONDAY
-
-                        val amount = earning.amount.toFloat()
-                        dailyEarnings[index] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in dailyEarnings.indices) {
-                    entries.add(Entry(i.toFloat(), dailyEarnings[i]))
-                }
-            }
-            PERIOD_MONTH -> {
-                val weeklyEarnings = Array(5) { 0f }
-
-                earnings.forEach { earning ->
-                    try {
-                        val earningDate = dateFormat.parse(earning.date) ?: return@forEach
-                        val earningCalendar = Calendar.getInstance().apply { time = earningDate }
-
-                        val weekOfMonth = earningCalendar.get(Calendar.WEEK_OF_MONTH) - 1
-                        val index = weekOfMonth.coerceIn(0, 4)
-
-                        val amount = earning.amount.toFloat()
-                        weeklyEarnings[index] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in weeklyEarnings.indices) {
-                    entries.add(Entry(i.toFloat(), weeklyEarnings[i]))
-                }
-            }
-            PERIOD_YEAR -> {
-                val monthlyEarnings = Array(12) { 0f }
-
-                earnings.forEach { earning ->
-                    try {
-                        val earningDate = dateFormat.parse(earning.date) ?: return@forEach
-                        val earningCalendar = Calendar.getInstance().apply { time = earningDate }
-
-                        val month = earningCalendar.get(Calendar.MONTH)
-                        val amount = earning.amount.toFloat()
-                        monthlyEarnings[month] += amount
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-                }
-
-                for (i in monthlyEarnings.indices) {
-                    entries.add(Entry(i.toFloat(), monthlyEarnings[i]))
-                }
-            }
+        // Buckets come from the single aggregation pass; pick the ones for this period
+        val buckets = getPeriodBuckets(stats, period)
+        for (i in buckets.indices) {
+            entries.add(Entry(i.toFloat(), buckets[i] / 100f))
         }
 
         if (entries.isEmpty() || entries.all { it.y <= 0f }) {
@@ -1,5 +1,7 @@
 package com.example.finbot.model
 
+import com.example.finbot.util.LedgerCodec
+
 class Expense(
     val iconResId: Int,
     val name: String,
@@ -9,4 +11,34 @@ class Expense(
     val amount: String,
     val categoryId: Int,
     val id: String
-)
\ No newline at end of file
+) {
+    // Parsed from date and amount on first use and kept, not persisted. Not done in the
+    // constructor, since Gson builds records without running it.
+    @Transient
+    private var parsedEpochDay = 0
+    @Transient
+    private var parsedAmountMinor = 0L
+    @Transient
+    @Volatile
+    private var parsed = false
+
+    val epochDay: Int
+        get() {
+            parse()
+            return parsedEpochDay
+        }
+
+    val amountMinor: Long
+        get() {
+            parse()
+            return parsedAmountMinor
+        }
+
+    // Racing threads parse the same strings to the same values, so no lock is needed
+    private fun parse() {
+        if (parsed) return
+        parsedEpochDay = LedgerCodec.parseEpochDay(date)
+        parsedAmountMinor = LedgerCodec.parseMinorUnits(amount)
+        parsed = true
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.finbot.network
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.MalformedJsonException
+import okhttp3.ConnectionPool
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+// Result of a backend call; body holds the error body for non-2xx responses
+data class ApiResponse(
+    val code: Int,
+    val body: String
+) {
+    val isSuccessful: Boolean
+        get() = code in 200..299
+
+    // Parsed at most once per response, so callers sharing a coalesced GET share the parse too.
+    // Null when the body isn't that kind of JSON. Treat the results as read-only.
+    val jsonObject: JSONObject? by lazy {
+        try { JSONObject(body) } catch (e: Exception) { null }
+    }
+
+    val jsonArray: JSONArray? by lazy {
+        try { JSONArray(body) } catch (e: Exception) { null }
+    }
+
+    fun requireJsonObject(): JSONObject = jsonObject ?: throw JSONException("Expected a JSON object")
+
+    fun requireJsonArray(): JSONArray = jsonArray ?: throw JSONException("Expected a JSON array")
+}
+
+// Non-2xx answer to a streamed GET, which has no ApiResponse to carry the code
+class HttpStatusException(val code: Int, message: String) : IOException(message)
+
+// A GET answered with one of the retried 5xx codes, carried through the retry loop so the last
+// one can still be handed back with its error body
+private class RetryableResponse(val response: ApiResponse) : IOException("HTTP ${response.code}")
+
+// Single entry point for talking to the FinBot backend.
+// One OkHttpClient (and so one connection pool) is shared by every screen, so requests reuse
+// warm keep-alive connections instead of opening a new socket each time. HTTP/2 is negotiated
+// automatically on TLS endpoints. All calls are blocking; run them off the main thread.
+class ApiClient private constructor(
+    @Volatile var baseUrl: String,
+    baseHttpClient: OkHttpClient
+) {
+
+    companion object {
+        const val DEFAULT_BASE_URL = "http://192.168.103.87:8082"
+
+        // Same 8s budget the screens used to set on each HttpURLConnection
+        private const val TIMEOUT_SECONDS = 8L
+        private const val MAX_IDLE_CONNECTIONS = 5
+        private const val KEEP_ALIVE_MINUTES = 5L
+
+        // GETs are idempotent, so they get a couple of extra attempts on I/O failures and on
+        // the 5xx answers of a server that is restarting or overloaded, with exponential backoff
+        // and jitter so clients don't retry in lockstep
+        private const val MAX_GET_ATTEMPTS = 3
+        private const val RETRY_BASE_MS = 300L
+        private const val RETRY_MAX_MS = 2_000L
+        private val RETRY_CODES = setOf(500, 502, 503, 504)
+
+        // How long a cached GET is served without asking the server. Writes made through this
+        // client mark everything stale, so these mostly bound how late other devices' changes show up
+        const val LIST_MAX_AGE_MS = 30_000L
+        const val SETTINGS_MAX_AGE_MS = 5 * 60_000L
+
+        private const val MAX_CACHE_ENTRIES = 32
+
+        // Compact form of the transaction lists (see TransactionJson); servers that don't know it
+        // answer with plain JSON
+        const val TABLE_MEDIA_TYPE = "application/vnd.finbot.table+json"
+
+        private val JSON = "application/json; charset=utf-8".toMediaType()
+
+        @Volatile
+        private var INSTANCE: ApiClient? = null
+
+        fun getInstance(): ApiClient {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: ApiClient(DEFAULT_BASE_URL, buildHttpClient()).also { INSTANCE = it }
+            }
+        }
+
+        // Points the shared client somewhere else, e.g. a local mock server in tests
+        fun configure(baseUrl: String, httpClient: OkHttpClient = buildHttpClient()) {
+            synchronized(this) {
+                INSTANCE = ApiClient(baseUrl.trimEnd('/'), httpClient)
+            }
+        }
+
+        private fun buildHttpClient(): OkHttpClient {
+            return OkHttpClient.Builder()
+                .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(CompressionInterceptor())
+                .build()
+        }
+    }
+
+    // Adaptive timeouts and the circuit breaker, wrapped around whichever client was given
+    private val health = EndpointHealth(baseHttpClient.readTimeoutMillis.toLong())
+    private val httpClient = baseHttpClient.newBuilder().addInterceptor(health).build()
+
+    // Last successful response per GET path, with the validators the server sent for it
+    private class CacheEntry(
+        val response: ApiResponse,
+        val etag: String?,
+        val lastModified: String?,
+        @Volatile var storedAt: Long
+    ) {
+        // Set by writes; the entry must be revalidated before anyone sees it again
+        @Volatile var invalidated = false
+
+        fun revalidated(now: Long): ApiResponse {
+            storedAt = now
+            invalidated = false
+            return response
+        }
+    }
+
+    // In memory only: it survives fragments being recreated, not the process
+    private val cache = object : LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CacheEntry>): Boolean {
+            return size > MAX_CACHE_ENTRIES
+        }
+    }
+
+    // Bumped by every write, so code keeping its own copy of server data (TransactionSync) knows
+    // when a TTL no longer applies
+    @Volatile
+    var writeGeneration = 0L
+        private set
+
+    // ETag / Last-Modified of the last streamed response per path (and form, see getStreamed)
+    private val streamValidators = object : LinkedHashMap<String, Pair<String?, String?>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Pair<String?, String?>>): Boolean {
+            return size > MAX_CACHE_ENTRIES
+        }
+    }
+
+    // GETs currently on the wire, by path (the user id is part of the query string)
+    private val inFlight = ConcurrentHashMap<String, CompletableFuture<ApiResponse>>()
+
+    // Last good response for path, however old, so a screen can render it before the network
+    // answers. Nothing is returned after a write, so a reload never flashes pre-edit data.
+    fun peek(path: String): ApiResponse? {
+        val entry = cacheEntry(path) ?: return null
+        return if (entry.invalidated) null else entry.response
+    }
+
+    // Within maxAgeMs of the last fetch the cached response is returned without a request.
+    // Otherwise the server is asked, conditionally when there is a cached copy; if the data hasn't
+    // changed the cached ApiResponse instance itself comes back, so callers can skip re-rendering
+    // with an identity check against peek().
+    // Identical GETs issued while one is already running wait for it and get the same response
+    // instead of opening another request. If that request was cancelled or interrupted rather than
+    // answered, the waiters don't inherit that: they go again, one of them leading a new request.
+    // While the backend is down (see EndpointHealth) a cached copy is returned straight away,
+    // however old, unless a write has invalidated it; otherwise the call fails fast with
+    // BackendUnavailableException.
+    fun get(path: String, maxAgeMs: Long = 0L): ApiResponse {
+        if (health.isOpen()) {
+            cacheEntry(path)?.let { if (!it.invalidated) return it.response }
+        }
+        if (maxAgeMs > 0) {
+            val entry = cacheEntry(path)
+            if (entry != null && !entry.invalidated &&
+                System.currentTimeMillis() - entry.storedAt < maxAgeMs
+            ) {
+                return entry.response
+            }
+        }
+
+        while (true) {
+            val call = CompletableFuture<ApiResponse>()
+            val running = inFlight.putIfAbsent(path, call)
+            if (running != null) {
+                awaitLeader(running)?.let { return it }
+                continue
+            }
+
+            try {
+                val response = getWithRetry(path)
+                inFlight.remove(path, call)
+                call.complete(response)
+                return response
+            } catch (e: Throwable) {
+                // Out of the map before waiters wake, so one going again can't find this call
+                inFlight.remove(path, call)
+                call.completeExceptionally(e)
+                throw e
+            }
+        }
+    }
+
+    // The leader's response, or null when it was cancelled or interrupted instead of getting one.
+    // This thread's own interruption still propagates.
+    private fun awaitLeader(call: CompletableFuture<ApiResponse>): ApiResponse? {
+        try {
+            return call.get()
+        } catch (e: CancellationException) {
+            return null
+        } catch (e: ExecutionException) {
+            val cause = e.cause ?: throw e
+            if (isCancellation(cause)) return null
+            throw cause
+        }
+    }
+
+    // A socket timeout is a real failure; an interrupted or cancelled call says nothing about the server
+    private fun isCancellation(e: Throwable): Boolean {
+        return (e is InterruptedIOException && e !is SocketTimeoutException) ||
+            e is InterruptedException || e is CancellationException
+    }
+
+    private fun getWithRetry(path: String): ApiResponse {
+        val entry = cacheEntry(path)
+        val builder = newRequest(path).get()
+        entry?.etag?.let { builder.header("If-None-Match", it) }
+        entry?.lastModified?.let { builder.header("If-Modified-Since", it) }
+        val request = builder.build()
+
+        return try {
+            withGetRetries {
+                val response = executeGet(path, request, entry)
+                if (response.code in RETRY_CODES) throw RetryableResponse(response)
+                response
+            }
+        } catch (e: RetryableResponse) {
+            e.response
+        }
+    }
+
+    // Client errors and bad JSON would only come back the same, so only transport failures and
+    // RETRY_CODES retry, and not once the breaker has opened or the caller has been interrupted
+    private inline fun <T> withGetRetries(call: () -> T): T {
+        var attempt = 1
+        while (true) {
+            try {
+                return call()
+            } catch (e: IOException) {
+                if ((e is HttpStatusException && e.code !in RETRY_CODES) ||
+                    e is MalformedJsonException || e is BackendUnavailableException || isCancellation(e) ||
+                    attempt >= MAX_GET_ATTEMPTS || health.isOpen()
+                ) {
+                    throw e
+                }
+                val backoff = (RETRY_BASE_MS shl (attempt - 1)).coerceAtMost(RETRY_MAX_MS)
+                Thread.sleep(backoff / 2 + Random.nextLong(backoff / 2 + 1))
+                attempt++
+            }
+        }
+    }
+
+    // Call when connectivity comes back; failures seen on the old network no longer count
+    fun onNetworkChanged() {
+        health.reset()
+    }
+
+    // Decodes a GET body while it downloads instead of buffering it into a String first, for
+    // responses that can be large. Not cached or coalesced: the body is consumed as it's read.
+    // With conditional = true the validators of the last streamed response for path are sent
+    // and null means "not modified since"; only ask for that when you still hold that data.
+    // Non-2xx answers throw HttpStatusException.
+    // compact = true also offers TABLE_MEDIA_TYPE, so decode has to accept either form.
+    fun <T> getStreamed(
+        path: String,
+        conditional: Boolean,
+        compact: Boolean = false,
+        decode: (JsonReader) -> T
+    ): T? {
+        val builder = newRequest(path).get()
+        if (compact) builder.header("Accept", "$TABLE_MEDIA_TYPE, application/json;q=0.9")
+        // The two forms have their own validators
+        val validatorKey = if (compact) "$TABLE_MEDIA_TYPE $path" else path
+        if (conditional) {
+            synchronized(streamValidators) { streamValidators[validatorKey] }?.let { (etag, lastModified) ->
+                etag?.let { builder.header("If-None-Match", it) }
+                lastModified?.let { builder.header("If-Modified-Since", it) }
+            }
+        }
+        val request = builder.build()
+
+        return withGetRetries {
+            httpClient.newCall(request).execute().use { response ->
+                if (response.code == 304 && conditional) return@use null
+                if (!response.isSuccessful) {
+                    throw HttpStatusException(response.code, "HTTP ${response.code} for $path")
+                }
+                val body = response.body ?: throw IOException("Empty response body for $path")
+                val value = JsonReader(body.charStream()).use(decode)
+
+                val etag = response.header("ETag")
+                val lastModified = response.header("Last-Modified")
+                synchronized(streamValidators) {
+                    if (etag != null || lastModified != null) {
+                        streamValidators[validatorKey] = etag to lastModified
+                    } else {
+                        streamValidators.remove(validatorKey)
+                    }
+                }
+                value
+            }
+        }
+    }
+
+    private fun executeGet(path: String, request: Request, entry: CacheEntry?): ApiResponse {
+        httpClient.newCall(request).execute().use { response ->
+            val now = System.currentTimeMillis()
+            if (response.code == 304 && entry != null) {
+                return entry.revalidated(now)
+            }
+
+            val result = ApiResponse(response.code, response.body?.string() ?: "")
+            if (result.code != 200) return result
+
+            // Servers without validators still send the same bytes when nothing changed
+            if (entry != null && entry.response.body == result.body) {
+                return entry.revalidated(now)
+            }
+            synchronized(cache) {
+                cache[path] = CacheEntry(result, response.header("ETag"), response.header("Last-Modified"), now)
+            }
+            return result
+        }
+    }
+
+    private fun cacheEntry(path: String): CacheEntry? {
+        return synchronized(cache) { cache[path] }
+    }
+
+    // Any write may change what the cached GETs return (lists, totals, budget), and a write that
+    // timed out may still have landed. Entries keep their validators, so the next get() can still
+    // come back as a cheap 304.
+    private fun markCacheStale() {
+        synchronized(cache) {
+            cache.values.forEach { it.invalidated = true }
+            writeGeneration++
+        }
+    }
+
+    // idempotencyKey is sent as Idempotency-Key, so the server can recognise a retried write
+    fun post(path: String, json: String, idempotencyKey: String? = null): ApiResponse {
+        try {
+            return execute(newRequest(path, idempotencyKey).post(json.toRequestBody(JSON)).build())
+        } finally {
+            markCacheStale()
+        }
+    }
+
+    // Several update endpoints take everything in the query string and no body
+    fun put(path: String, json: String? = null, idempotencyKey: String? = null): ApiResponse {
+        try {
+            return execute(newRequest(path, idempotencyKey).put(jsonBody(json)).build())
+        } finally {
+            markCacheStale()
+        }
+    }
+
+    fun delete(path: String, idempotencyKey: String? = null): ApiResponse {
+        try {
+            return execute(newRequest(path, idempotencyKey).delete().build())
+        } finally {
+            markCacheStale()
+        }
+    }
+
+    private fun newRequest(path: String, idempotencyKey: String? = null): Request.Builder {
+        val builder = Request.Builder()
+            .url(baseUrl + path)
+            .header("Accept", "application/json")
+        idempotencyKey?.let { builder.header("Idempotency-Key", it) }
+        return builder
+    }
+
+    private fun jsonBody(json: String?): RequestBody {
+        return (json ?: "").toRequestBody(JSON)
+    }
+
+    private fun execute(request: Request): ApiResponse {
+        httpClient.newCall(request).execute().use { response ->
+            return ApiResponse(response.code, response.body?.string() ?: "")
+        }
+    }
+}
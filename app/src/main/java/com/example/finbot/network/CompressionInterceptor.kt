@@ -0,0 +1,49 @@
+package com.example.finbot.network
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.BufferedSource
+import okio.GzipSource
+import okio.InflaterSource
+import okio.buffer
+import java.util.zip.Inflater
+
+// Asks for gzip or deflate responses and inflates them before anyone reads the body.
+// OkHttp only handles gzip on its own, and only while nobody sets Accept-Encoding; this takes
+// over both, so list downloads are compressed whichever of the two the backend supports.
+class CompressionInterceptor : Interceptor {
+
+    companion object {
+        private const val ACCEPT_ENCODING = "gzip, deflate"
+    }
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (request.header("Accept-Encoding") != null) return chain.proceed(request)
+
+        val response = chain.proceed(request.newBuilder().header("Accept-Encoding", ACCEPT_ENCODING).build())
+        val encoding = response.header("Content-Encoding")?.trim()?.lowercase() ?: return response
+        val body = response.body ?: return response
+        if (request.method == "HEAD" || response.code == 204 || response.code == 304) return response
+
+        val source = when (encoding) {
+            "gzip" -> GzipSource(body.source())
+            // Meant to be zlib-wrapped, but some servers send raw deflate data
+            "deflate" -> InflaterSource(body.source(), Inflater(!hasZlibHeader(body.source().peek())))
+            else -> return response
+        }
+        return response.newBuilder()
+            .removeHeader("Content-Encoding")
+            .removeHeader("Content-Length")
+            .body(source.buffer().asResponseBody(body.contentType(), -1L))
+            .build()
+    }
+
+    private fun hasZlibHeader(peek: BufferedSource): Boolean {
+        if (!peek.request(2)) return false
+        val cmf = peek.readByte().toInt() and 0xFF
+        val flg = peek.readByte().toInt() and 0xFF
+        return cmf and 0x0F == 8 && (cmf * 256 + flg) % 31 == 0
+    }
+}
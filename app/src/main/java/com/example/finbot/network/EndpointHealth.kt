@@ -0,0 +1,166 @@
+package com.example.finbot.network
+
+import okhttp3.Interceptor
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.concurrent.TimeUnit
+
+// Thrown instead of making a request while the backend is considered down
+class BackendUnavailableException(val retryInMs: Long) :
+    IOException("Backend unavailable, retrying in ${retryInMs / 1000}s")
+
+// Watches every call to the backend and decides how long the next one may take.
+//
+// Timeouts: the time to response headers is kept per endpoint (method plus path, with ids
+// folded), and connect/read timeouts follow TIMEOUT_MULTIPLIER times its p95 between
+// MIN_TIMEOUT_MS and the client's own timeout. Timed-out calls count as samples too, so a
+// slowing endpoint gets more time rather than timing out for good.
+//
+// Circuit breaker: FAILURE_THRESHOLD transport failures (or 502/503/504) in a row open it, and
+// calls then fail at once with BackendUnavailableException. After the open period one call is
+// let through as a probe; if it fails too the period doubles, up to MAX_OPEN_MS.
+class EndpointHealth(private val defaultTimeoutMs: Long) : Interceptor {
+
+    companion object {
+        private const val WINDOW = 32
+        private const val MIN_SAMPLES = 5
+        private const val TIMEOUT_MULTIPLIER = 4
+        private const val MIN_TIMEOUT_MS = 2_000L
+
+        private const val FAILURE_THRESHOLD = 3
+        private const val BASE_OPEN_MS = 5_000L
+        private const val MAX_OPEN_MS = 60_000L
+
+        private val DOWN_CODES = setOf(502, 503, 504)
+    }
+
+    // Last WINDOW header times of one endpoint, in ms
+    private class Latencies {
+        private val samples = LongArray(WINDOW)
+        private var count = 0
+        private var next = 0
+
+        @Synchronized
+        fun add(ms: Long) {
+            samples[next] = ms
+            next = (next + 1) % WINDOW
+            if (count < WINDOW) count++
+        }
+
+        @Synchronized
+        fun p95(): Long? {
+            if (count < MIN_SAMPLES) return null
+            val sorted = samples.copyOf(count).apply { sort() }
+            return sorted[((count - 1) * 95) / 100]
+        }
+    }
+
+    private val latencies = HashMap<String, Latencies>()
+
+    // Breaker state, all under lock
+    private val lock = Any()
+    private var consecutiveFailures = 0
+    private var trips = 0
+    private var openUntil = 0L
+    private var probing = false
+
+    // True while calls are being refused; cached data is the better answer then
+    fun isOpen(): Boolean {
+        synchronized(lock) {
+            return trips > 0 && (System.currentTimeMillis() < openUntil || probing)
+        }
+    }
+
+    // The network changed (e.g. back online), so earlier failures say little about the next call
+    fun reset() {
+        synchronized(lock) {
+            consecutiveFailures = 0
+            trips = 0
+            openUntil = 0L
+            probing = false
+        }
+    }
+
+    // Current timeout for request, in ms
+    fun timeoutFor(request: Request): Long {
+        val p95 = latenciesOf(endpointOf(request)).p95() ?: return defaultTimeoutMs
+        return (p95 * TIMEOUT_MULTIPLIER).coerceIn(MIN_TIMEOUT_MS, defaultTimeoutMs)
+    }
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val probe = admit()
+        val timeout = timeoutFor(request).toInt()
+        val started = System.nanoTime()
+        val response = try {
+            chain.withConnectTimeout(timeout, TimeUnit.MILLISECONDS)
+                .withReadTimeout(timeout, TimeUnit.MILLISECONDS)
+                .proceed(request)
+        } catch (e: IOException) {
+            if (e is InterruptedIOException && e !is SocketTimeoutException) {
+                // The caller gave up (cancelled or interrupted); that says nothing about the backend
+                if (probe) synchronized(lock) { probing = false }
+            } else {
+                if (e is SocketTimeoutException) record(request, started)
+                onFailure()
+            }
+            throw e
+        }
+        record(request, started)
+        if (response.code in DOWN_CODES) onFailure() else onSuccess()
+        return response
+    }
+
+    // Lets the call through or throws; true when it goes out as the half-open probe
+    private fun admit(): Boolean {
+        synchronized(lock) {
+            if (trips == 0) return false
+            val now = System.currentTimeMillis()
+            if (now < openUntil || probing) {
+                throw BackendUnavailableException((openUntil - now).coerceAtLeast(0L))
+            }
+            probing = true
+            return true
+        }
+    }
+
+    private fun onSuccess() {
+        synchronized(lock) {
+            consecutiveFailures = 0
+            trips = 0
+            probing = false
+        }
+    }
+
+    private fun onFailure() {
+        synchronized(lock) {
+            consecutiveFailures++
+            // Calls that were already out when the breaker opened don't open it again
+            if (probing || (trips == 0 && consecutiveFailures >= FAILURE_THRESHOLD)) {
+                probing = false
+                trips++
+                val openMs = (BASE_OPEN_MS shl (trips - 1).coerceAtMost(4)).coerceAtMost(MAX_OPEN_MS)
+                openUntil = System.currentTimeMillis() + openMs
+            }
+        }
+    }
+
+    private fun record(request: Request, startedNanos: Long) {
+        latenciesOf(endpointOf(request)).add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos))
+    }
+
+    private fun latenciesOf(endpoint: String): Latencies {
+        return synchronized(latencies) { latencies.getOrPut(endpoint) { Latencies() } }
+    }
+
+    // "GET /api/users/username/{id}": query strings and id-like segments don't make a new endpoint
+    private fun endpointOf(request: Request): String {
+        val segments = request.url.pathSegments.joinToString("/") { segment ->
+            if (segment.any { it.isDigit() }) "{id}" else segment
+        }
+        return "${request.method} /$segments"
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.finbot.network
+
+import com.example.finbot.data.ExpenseItem
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import com.example.finbot.util.LedgerCodec
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.MalformedJsonException
+
+// Streaming decoders for the backend's transaction records. They read straight off a JsonReader,
+// so a list is turned into model objects as it arrives, without a String copy of the body or an
+// org.json tree in between. Unknown fields are skipped; missing or null ones get the same
+// defaults the screens used before.
+//
+// A record list comes either as an array of objects or, when ApiClient.TABLE_MEDIA_TYPE was
+// accepted, as a table that names the fields once instead of in every record:
+//     {"columns": ["id", "name", "categoryId", "date", "time", "amount"],
+//      "rows": [["e1", "Lunch", 1, "2024-01-05", "12:30", "12.50"], ...]}
+// Both forms go through the same per-field setters, so they decode to identical models.
+object TransactionJson {
+
+    // One record being decoded, field by field
+    interface Fields<T> {
+        fun read(name: String, reader: JsonReader)
+        fun build(): T
+    }
+
+    fun <T> readArray(reader: JsonReader, readItem: (JsonReader) -> T): List<T> {
+        val items = ArrayList<T>()
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            return items
+        }
+        reader.beginArray()
+        while (reader.hasNext()) {
+            items.add(readItem(reader))
+        }
+        reader.endArray()
+        return items
+    }
+
+    fun readStrings(reader: JsonReader): List<String> {
+        return readArray(reader) { nextString(it) ?: "" }
+    }
+
+    // Either form of a record list, or null as an empty one
+    fun <T> readRecords(reader: JsonReader, newFields: () -> Fields<T>): List<T> {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return readArray(reader) { readObject(it, newFields()) }
+        }
+
+        var columns: List<String>? = null
+        var records: List<T> = emptyList()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "columns" -> columns = readStrings(reader)
+                "rows" -> records = readRows(reader, columns, newFields)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return records
+    }
+
+    // The rows of a table; the backend always writes "columns" ahead of them
+    fun <T> readRows(reader: JsonReader, columns: List<String>?, newFields: () -> Fields<T>): List<T> {
+        if (columns == null) throw MalformedJsonException("Table rows before columns")
+        return readArray(reader) { row ->
+            val fields = newFields()
+            var column = 0
+            row.beginArray()
+            while (row.hasNext()) {
+                if (column < columns.size) fields.read(columns[column], row) else row.skipValue()
+                column++
+            }
+            row.endArray()
+            fields.build()
+        }
+    }
+
+    fun <T> readObject(reader: JsonReader, fields: Fields<T>): T {
+        reader.beginObject()
+        while (reader.hasNext()) {
+            fields.read(reader.nextName(), reader)
+        }
+        reader.endObject()
+        return fields.build()
+    }
+
+    class ExpenseFields : Fields<Expense> {
+        private var id = ""
+        private var name = ""
+        private var date = ""
+        private var time = "00:00"
+        private var amount = "0"
+        private var categoryId = 0
+
+        override fun read(name: String, reader: JsonReader) {
+            when (name) {
+                "id" -> id = nextString(reader) ?: id
+                "name" -> this.name = nextString(reader) ?: this.name
+                "date" -> date = nextString(reader) ?: date
+                "time" -> time = nextString(reader) ?: time
+                "amount" -> amount = nextString(reader) ?: amount
+                "categoryId" -> categoryId = nextInt(reader, categoryId)
+                else -> reader.skipValue()
+            }
+        }
+
+        override fun build(): Expense {
+            return Expense(0, name, getCategoryFromId(categoryId), date, time, amount, categoryId, id)
+        }
+    }
+
+    class EarningFields : Fields<Earning> {
+        private var id = ""
+        private var category = ""
+        private var amount = 0.0
+        private var date = ""
+        private var time = ""
+        private var userId = ""
+
+        override fun read(name: String, reader: JsonReader) {
+            when (name) {
+                "id" -> id = nextString(reader) ?: id
+                "category" -> category = nextString(reader) ?: category
+                "amount" -> amount = nextString(reader)?.toDoubleOrNull() ?: amount
+                "date" -> date = nextString(reader) ?: date
+                "time" -> time = nextString(reader) ?: time
+                "userId" -> userId = nextString(reader) ?: userId
+                else -> reader.skipValue()
+            }
+        }
+
+        override fun build(): Earning = Earning(id, category, amount, date, time, userId)
+    }
+
+    // Report rows; the amount is kept exact in minor units and the category named by the caller
+    fun readExpenseItem(reader: JsonReader, categoryName: (Int) -> String): ExpenseItem {
+        var id = ""
+        var name = ""
+        var categoryId = 0
+        var date = ""
+        var time = ""
+        var amount = "0"
+        var userId = ""
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "id" -> id = nextString(reader) ?: id
+                "name" -> name = nextString(reader) ?: name
+                "categoryId" -> categoryId = nextInt(reader, categoryId)
+                "date" -> date = nextString(reader) ?: date
+                "time" -> time = nextString(reader) ?: time
+                "amount" -> amount = nextString(reader) ?: amount
+                "userId" -> userId = nextString(reader) ?: userId
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        val amountMinor = LedgerCodec.parseMinorUnits(amount)
+        return ExpenseItem(
+            id = id,
+            name = name,
+            categoryId = categoryId,
+            categoryName = categoryName(categoryId),
+            date = date,
+            time = time,
+            amount = LedgerCodec.toMajorUnits(amountMinor),
+            userId = userId,
+            amountMinor = amountMinor
+        )
+    }
+
+    // Strings, numbers and booleans all come back as text (as org.json's getString did); null as null
+    fun nextString(reader: JsonReader): String? {
+        return when (reader.peek()) {
+            JsonToken.NULL -> {
+                reader.nextNull()
+                null
+            }
+            JsonToken.BOOLEAN -> reader.nextBoolean().toString()
+            JsonToken.STRING, JsonToken.NUMBER -> reader.nextString()
+            else -> {
+                reader.skipValue()
+                null
+            }
+        }
+    }
+
+    private fun nextInt(reader: JsonReader, default: Int): Int {
+        return nextString(reader)?.let { it.toIntOrNull() ?: it.toDoubleOrNull()?.toInt() } ?: default
+    }
+
+    private fun getCategoryFromId(categoryId: Int): String {
+        return when (categoryId) {
+            1 -> "Food"
+            2 -> "Shopping"
+            3 -> "Transport"
+            4 -> "Health"
+            5 -> "Utility"
+            else -> "Other"
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.finbot.network
+
+import android.content.Context
+import com.example.finbot.util.SharedPreferencesManager
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import java.net.URLEncoder
+
+// Keeps the local expense and earning journals in step with the backend by fetching only what
+// changed since the last sync.
+//
+// Request: the usual list endpoint plus since=<cursor> once a cursor is known.
+// Response: a plain JSON array, taken as the complete list (what the current backend returns,
+// and the only answer to a request without since), or, for requests with since,
+//     {"cursor": "...", "full": false, "changed": [records], "deleted": ["id", ...]}
+// where full = true means "changed" is the complete list (e.g. the cursor was too old).
+// The compact table form is accepted too (see TransactionJson): on its own it is the complete
+// list, and it can stand in for the "changed" array.
+// The cursor is opaque to the client; the server can use a timestamp or a version number.
+// While WriteQueue still holds local edits for a list, the local copy is left as it is.
+// The journals hold one account at a time; syncing for another user drops what they held first.
+class TransactionSync private constructor(context: Context) {
+
+    companion object {
+        private const val EXPENSES = 0
+        private const val EARNINGS = 1
+
+        @Volatile
+        private var INSTANCE: TransactionSync? = null
+
+        fun getInstance(context: Context): TransactionSync {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: TransactionSync(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private val sharedPrefsManager = SharedPreferencesManager.getInstance(context)
+    private val writeQueue = WriteQueue.getInstance(context)
+    private val apiClient: ApiClient
+        get() = ApiClient.getInstance()
+
+    // Per list: one sync at a time, and when the last one finished. A second screen asking
+    // within the TTL, with no writes in between, gets the journal as it is.
+    private val locks = arrayOf(Any(), Any())
+    // Guards the three arrays below. Separate from locks, which are held for a whole sync, so
+    // isJournalFresh can read them without waiting for one
+    private val stampLock = Any()
+    private val lastSyncAt = LongArray(2)
+    private val lastSyncGeneration = LongArray(2) { -1L }
+    private val lastSyncUser = arrayOfNulls<String>(2)
+
+    // One response, normalised: full replaces the journal, otherwise changed/deleted are merged
+    private class Batch<T>(
+        val full: Boolean,
+        val changed: List<T>,
+        val deletedIds: List<String>,
+        val cursor: String?
+    )
+
+    // True when the journal changed and lists should be re-rendered.
+    // Throws on network errors and non-200 answers.
+    fun syncExpenses(userId: String): Boolean {
+        return sync(EXPENSES, userId, "/api/expenses/user?userId=$userId", TransactionJson::ExpenseFields) { batch ->
+            writeQueue.unlessPending(WriteQueue.EXPENSE, userId) {
+                sharedPrefsManager.applyExpenseSync(userId, batch.full, batch.changed, batch.deletedIds, batch.cursor)
+            } ?: false
+        }
+    }
+
+    fun syncEarnings(userId: String): Boolean {
+        return sync(EARNINGS, userId, "/api/earnings/user/$userId", TransactionJson::EarningFields) { batch ->
+            writeQueue.unlessPending(WriteQueue.EARNING, userId) {
+                sharedPrefsManager.applyEarningSync(userId, batch.full, batch.changed, batch.deletedIds, batch.cursor)
+            } ?: false
+        }
+    }
+
+    // True when syncing now would make no request and the journal is what a sync would leave,
+    // so callers that only read (the PDF report) can take it as it is. Doesn't wait for a sync
+    // in progress; that one just doesn't count yet.
+    fun isExpenseJournalFresh(userId: String): Boolean = isJournalFresh(EXPENSES, userId)
+
+    fun isEarningJournalFresh(userId: String): Boolean = isJournalFresh(EARNINGS, userId)
+
+    private fun isJournalFresh(list: Int, userId: String): Boolean {
+        if (!isMirrorOf(list, userId)) return false
+        if (writeQueue.hasPending(if (list == EXPENSES) WriteQueue.EXPENSE else WriteQueue.EARNING, userId)) {
+            return true
+        }
+        return withinTtl(list, userId, apiClient.writeGeneration)
+    }
+
+    private fun withinTtl(list: Int, userId: String, generation: Long): Boolean {
+        synchronized(stampLock) {
+            return lastSyncUser[list] == userId && lastSyncGeneration[list] == generation &&
+                System.currentTimeMillis() - lastSyncAt[list] < ApiClient.LIST_MAX_AGE_MS
+        }
+    }
+
+    private fun <T> sync(
+        list: Int,
+        userId: String,
+        basePath: String,
+        newFields: () -> TransactionJson.Fields<T>,
+        apply: (Batch<T>) -> Boolean
+    ): Boolean {
+        sharedPrefsManager.claimJournals(userId)
+        // Queued writes go first and the list is fetched once they're through; until then the
+        // local copy, edits included, is what screens should show. Nothing changed for them to
+        // re-render: either the journal already mirrors the user and they have it, or it holds
+        // only the queued records and isn't their list yet.
+        if (writeQueue.hasPending(if (list == EXPENSES) WriteQueue.EXPENSE else WriteQueue.EARNING, userId)) {
+            writeQueue.scheduleFlush(0L)
+            return false
+        }
+        synchronized(locks[list]) {
+            val generation = apiClient.writeGeneration
+            val mirrored = isMirrorOf(list, userId)
+            val cursor = if (list == EXPENSES) {
+                sharedPrefsManager.getExpenseSyncCursor(userId)
+            } else {
+                sharedPrefsManager.getEarningSyncCursor(userId)
+            }
+            if (mirrored && withinTtl(list, userId, generation)) return false
+
+            val path = if (cursor != null) {
+                basePath + (if (basePath.contains('?')) "&" else "?") + "since=" + URLEncoder.encode(cursor, "UTF-8")
+            } else {
+                basePath
+            }
+            // Records are decoded as they stream in. While we hold a mirror the request is
+            // conditional, so an unchanged full list can come back as a bodiless 304 (null).
+            val batch = apiClient.getStreamed(path, mirrored, compact = true) { reader ->
+                readBatch(reader, cursor, newFields)
+            }
+            val changed = batch != null && apply(batch)
+
+            synchronized(stampLock) {
+                lastSyncAt[list] = System.currentTimeMillis()
+                lastSyncGeneration[list] = generation
+                lastSyncUser[list] = userId
+            }
+            return changed || !mirrored
+        }
+    }
+
+    private fun isMirrorOf(list: Int, userId: String): Boolean {
+        return if (list == EXPENSES) {
+            sharedPrefsManager.isExpenseMirrorOf(userId)
+        } else {
+            sharedPrefsManager.isEarningMirrorOf(userId)
+        }
+    }
+
+    private fun <T> readBatch(
+        reader: JsonReader,
+        cursor: String?,
+        newFields: () -> TransactionJson.Fields<T>
+    ): Batch<T> {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            return Batch(true, TransactionJson.readRecords(reader, newFields), emptyList(), null)
+        }
+
+        var full = false
+        var changed: List<T> = emptyList()
+        var deletedIds: List<String> = emptyList()
+        var nextCursor: String? = null
+        var columns: List<String>? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "full" -> full = TransactionJson.nextString(reader)?.toBoolean() ?: false
+                "cursor" -> nextCursor = TransactionJson.nextString(reader)
+                "changed" -> changed = TransactionJson.readRecords(reader, newFields)
+                "deleted" -> deletedIds = TransactionJson.readStrings(reader)
+                // A bare table: the complete list
+                "columns" -> columns = TransactionJson.readStrings(reader)
+                "rows" -> {
+                    changed = TransactionJson.readRows(reader, columns, newFields)
+                    full = true
+                }
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        // A delta without a cursor leaves us where we were; a full list without one means the
+        // server can't do deltas, so the next sync is a full one again
+        return Batch(full, changed, deletedIds, nextCursor ?: if (full) null else cursor)
+    }
+}
@@ -0,0 +1,480 @@
+package com.example.finbot.network
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import com.example.finbot.util.JournalStore
+import com.example.finbot.util.NetworkUtils
+import com.example.finbot.util.SharedPreferencesManager
+import com.google.gson.Gson
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.io.IOException
+import java.util.UUID
+
+// Outbound expense and earning writes. Adds, edits and deletes are applied to the local journals
+// straight away and queued here; the queue lives in its own journal and is flushed in the
+// background whenever NetworkUtils reports connectivity, so screens never wait on the network.
+//
+// Every operation carries an Idempotency-Key that stays the same across retries. Edits to an
+// operation that hasn't gone out yet are folded into it (add + edit is one add, add + delete is
+// nothing), and a flush sends everything that's ready in a single request:
+//     POST BATCH_PATH {"operations": [{"key", "method", "path", "body"}, ...]}
+//     -> {"results": [{"key", "code", "body"}, ...]}
+// Backends without that endpoint get the operations one by one, in queue order.
+// Adds are stored under a local id until the server answers with the real one; operations on
+// the record queued meanwhile wait for that answer and are then re-pointed at the server id.
+// Operations are sent for whichever account queued them, even after a switch, but only touch
+// the local journals while that account still owns them.
+class WriteQueue private constructor(context: Context) {
+
+    companion object {
+        const val EXPENSE = "expense"
+        const val EARNING = "earning"
+
+        private const val ADD = "add"
+        private const val UPDATE = "update"
+        private const val DELETE = "delete"
+
+        private const val OUTBOX_JOURNAL = "outbox.journal"
+        private const val LOCAL_ID_PREFIX = "local-"
+        private const val BATCH_PATH = "/api/batch"
+
+        // A short pause before flushing, so a burst of edits goes out together
+        private const val FLUSH_DELAY_MS = 500L
+        private const val MAX_BATCH_SIZE = 50
+        private const val RETRY_BASE_MS = 2_000L
+        private const val RETRY_MAX_MS = 5 * 60_000L
+
+        @Volatile
+        private var INSTANCE: WriteQueue? = null
+
+        fun getInstance(context: Context): WriteQueue {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: WriteQueue(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    // One queued request. attempts > 0 means it may already have reached the server, so it is
+    // never merged with later edits after that.
+    private data class PendingWrite(
+        val key: String,
+        val kind: String,
+        val action: String,
+        val userId: String,
+        val recordId: String,
+        val body: String?,
+        val attempts: Int = 0
+    )
+
+    private val sharedPrefsManager = SharedPreferencesManager.getInstance(context)
+    private val store = JournalStore(File(context.filesDir, OUTBOX_JOURNAL))
+    private val gson = Gson()
+    private val apiClient: ApiClient
+        get() = ApiClient.getInstance()
+
+    // Queue in order, mirrored in store, plus the keys currently on the wire. Local journal
+    // changes that go with a queue change are made under the same lock.
+    private val lock = Any()
+    private val pending = LinkedHashMap<String, PendingWrite>()
+    private val inFlight = HashSet<String>()
+    // Local id -> server id for adds acknowledged while the app is running, so a screen still
+    // showing the local id edits the right record
+    private val serverIds = HashMap<String, String>()
+    private var scheduledFlush: Job? = null
+
+    private val flushLock = Any()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var failedFlushes = 0
+    @Volatile
+    private var batchSupported = true
+    @Volatile
+    private var networkUtils: NetworkUtils? = null
+
+    init {
+        store.forEach { _, json ->
+            val op = gson.fromJson(json, PendingWrite::class.java)
+            pending[op.key] = op
+        }
+        // NetworkUtils sets its LiveData when created, and LiveData is observed on the main thread
+        Handler(Looper.getMainLooper()).post {
+            val utils = NetworkUtils.getInstance(context)
+            networkUtils = utils
+            utils.isConnected.observeForever { connected ->
+                if (connected == true) {
+                    apiClient.onNetworkChanged()
+                    scheduleFlush(0L)
+                }
+            }
+        }
+    }
+
+    // Returns the expense as stored locally, under an id the server's will replace
+    fun addExpense(userId: String, expense: Expense): Expense {
+        val stored = withId(expense, newLocalId())
+        enqueue(EXPENSE, ADD, userId, stored.id, expenseBody(stored, userId)) {
+            sharedPrefsManager.addExpense(stored)
+        }
+        return stored
+    }
+
+    fun updateExpense(userId: String, oldExpense: Expense, newExpense: Expense) {
+        val id = serverId(oldExpense.id)
+        val current = withId(oldExpense, id)
+        val updated = withId(newExpense, id)
+        enqueue(EXPENSE, UPDATE, userId, id, expenseBody(updated, userId)) {
+            sharedPrefsManager.updateExpense(current, updated)
+        }
+    }
+
+    fun deleteExpense(userId: String, expense: Expense) {
+        val id = serverId(expense.id)
+        enqueue(EXPENSE, DELETE, userId, id, null) {
+            sharedPrefsManager.deleteExpense(withId(expense, id))
+        }
+    }
+
+    fun addEarning(userId: String, earning: Earning): Earning {
+        val stored = earning.copy(id = newLocalId())
+        enqueue(EARNING, ADD, userId, stored.id, earningBody(stored)) {
+            sharedPrefsManager.addEarning(stored)
+        }
+        return stored
+    }
+
+    fun updateEarning(userId: String, oldEarning: Earning, newEarning: Earning) {
+        val id = serverId(oldEarning.id)
+        val updated = newEarning.copy(id = id)
+        enqueue(EARNING, UPDATE, userId, id, earningBody(updated)) {
+            sharedPrefsManager.updateEarning(oldEarning.copy(id = id), updated)
+        }
+    }
+
+    fun deleteEarning(userId: String, earning: Earning) {
+        val id = serverId(earning.id)
+        enqueue(EARNING, DELETE, userId, id, null) {
+            sharedPrefsManager.deleteEarning(earning.copy(id = id))
+        }
+    }
+
+    fun hasPending(kind: String, userId: String): Boolean {
+        return synchronized(lock) { pending.values.any { it.kind == kind && it.userId == userId } }
+    }
+
+    // Runs block only if nothing of kind is queued for userId, atomically with respect to new
+    // writes, so a server list fetched before an edit can't overwrite it locally
+    fun <T> unlessPending(kind: String, userId: String, block: () -> T): T? {
+        synchronized(lock) {
+            if (pending.values.any { it.kind == kind && it.userId == userId }) return null
+            return block()
+        }
+    }
+
+    fun scheduleFlush(delayMs: Long = FLUSH_DELAY_MS) {
+        synchronized(lock) {
+            if (pending.isEmpty()) return
+            scheduledFlush?.cancel()
+            scheduledFlush = scope.launch {
+                delay(delayMs)
+                flush()
+            }
+        }
+    }
+
+    private fun enqueue(
+        kind: String,
+        action: String,
+        userId: String,
+        recordId: String,
+        body: String?,
+        applyLocally: () -> Unit
+    ) {
+        synchronized(lock) {
+            sharedPrefsManager.claimJournals(userId)
+            // Id-less legacy records only ever existed on this device
+            if (recordId.isNotBlank()) {
+                queue(PendingWrite(UUID.randomUUID().toString(), kind, action, userId, recordId, body))
+            }
+            applyLocally()
+        }
+        scheduleFlush()
+    }
+
+    // Folds op into the last unsent operation on the same record when the result is the same
+    private fun queue(op: PendingWrite) {
+        val previous = pending.values.lastOrNull { it.kind == op.kind && it.recordId == op.recordId }
+        if (previous != null && previous.attempts == 0 && previous.key !in inFlight) {
+            when (previous.action) {
+                ADD -> {
+                    if (op.action == DELETE) remove(previous.key) else put(previous.copy(body = op.body))
+                    return
+                }
+                UPDATE -> {
+                    put(previous.copy(action = op.action, body = op.body))
+                    return
+                }
+            }
+        }
+        put(op)
+    }
+
+    private fun put(op: PendingWrite) {
+        pending[op.key] = op
+        store.put(op.key, gson.toJson(op))
+    }
+
+    private fun remove(key: String) {
+        pending.remove(key)
+        store.remove(key)
+    }
+
+    // Sends batches until the queue is empty or the device goes offline. On a failure that may
+    // clear up by itself the rest waits, and the flush is retried with exponential backoff.
+    private fun flush() {
+        synchronized(flushLock) {
+            while (isOnline()) {
+                val batch = nextBatch()
+                if (batch.isEmpty()) {
+                    failedFlushes = 0
+                    return
+                }
+                val delivered = try {
+                    send(batch)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                    batch.forEach { settle(it, null) }
+                    false
+                } finally {
+                    synchronized(lock) { batch.forEach { inFlight.remove(it.key) } }
+                }
+                if (!delivered) {
+                    failedFlushes++
+                    scheduleFlush(minOf(RETRY_BASE_MS shl minOf(failedFlushes - 1, 10), RETRY_MAX_MS))
+                    return
+                }
+                failedFlushes = 0
+            }
+        }
+    }
+
+    private fun isOnline(): Boolean {
+        return networkUtils?.isNetworkAvailable() ?: true
+    }
+
+    // Operations from the front of the queue, up to the first one that needs the server id of
+    // an add that hasn't been acknowledged yet
+    private fun nextBatch(): List<PendingWrite> {
+        synchronized(lock) {
+            val batch = ArrayList<PendingWrite>()
+            for (op in pending.values.toList()) {
+                if (batch.size == MAX_BATCH_SIZE) break
+                if (op.action != ADD && op.recordId.startsWith(LOCAL_ID_PREFIX)) {
+                    if (batch.isNotEmpty()) break
+                    // Nothing ahead of it can supply the id any more
+                    remove(op.key)
+                    continue
+                }
+                batch.add(op)
+            }
+            batch.forEach { inFlight.add(it.key) }
+            return batch
+        }
+    }
+
+    // True when every operation was settled, false when some have to be retried
+    private fun send(batch: List<PendingWrite>): Boolean {
+        if (batch.size > 1 && batchSupported) {
+            val results = sendBatch(batch)
+            if (results != null) {
+                var delivered = true
+                batch.forEach { op ->
+                    if (!settle(op, results[op.key])) delivered = false
+                }
+                return delivered
+            }
+        }
+        for (op in batch) {
+            val response = try {
+                execute(op)
+            } catch (e: IOException) {
+                null
+            }
+            if (!settle(op, response)) return false
+        }
+        return true
+    }
+
+    // Result per operation key, empty when the batch didn't get through; null when the backend
+    // has no batch endpoint, in which case send() goes on with the operations one by one
+    private fun sendBatch(batch: List<PendingWrite>): Map<String, ApiResponse>? {
+        val operations = JSONArray()
+        batch.forEach { op ->
+            operations.put(JSONObject().apply {
+                put("key", op.key)
+                put("method", methodFor(op))
+                put("path", pathFor(op))
+                op.body?.let { put("body", JSONObject(it)) }
+            })
+        }
+        val response = try {
+            apiClient.post(BATCH_PATH, JSONObject().put("operations", operations).toString())
+        } catch (e: IOException) {
+            return emptyMap()
+        }
+        if (isRetryable(response.code)) return emptyMap()
+
+        val results = response.jsonObject?.optJSONArray("results")
+        if (!response.isSuccessful || results == null) {
+            // Not a batch endpoint after all. A 2xx we can't read may still have applied some
+            // operations, but the one-by-one resend carries the same keys, so none is applied twice
+            batchSupported = false
+            return null
+        }
+        val byKey = HashMap<String, ApiResponse>()
+        for (i in 0 until results.length()) {
+            val result = results.optJSONObject(i) ?: continue
+            val body = result.opt("body")
+            byKey[result.optString("key")] = ApiResponse(
+                result.optInt("code", -1),
+                if (body == null || body == JSONObject.NULL) "" else body.toString()
+            )
+        }
+        return byKey
+    }
+
+    private fun execute(op: PendingWrite): ApiResponse {
+        val path = pathFor(op)
+        return when (op.action) {
+            ADD -> apiClient.post(path, op.body ?: "", op.key)
+            UPDATE -> apiClient.put(path, op.body, op.key)
+            else -> apiClient.delete(path, op.key)
+        }
+    }
+
+    // Records the outcome of one operation; false when it stays queued for a retry
+    private fun settle(op: PendingWrite, response: ApiResponse?): Boolean {
+        synchronized(lock) {
+            if (!pending.containsKey(op.key)) return true
+            if (response == null || isRetryable(response.code)) {
+                pending[op.key]?.let { put(it.copy(attempts = it.attempts + 1)) }
+                return false
+            }
+            remove(op.key)
+            val ownsJournal = sharedPrefsManager.isJournalOwner(op.userId)
+            when {
+                response.isSuccessful -> if (op.action == ADD) adoptServerId(op, response)
+                op.action == ADD -> discardLocalRecord(op)
+                !ownsJournal -> Unit
+                // The local journal has an edit the server refused; fetch the server's version
+                op.kind == EXPENSE -> sharedPrefsManager.resetExpenseSync()
+                else -> sharedPrefsManager.resetEarningSync()
+            }
+            return true
+        }
+    }
+
+    private fun isRetryable(code: Int): Boolean {
+        return code == -1 || code == 408 || code == 429 || code >= 500
+    }
+
+    // Moves an acknowledged add, and anything queued behind it, from its local id to the server's
+    private fun adoptServerId(op: PendingWrite, response: ApiResponse) {
+        val id = response.jsonObject?.opt("id")?.takeIf { it != JSONObject.NULL }?.toString()
+        if (id.isNullOrBlank()) {
+            // Saved, but we can't tell under which id; the next full sync brings it back
+            discardLocalRecord(op)
+            return
+        }
+        serverIds[op.recordId] = id
+        pending.values.filter { it.kind == op.kind && it.recordId == op.recordId }.forEach {
+            put(it.copy(recordId = id))
+        }
+        if (!sharedPrefsManager.isJournalOwner(op.userId)) return
+        if (op.kind == EXPENSE) {
+            sharedPrefsManager.getExpense(op.recordId)?.let { sharedPrefsManager.updateExpense(it, withId(it, id)) }
+        } else {
+            sharedPrefsManager.getEarning(op.recordId)?.let { sharedPrefsManager.updateEarning(it, it.copy(id = id)) }
+        }
+    }
+
+    private fun discardLocalRecord(op: PendingWrite) {
+        pending.values.filter { it.kind == op.kind && it.recordId == op.recordId }.forEach { remove(it.key) }
+        if (!sharedPrefsManager.isJournalOwner(op.userId)) return
+        if (op.kind == EXPENSE) {
+            sharedPrefsManager.getExpense(op.recordId)?.let { sharedPrefsManager.deleteExpense(it) }
+            sharedPrefsManager.resetExpenseSync()
+        } else {
+            sharedPrefsManager.getEarning(op.recordId)?.let { sharedPrefsManager.deleteEarning(it) }
+            sharedPrefsManager.resetEarningSync()
+        }
+    }
+
+    private fun methodFor(op: PendingWrite): String {
+        return when (op.action) {
+            ADD -> "POST"
+            UPDATE -> "PUT"
+            else -> "DELETE"
+        }
+    }
+
+    private fun pathFor(op: PendingWrite): String {
+        return if (op.kind == EXPENSE) {
+            when (op.action) {
+                ADD -> "/api/expenses/add"
+                UPDATE -> "/api/expenses/update/${op.recordId}"
+                else -> "/api/expenses/${op.recordId}"
+            }
+        } else {
+            when (op.action) {
+                ADD -> "/api/earnings/add"
+                UPDATE -> "/api/earnings/update/${op.recordId}"
+                else -> "/api/earnings/delete/${op.recordId}"
+            }
+        }
+    }
+
+    private fun expenseBody(expense: Expense, userId: String): String {
+        return JSONObject().apply {
+            put("name", expense.name)
+            put("categoryId", expense.categoryId)
+            put("date", expense.date)
+            put("time", expense.time)
+            put("amount", expense.amount)
+            put("userId", userId)
+        }.toString()
+    }
+
+    private fun earningBody(earning: Earning): String {
+        return JSONObject().apply {
+            put("category", earning.category)
+            put("amount", earning.amount)
+            put("date", earning.date)
+            put("time", earning.time)
+            put("userId", earning.userId)
+        }.toString()
+    }
+
+    private fun newLocalId(): String = LOCAL_ID_PREFIX + UUID.randomUUID().toString()
+
+    private fun serverId(id: String): String {
+        return synchronized(lock) { serverIds[id] } ?: id
+    }
+
+    private fun withId(expense: Expense, id: String): Expense {
+        if (expense.id == id) return expense
+        return Expense(
+            expense.iconResId, expense.name, expense.category, expense.date, expense.time,
+            expense.amount, expense.categoryId, id
+        )
+    }
+}
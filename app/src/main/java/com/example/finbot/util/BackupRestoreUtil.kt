@@ -167,7 +167,7 @@ class BackupRestoreUtil(private val context: Context) {
                     expensesJson.toString(),
                     gson.getType<List<Expense>>()
                 )
-                sharedPrefsManager.saveExpenses(expenseList)
+                sharedPrefsManager.saveExpenses(expenseList.map { LedgerCodec.typed(it) })
             }
             
             // Restore earnings
@@ -178,8 +178,12 @@ class BackupRestoreUtil(private val context: Context) {
                     earningsJson.toString(),
                     gson.getType<List<Earning>>()
                 )
-                sharedPrefsManager.saveEarnings(earningList)
+                sharedPrefsManager.saveEarnings(earningList.map { LedgerCodec.typed(it) })
             }
+
+            // Make sure no screen keeps reading the pre-restore snapshot or totals
+            sharedPrefsManager.invalidateTransactionCache()
+            sharedPrefsManager.rebuildMonthlyAggregates()
             
             // Restore preferences
             val preferencesJson = jsonObject.optJSONObject("preferences")
@@ -0,0 +1,210 @@
+package com.example.finbot.util
+
+import android.util.Log
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+// Append-only, record-oriented key/value journal.
+// Every write appends a single PUT or DELETE record to the end of the file, and an in-memory
+// key -> (offset, length) index points at the latest payload of each live key, so single-record
+// writes and point reads are O(1) and never re-serialize the rest of the data set.
+// Once superseded records outnumber live ones the file is rewritten (compacted) in index order.
+class JournalStore(private val file: File) {
+
+    companion object {
+        private const val TAG = "JournalStore"
+
+        private const val OP_PUT: Byte = 1
+        private const val OP_DELETE: Byte = 2
+
+        // Don't bother compacting tiny journals
+        private const val MIN_DEAD_RECORDS_FOR_COMPACTION = 64
+    }
+
+    private class Slot(val offset: Long, val length: Int)
+
+    // Insertion-ordered so that iteration matches the order records were first added
+    private val index = LinkedHashMap<String, Slot>()
+    private val lock = Any()
+    private var raf: RandomAccessFile
+    private var deadRecords = 0
+
+    init {
+        file.parentFile?.mkdirs()
+        raf = RandomAccessFile(file, "rw")
+        loadIndex()
+    }
+
+    val size: Int
+        get() = synchronized(lock) { index.size }
+
+    fun contains(key: String): Boolean = synchronized(lock) { index.containsKey(key) }
+
+    fun keys(): List<String> = synchronized(lock) { ArrayList(index.keys) }
+
+    fun get(key: String): String? = synchronized(lock) {
+        val slot = index[key] ?: return null
+        readPayload(slot)
+    }
+
+    fun put(key: String, payload: String) = synchronized(lock) {
+        val payloadBytes = payload.toByteArray(Charsets.UTF_8)
+        val offset = append(OP_PUT, key, payloadBytes)
+        if (index.put(key, Slot(offset, payloadBytes.size)) != null) {
+            deadRecords++
+        }
+        compactIfNeeded()
+    }
+
+    fun remove(key: String): Boolean = synchronized(lock) {
+        if (index.remove(key) == null) return false
+        append(OP_DELETE, key, null)
+        // Both the old PUT and the tombstone itself are now dead weight
+        deadRecords += 2
+        compactIfNeeded()
+        true
+    }
+
+    // Streams live payloads in index order without building an intermediate list
+    fun forEach(action: (key: String, payload: String) -> Unit) = synchronized(lock) {
+        for ((key, slot) in index) {
+            action(key, readPayload(slot))
+        }
+    }
+
+    // Replaces the whole content with the given records in a single compacted write
+    fun replaceAll(records: List<Pair<String, String>>) = synchronized(lock) {
+        val entries = LinkedHashMap<String, ByteArray>(records.size * 2)
+        records.forEach { (key, payload) -> entries[key] = payload.toByteArray(Charsets.UTF_8) }
+        rewrite(entries)
+    }
+
+    fun clear() = synchronized(lock) {
+        rewrite(LinkedHashMap())
+    }
+
+    private fun loadIndex() {
+        index.clear()
+        deadRecords = 0
+        raf.seek(0)
+        var validLength = 0L
+        val fileLength = raf.length()
+        try {
+            while (raf.filePointer < fileLength) {
+                val op = raf.readByte()
+                // A torn or corrupt length can't be trusted to size an allocation
+                val keyLength = raf.readInt()
+                if (keyLength < 0 || keyLength > fileLength - raf.filePointer) throw EOFException()
+                val keyBytes = ByteArray(keyLength)
+                raf.readFully(keyBytes)
+                val key = String(keyBytes, Charsets.UTF_8)
+                when (op) {
+                    OP_PUT -> {
+                        val length = raf.readInt()
+                        val payloadOffset = raf.filePointer
+                        if (length < 0 || length > fileLength - payloadOffset) throw EOFException()
+                        raf.seek(payloadOffset + length)
+                        if (index.put(key, Slot(payloadOffset, length)) != null) deadRecords++
+                    }
+                    OP_DELETE -> {
+                        if (index.remove(key) != null) deadRecords++
+                        deadRecords++
+                    }
+                    else -> throw IOException("Corrupt journal record")
+                }
+                validLength = raf.filePointer
+            }
+        } catch (e: IOException) {
+            // A torn write at the tail (e.g. process killed mid-append); drop the partial record
+            Log.w(TAG, "Dropping ${fileLength - validLength} bytes after the last whole record of ${file.name}", e)
+        }
+        if (validLength < fileLength) {
+            raf.setLength(validLength)
+        }
+    }
+
+    private fun readPayload(slot: Slot): String {
+        val bytes = ByteArray(slot.length)
+        raf.seek(slot.offset)
+        raf.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    // Appends one record and returns the file offset of its payload
+    private fun append(op: Byte, key: String, payload: ByteArray?): Long {
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        val buffer = ByteArrayOutputStream(9 + keyBytes.size + (payload?.size ?: 0))
+        DataOutputStream(buffer).use { out ->
+            out.writeByte(op.toInt())
+            out.writeInt(keyBytes.size)
+            out.write(keyBytes)
+            if (payload != null) {
+                out.writeInt(payload.size)
+                out.write(payload)
+            }
+        }
+        val start = raf.length()
+        raf.seek(start)
+        raf.write(buffer.toByteArray())
+        return start + 1 + 4 + keyBytes.size + 4
+    }
+
+    // The write that triggered this is already in the journal, so a failed compaction only means
+    // the dead records stay until the next attempt
+    private fun compactIfNeeded() {
+        if (deadRecords < MIN_DEAD_RECORDS_FOR_COMPACTION || deadRecords <= index.size) return
+        val live = LinkedHashMap<String, ByteArray>(index.size * 2)
+        for ((key, slot) in index) {
+            val bytes = ByteArray(slot.length)
+            raf.seek(slot.offset)
+            raf.readFully(bytes)
+            live[key] = bytes
+        }
+        try {
+            rewrite(live)
+        } catch (e: IOException) {
+            Log.w(TAG, "Compacting ${file.name} failed", e)
+        }
+    }
+
+    // Writes a fresh journal next to the current one, syncs it, and swaps it in with a rename, so
+    // the file on disk is always either the old journal or the complete new one. If the swap
+    // fails the old journal stays in use and IOException is thrown.
+    private fun rewrite(entries: LinkedHashMap<String, ByteArray>) {
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        val newIndex = LinkedHashMap<String, Slot>(entries.size * 2)
+        FileOutputStream(tmp).use { stream ->
+            val out = DataOutputStream(stream.buffered())
+            var offset = 0L
+            for ((key, payload) in entries) {
+                val keyBytes = key.toByteArray(Charsets.UTF_8)
+                out.writeByte(OP_PUT.toInt())
+                out.writeInt(keyBytes.size)
+                out.write(keyBytes)
+                out.writeInt(payload.size)
+                offset += 1 + 4 + keyBytes.size + 4
+                newIndex[key] = Slot(offset, payload.size)
+                out.write(payload)
+                offset += payload.size
+            }
+            out.flush()
+            stream.fd.sync()
+        }
+        raf.close()
+        // rename() replaces the old file in one step; the old one is never deleted first
+        val renamed = tmp.renameTo(file)
+        raf = RandomAccessFile(file, "rw")
+        if (!renamed) {
+            tmp.delete()
+            throw IOException("Could not replace ${file.name} with its rewritten copy")
+        }
+        index.clear()
+        index.putAll(newIndex)
+        deadRecords = 0
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.finbot.util
+
+import com.example.finbot.data.ExpenseItem
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+
+// Read-only columnar copy of a transaction list for analytics: parallel primitive arrays of
+// epoch days, amounts in minor units and category ids, sorted by day. About 13 bytes per
+// record and no boxing, so screens can scan it with plain index loops and find period bounds
+// by binary search. Records with unparseable dates sort first and fall outside every range.
+class Ledger private constructor(
+    val size: Int,
+    private val days: IntArray,
+    private val amounts: LongArray,
+    private val categories: ByteArray
+) {
+
+    companion object {
+        val EMPTY = Ledger(0, IntArray(0), LongArray(0), ByteArray(0))
+
+        fun ofExpenses(expenses: List<Expense>): Ledger {
+            return build(expenses.size, { expenses[it].epochDay }, { expenses[it].amountMinor }) {
+                expenses[it].categoryId
+            }
+        }
+
+        // Earnings have free-form category names; categoryIdOf maps them into 0..255
+        fun ofEarnings(earnings: List<Earning>, categoryIdOf: (String) -> Int = { 0 }): Ledger {
+            return build(earnings.size, { earnings[it].epochDay }, { earnings[it].amountMinor }) {
+                categoryIdOf(earnings[it].category)
+            }
+        }
+
+        fun ofReportItems(items: List<ExpenseItem>): Ledger {
+            return build(items.size, { items[it].epochDay }, { items[it].amountMinor }) {
+                items[it].categoryId
+            }
+        }
+
+        private inline fun build(
+            size: Int,
+            dayOf: (Int) -> Int,
+            amountOf: (Int) -> Long,
+            categoryOf: (Int) -> Int
+        ): Ledger {
+            if (size == 0) return EMPTY
+
+            // Sort (day, source index) pairs packed into longs; stable for equal days
+            val order = LongArray(size)
+            for (i in 0 until size) {
+                order[i] = (dayOf(i).toLong() shl 32) or i.toLong()
+            }
+            order.sort()
+
+            val days = IntArray(size)
+            val amounts = LongArray(size)
+            val categories = ByteArray(size)
+            for (i in 0 until size) {
+                val source = order[i].toInt()
+                days[i] = (order[i] shr 32).toInt()
+                amounts[i] = amountOf(source)
+                categories[i] = categoryOf(source).toByte()
+            }
+            return Ledger(size, days, amounts, categories)
+        }
+    }
+
+    fun day(index: Int): Int = days[index]
+
+    fun amount(index: Int): Long = amounts[index]
+
+    // Unsigned, so ids up to 255 round-trip
+    fun category(index: Int): Int = categories[index].toInt() and 0xff
+
+    // First index whose day is >= day
+    fun lowerBound(day: Int): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (days[mid] < day) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    // First index whose day is > day
+    fun upperBound(day: Int): Int {
+        if (day == Int.MAX_VALUE) return size
+        return lowerBound(day + 1)
+    }
+
+    // Rows dated startDay..endDay inclusive, found with two binary searches and not copied
+    fun between(startDay: Int, endDay: Int): Range {
+        val from = lowerBound(startDay)
+        return Range(this, from, maxOf(from, upperBound(endDay)))
+    }
+
+    fun sum(from: Int = 0, to: Int = size): Long {
+        var total = 0L
+        for (i in from until to) total += amounts[i]
+        return total
+    }
+
+    // Totals indexed by category id (0..255)
+    fun categoryTotals(from: Int = 0, to: Int = size): LongArray {
+        val totals = LongArray(256)
+        for (i in from until to) {
+            totals[categories[i].toInt() and 0xff] += amounts[i]
+        }
+        return totals
+    }
+
+    // Zero-copy view of rows [from, to) of a ledger; indices passed in are relative to the view
+    class Range(private val ledger: Ledger, private val from: Int, private val to: Int) {
+
+        val size: Int
+            get() = to - from
+
+        fun isEmpty(): Boolean = to == from
+
+        fun day(index: Int): Int = ledger.day(from + index)
+
+        fun amount(index: Int): Long = ledger.amount(from + index)
+
+        fun category(index: Int): Int = ledger.category(from + index)
+
+        fun sum(): Long = ledger.sum(from, to)
+
+        fun categoryTotals(): LongArray = ledger.categoryTotals(from, to)
+    }
+}
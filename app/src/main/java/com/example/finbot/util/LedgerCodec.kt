@@ -0,0 +1,181 @@
+package com.example.finbot.util
+
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import java.util.Calendar
+
+// Canonical forms for transaction data: dates as days since 1970-01-01 and amounts as long
+// minor units (cents). Records convert once, on first use; aggregation code works on
+// the typed fields and the original strings are only used for display and for the backend.
+object LedgerCodec {
+    // Returned for dates that can't be parsed; such records are left out of date-based totals
+    const val INVALID_DAY = Int.MIN_VALUE
+
+    // Accepts yyyy-MM-dd and dd-MM-yyyy; anything after the third field (e.g. a time) is ignored
+    fun parseEpochDay(date: String?): Int {
+        if (date == null) return INVALID_DAY
+        val fields = IntArray(3)
+        val widths = IntArray(3)
+        var field = 0
+        var i = 0
+        while (i < date.length && field < 3) {
+            val c = date[i]
+            if (c in '0'..'9') {
+                if (widths[field] == 9) return INVALID_DAY
+                fields[field] = fields[field] * 10 + (c - '0')
+                widths[field]++
+            } else if (c == '-' && widths[field] > 0 && field < 2) {
+                field++
+            } else {
+                break
+            }
+            i++
+        }
+        if (field != 2 || widths[2] == 0) return INVALID_DAY
+
+        val yearFirst = widths[0] == 4
+        val year = if (yearFirst) fields[0] else fields[2]
+        val month = fields[1]
+        val day = if (yearFirst) fields[2] else fields[0]
+        if (month !in 1..12 || day !in 1..31) return INVALID_DAY
+        return epochDay(year, month, day)
+    }
+
+    // Days since 1970-01-01 for a proleptic Gregorian date; month is 1-based.
+    // Day overflow rolls into the next month, like a lenient SimpleDateFormat.
+    fun epochDay(year: Int, month: Int, day: Int): Int {
+        val y = if (month <= 2) year - 1 else year
+        val era = (if (y >= 0) y else y - 399) / 400
+        val yearOfEra = y - era * 400
+        val dayOfYear = (153 * (if (month > 2) month - 3 else month + 9) + 2) / 5 + day - 1
+        val dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear
+        return era * 146097 + dayOfEra - 719468
+    }
+
+    fun epochDayOf(calendar: Calendar): Int {
+        return epochDay(
+            calendar.get(Calendar.YEAR),
+            calendar.get(Calendar.MONTH) + 1,
+            calendar.get(Calendar.DAY_OF_MONTH)
+        )
+    }
+
+    // Inverse of epochDay, packed as year * 10000 + month * 100 + day
+    private fun civil(epochDay: Int): Int {
+        val z = epochDay + 719468
+        val era = (if (z >= 0) z else z - 146096) / 146097
+        val dayOfEra = z - era * 146097
+        val yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365
+        val dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100)
+        val mp = (5 * dayOfYear + 2) / 153
+        val day = dayOfYear - (153 * mp + 2) / 5 + 1
+        val month = if (mp < 10) mp + 3 else mp - 9
+        val year = yearOfEra + era * 400 + if (month <= 2) 1 else 0
+        return year * 10000 + month * 100 + day
+    }
+
+    fun year(epochDay: Int): Int = civil(epochDay) / 10000
+
+    // Zero-based, matching Calendar.MONTH
+    fun month(epochDay: Int): Int = civil(epochDay) / 100 % 100 - 1
+
+    fun dayOfMonth(epochDay: Int): Int = civil(epochDay) % 100
+
+    // Same numbering as MonthlyAggregates.monthKey: year * 12 + zero-based month
+    fun monthKey(epochDay: Int): Int {
+        val packed = civil(epochDay)
+        return packed / 10000 * 12 + packed / 100 % 100 - 1
+    }
+
+    // 0 = Monday .. 6 = Sunday; 1970-01-01 was a Thursday
+    fun dayOfWeek(epochDay: Int): Int = Math.floorMod(epochDay + 3, 7)
+
+    // Same result as Calendar.WEEK_OF_MONTH for the given week rules (0 when the first days of
+    // the month fall short of minimalDaysInFirstWeek)
+    fun weekOfMonth(epochDay: Int, firstDayOfWeek: Int, minimalDaysInFirstWeek: Int): Int {
+        val dayOfMonth = dayOfMonth(epochDay)
+        // Calendar numbering: SUNDAY = 1 .. SATURDAY = 7
+        val firstOfMonth = (dayOfWeek(epochDay - dayOfMonth + 1) + 1) % 7 + 1
+        val offset = Math.floorMod(firstOfMonth - firstDayOfWeek, 7)
+        val firstWeek = if (7 - offset >= minimalDaysInFirstWeek) 1 else 0
+        return (dayOfMonth - 1 + offset) / 7 + firstWeek
+    }
+
+    fun formatEpochDay(epochDay: Int): String {
+        if (epochDay == INVALID_DAY) return ""
+        val packed = civil(epochDay)
+        return String.format("%04d-%02d-%02d", packed / 10000, packed / 100 % 100, packed % 100)
+    }
+
+    // Exact decimal parse to cents (half-up on the third decimal); falls back to Double for
+    // forms like "1e3". Unparseable amounts count as 0, as the old toDoubleOrNull() ?: 0.0 did.
+    fun parseMinorUnits(amount: String?): Long {
+        if (amount == null) return 0L
+        val text = amount.trim()
+        var i = 0
+        val negative = text.startsWith("-")
+        if (negative || text.startsWith("+")) i++
+        var whole = 0L
+        var wholeDigits = 0
+        while (i < text.length && text[i] in '0'..'9' && wholeDigits < 16) {
+            whole = whole * 10 + (text[i] - '0')
+            wholeDigits++
+            i++
+        }
+        var fraction = 0L
+        var fractionDigits = 0
+        if (i < text.length && text[i] == '.') {
+            i++
+            while (i < text.length && text[i] in '0'..'9') {
+                if (fractionDigits < 3) {
+                    fraction = fraction * 10 + (text[i] - '0')
+                    fractionDigits++
+                }
+                i++
+            }
+        }
+        if (i != text.length || wholeDigits + fractionDigits == 0) {
+            return text.toDoubleOrNull()?.let { toMinorUnits(it) } ?: 0L
+        }
+        while (fractionDigits < 3) {
+            fraction *= 10
+            fractionDigits++
+        }
+        val cents = whole * 100 + (fraction + 5) / 10
+        return if (negative) -cents else cents
+    }
+
+    fun toMinorUnits(amount: Double): Long = Math.round(amount * 100)
+
+    fun toMajorUnits(minorUnits: Long): Double = minorUnits / 100.0
+
+    fun formatMinorUnits(minorUnits: Long): String {
+        val sign = if (minorUnits < 0) "-" else ""
+        val abs = Math.abs(minorUnits)
+        return String.format("%s%d.%02d", sign, abs / 100, abs % 100)
+    }
+
+    // Gson fills objects without running constructors, so fields missing from the JSON come back
+    // null despite their types. Records coming out of Gson go through these to get "" instead.
+    fun typed(expense: Expense): Expense {
+        val name: String? = expense.name
+        val category: String? = expense.category
+        val date: String? = expense.date
+        val time: String? = expense.time
+        val amount: String? = expense.amount
+        val id: String? = expense.id
+        return Expense(
+            expense.iconResId, name ?: "", category ?: "", date ?: "", time ?: "",
+            amount ?: "0", expense.categoryId, id ?: ""
+        )
+    }
+
+    fun typed(earning: Earning): Earning {
+        val id: String? = earning.id
+        val category: String? = earning.category
+        val date: String? = earning.date
+        val time: String? = earning.time
+        val userId: String? = earning.userId
+        return Earning(id ?: "", category ?: "", earning.amount, date ?: "", time ?: "", userId ?: "")
+    }
+}
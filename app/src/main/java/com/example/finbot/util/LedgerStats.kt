@@ -0,0 +1,65 @@
+package com.example.finbot.util
+
+// Everything the stats screen needs from one ledger range, computed in a single pass:
+// day-of-week (Mon..Sun), week-of-month and month-of-year buckets, per-category totals and
+// count/total/min/max/average. All amounts are in minor units.
+class LedgerStats private constructor(
+    val count: Int,
+    val total: Long,
+    val min: Long,
+    val max: Long,
+    val dailyTotals: LongArray,
+    val weeklyTotals: LongArray,
+    val monthlyTotals: LongArray,
+    val categoryTotals: LongArray
+) {
+
+    companion object {
+        const val WEEKS_PER_MONTH = 5
+
+        // firstDayOfWeek / minimalDaysInFirstWeek follow Calendar, so week buckets line up with
+        // Calendar.WEEK_OF_MONTH for the user's locale
+        fun of(range: Ledger.Range, firstDayOfWeek: Int, minimalDaysInFirstWeek: Int): LedgerStats {
+            val dailyTotals = LongArray(7)
+            val weeklyTotals = LongArray(WEEKS_PER_MONTH)
+            val monthlyTotals = LongArray(12)
+            val categoryTotals = LongArray(256)
+            var total = 0L
+            var min = 0L
+            var max = 0L
+
+            // Rows are sorted by day, so calendar fields are only worked out once per distinct day
+            var lastDay = LedgerCodec.INVALID_DAY
+            var dayIndex = 0
+            var weekIndex = 0
+            var monthIndex = 0
+
+            for (i in 0 until range.size) {
+                val amount = range.amount(i)
+                val day = range.day(i)
+                if (day != lastDay) {
+                    lastDay = day
+                    dayIndex = LedgerCodec.dayOfWeek(day)
+                    weekIndex = (LedgerCodec.weekOfMonth(day, firstDayOfWeek, minimalDaysInFirstWeek) - 1)
+                        .coerceIn(0, WEEKS_PER_MONTH - 1)
+                    monthIndex = LedgerCodec.month(day)
+                }
+                dailyTotals[dayIndex] += amount
+                weeklyTotals[weekIndex] += amount
+                monthlyTotals[monthIndex] += amount
+                categoryTotals[range.category(i)] += amount
+
+                if (i == 0 || amount < min) min = amount
+                if (i == 0 || amount > max) max = amount
+                total += amount
+            }
+
+            return LedgerStats(
+                range.size, total, min, max, dailyTotals, weeklyTotals, monthlyTotals, categoryTotals
+            )
+        }
+    }
+
+    val average: Double
+        get() = if (count > 0) total.toDouble() / count else 0.0
+}
@@ -0,0 +1,75 @@
+package com.example.finbot.util
+
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+
+// Running per-(year, month, category) totals for expenses and per-(year, month) totals for
+// earnings. Kept in minor units (cents) so repeated add/remove cycles don't drift.
+class MonthlyAggregates {
+
+    companion object {
+        // Month keys are year * 12 + zero-based month, matching Calendar.MONTH
+        fun monthKey(year: Int, month: Int): Int = year * 12 + month
+
+        private fun categoryKey(monthKey: Int, categoryId: Int): Long =
+            (monthKey.toLong() shl 32) or (categoryId.toLong() and 0xffffffffL)
+    }
+
+    private val expenseTotals = HashMap<Int, Long>()
+    private val expenseCategoryTotals = HashMap<Long, Long>()
+    private val earningTotals = HashMap<Int, Long>()
+
+    @Synchronized
+    fun addExpense(expense: Expense) = applyExpense(expense, 1)
+
+    @Synchronized
+    fun removeExpense(expense: Expense) = applyExpense(expense, -1)
+
+    @Synchronized
+    fun addEarning(earning: Earning) = applyEarning(earning, 1)
+
+    @Synchronized
+    fun removeEarning(earning: Earning) = applyEarning(earning, -1)
+
+    @Synchronized
+    fun rebuild(expenses: List<Expense>, earnings: List<Earning>) {
+        expenseTotals.clear()
+        expenseCategoryTotals.clear()
+        earningTotals.clear()
+        expenses.forEach { applyExpense(it, 1) }
+        earnings.forEach { applyEarning(it, 1) }
+    }
+
+    @Synchronized
+    fun expenseTotal(year: Int, month: Int): Double {
+        return (expenseTotals[monthKey(year, month)] ?: 0L) / 100.0
+    }
+
+    @Synchronized
+    fun expenseTotal(year: Int, month: Int, categoryId: Int): Double {
+        return (expenseCategoryTotals[categoryKey(monthKey(year, month), categoryId)] ?: 0L) / 100.0
+    }
+
+    @Synchronized
+    fun earningTotal(year: Int, month: Int): Double {
+        return (earningTotals[monthKey(year, month)] ?: 0L) / 100.0
+    }
+
+    private fun applyExpense(expense: Expense, sign: Int) {
+        if (expense.epochDay == LedgerCodec.INVALID_DAY) return
+        val key = LedgerCodec.monthKey(expense.epochDay)
+        val cents = sign * expense.amountMinor
+        expenseTotals.adjust(key, cents)
+        expenseCategoryTotals.adjust(categoryKey(key, expense.categoryId), cents)
+    }
+
+    private fun applyEarning(earning: Earning, sign: Int) {
+        if (earning.epochDay == LedgerCodec.INVALID_DAY) return
+        earningTotals.adjust(LedgerCodec.monthKey(earning.epochDay), sign * earning.amountMinor)
+    }
+
+    private fun <K> HashMap<K, Long>.adjust(key: K, delta: Long) {
+        val updated = (this[key] ?: 0L) + delta
+        if (updated == 0L) remove(key) else this[key] = updated
+    }
+}
@@ -105,6 +105,16 @@ class NetworkUtils private constructor(private val context: Context) {
         }
     }
 
+    // Wi-Fi hotspots and capped plans can be metered too, so this is asked on top of the type
+    fun isMetered(): Boolean {
+        return try {
+            connectivityManager.isActiveNetworkMetered
+        } catch (e: Exception) {
+            e.printStackTrace()
+            true
+        }
+    }
+
     private fun getCurrentConnectionType(): ConnectionType {
         return try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
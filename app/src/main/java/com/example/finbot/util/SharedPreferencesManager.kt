@@ -6,6 +6,7 @@ import com.example.finbot.model.Expense
 import com.example.finbot.model.Earning
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
+import java.io.File
 import java.lang.reflect.Type
 import java.util.*
 
@@ -23,6 +24,19 @@ class SharedPreferencesManager(context: Context) {
         private const val KEY_REMINDER_ENABLED = "reminders_enabled"
         private const val KEY_USER_NAME = "user_name"
 
+        // Delta sync state: which user's server data the journals mirror, and as of which cursor
+        private const val KEY_EXPENSES_SYNC_USER = "expenses_sync_user"
+        private const val KEY_EXPENSES_SYNC_CURSOR = "expenses_sync_cursor"
+        private const val KEY_EARNINGS_SYNC_USER = "earnings_sync_user"
+        private const val KEY_EARNINGS_SYNC_CURSOR = "earnings_sync_cursor"
+        // The account whose records, synced or local-only, are in the journals
+        private const val KEY_JOURNAL_OWNER = "journal_owner"
+
+        // Record journals that replaced the expenses_list / earnings_list JSON blobs
+        private const val EXPENSES_JOURNAL = "expenses.journal"
+        private const val EARNINGS_JOURNAL = "earnings.journal"
+        private const val LEGACY_KEY_PREFIX = "legacy:"
+
         // Default values
         private const val DEFAULT_CURRENCY = "LKR"
         private const val DEFAULT_CURRENCY_INDEX = 0
@@ -47,6 +61,53 @@ class SharedPreferencesManager(context: Context) {
 
     private val sharedPreferences: SharedPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
     private val gson = Gson()
+    private val expenseStore = JournalStore(File(context.filesDir, EXPENSES_JOURNAL))
+    private val earningStore = JournalStore(File(context.filesDir, EARNINGS_JOURNAL))
+
+    // Parsed records of the journals, by stored key and in journal order. Mutators below write
+    // through to both the journal and this index, in place, so a single-record write costs O(1).
+    // The read-only lists handed to screens are built from it on the first read after a write.
+    // Anything that changes the journals behind our back must call invalidateTransactionCache()
+    // so the next read re-parses.
+    // The indexes and the legacy lookup key -> stored keys of the id-less records sharing it
+    // are only touched under transactionLock.
+    private var expenseRecords: LinkedHashMap<String, Expense>? = null
+    @Volatile
+    private var expensesSnapshot: List<Expense>? = null
+    private var legacyExpenseKeys: HashMap<String, ArrayList<String>>? = null
+    private var earningRecords: LinkedHashMap<String, Earning>? = null
+    @Volatile
+    private var earningsSnapshot: List<Earning>? = null
+    private val transactionLock = Any()
+
+    // Running monthly totals kept in step with the mutators; null means "rebuild on next read"
+    @Volatile
+    private var monthlyAggregates: MonthlyAggregates? = null
+
+    init {
+        migrateLegacyLists()
+    }
+
+    // One-time move of the old JSON blobs into the record journals
+    private fun migrateLegacyLists() {
+        val expensesJson = sharedPreferences.getString(KEY_EXPENSES, null)
+        val earningsJson = sharedPreferences.getString(KEY_EARNINGS, null)
+        if (expensesJson == null && earningsJson == null) return
+
+        try {
+            if (!expensesJson.isNullOrEmpty()) {
+                val type: Type = object : TypeToken<List<Expense>>() {}.type
+                saveExpenses((gson.fromJson<List<Expense>>(expensesJson, type) ?: emptyList()).map { LedgerCodec.typed(it) })
+            }
+            if (!earningsJson.isNullOrEmpty()) {
+                val type: Type = object : TypeToken<List<Earning>>() {}.type
+                saveEarnings((gson.fromJson<List<Earning>>(earningsJson, type) ?: emptyList()).map { LedgerCodec.typed(it) })
+            }
+            sharedPreferences.edit().remove(KEY_EXPENSES).remove(KEY_EARNINGS).apply()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
 
     // User Preferences
     fun setCurrency(currency: String) {
@@ -132,142 +193,554 @@ class SharedPreferencesManager(context: Context) {
     }
 
     // Expenses Management
+    // Records are keyed by Expense.id. Legacy records saved without an id are keyed by the
+    // fields the old list-based matching compared, plus a "#n" suffix when several rows look
+    // alike, and are found again through legacyExpenseKeys.
+    private fun legacyExpenseKey(expense: Expense): String {
+        return LEGACY_KEY_PREFIX + listOf(
+            expense.name, expense.category, expense.date, expense.time, expense.amount
+        ).joinToString("\u0001")
+    }
+
+    // Strips the "#n" suffix; the amount is the last field and never contains '#'
+    private fun legacyBaseKey(key: String): String {
+        val hash = key.lastIndexOf('#')
+        return if (hash > key.lastIndexOf('\u0001')) key.substring(0, hash) else key
+    }
+
+    private fun legacyKeys(): HashMap<String, ArrayList<String>> {
+        legacyExpenseKeys?.let { return it }
+        val index = HashMap<String, ArrayList<String>>()
+        expenseStore.keys().forEach { key ->
+            if (key.startsWith(LEGACY_KEY_PREFIX)) {
+                index.getOrPut(legacyBaseKey(key)) { ArrayList(1) }.add(key)
+            }
+        }
+        legacyExpenseKeys = index
+        return index
+    }
+
+    // Stored key of the record an expense refers to. An expense with an id only ever matches
+    // that id, so it can't land on a look-alike row.
+    private fun resolveExpenseKey(expense: Expense): String? {
+        val id: String? = expense.id
+        if (!id.isNullOrBlank()) return if (expenseStore.contains(id)) id else null
+        return legacyKeys()[legacyExpenseKey(expense)]?.firstOrNull()
+    }
+
+    // Fresh key for an expense that is about to be stored as a new record
+    private fun newExpenseKey(expense: Expense): String {
+        val id: String? = expense.id
+        if (!id.isNullOrBlank()) return id
+        val base = legacyExpenseKey(expense)
+        var key = base
+        var suffix = 1
+        while (expenseStore.contains(key)) {
+            key = "$base#${suffix++}"
+        }
+        return key
+    }
+
+    private fun trackLegacyKey(key: String) {
+        if (!key.startsWith(LEGACY_KEY_PREFIX)) return
+        legacyExpenseKeys?.getOrPut(legacyBaseKey(key)) { ArrayList(1) }?.add(key)
+    }
+
+    private fun untrackLegacyKey(key: String) {
+        if (!key.startsWith(LEGACY_KEY_PREFIX)) return
+        val base = legacyBaseKey(key)
+        legacyExpenseKeys?.let { index ->
+            val keys = index[base] ?: return
+            keys.remove(key)
+            if (keys.isEmpty()) index.remove(base)
+        }
+    }
+
     fun saveExpenses(expenses: List<Expense>) {
-        val json = gson.toJson(expenses)
-        sharedPreferences.edit().putString(KEY_EXPENSES, json).apply()
+        synchronized(transactionLock) {
+            replaceExpenses(expenses)
+            // The journal no longer mirrors the server, so the next sync has to start over
+            clearSyncState(KEY_EXPENSES_SYNC_USER, KEY_EXPENSES_SYNC_CURSOR)
+        }
+    }
+
+    private fun replaceExpenses(expenses: List<Expense>) {
+        synchronized(transactionLock) {
+            val records = ArrayList<Pair<String, String>>(expenses.size)
+            val index = LinkedHashMap<String, Expense>(expenses.size * 2)
+            val legacy = HashMap<String, ArrayList<String>>()
+            expenses.forEach { expense ->
+                val id: String? = expense.id
+                var key = if (!id.isNullOrBlank()) id else legacyExpenseKey(expense)
+                // Keep look-alike legacy rows apart instead of collapsing them into one record
+                val base = key
+                var suffix = 1
+                while (index.containsKey(key)) {
+                    key = "$base#${suffix++}"
+                }
+                index[key] = expense
+                if (key.startsWith(LEGACY_KEY_PREFIX)) {
+                    legacy.getOrPut(base) { ArrayList(1) }.add(key)
+                }
+                records.add(key to gson.toJson(expense))
+            }
+            expenseStore.replaceAll(records)
+            expenseRecords = index
+            expensesSnapshot = Collections.unmodifiableList(ArrayList(expenses))
+            legacyExpenseKeys = legacy
+            monthlyAggregates = null
+        }
     }
 
     fun getExpenses(): List<Expense> {
-        val json = sharedPreferences.getString(KEY_EXPENSES, null)
-        return if (json.isNullOrEmpty()) {
-            emptyList()
-        } else {
-            val type: Type = object : TypeToken<List<Expense>>() {}.type
-            gson.fromJson(json, type)
+        expensesSnapshot?.let { return it }
+        return synchronized(transactionLock) {
+            expensesSnapshot ?: Collections.unmodifiableList(ArrayList(expenseRecords().values)).also {
+                expensesSnapshot = it
+            }
         }
     }
 
+    private fun expenseRecords(): LinkedHashMap<String, Expense> {
+        expenseRecords?.let { return it }
+        val records = LinkedHashMap<String, Expense>(expenseStore.size * 2)
+        expenseStore.forEach { key, json ->
+            records[key] = decodeExpense(json)
+        }
+        expenseRecords = records
+        return records
+    }
+
+    fun getExpense(id: String): Expense? {
+        synchronized(transactionLock) {
+            return expenseRecords()[id]
+        }
+    }
+
+    private fun decodeExpense(json: String): Expense {
+        return LedgerCodec.typed(gson.fromJson(json, Expense::class.java))
+    }
+
+    private fun storedExpense(key: String): Expense? {
+        expenseRecords?.let { return it[key] }
+        val json = expenseStore.get(key) ?: return null
+        return decodeExpense(json)
+    }
+
+    fun getExpenseCount(): Int {
+        return expenseStore.size
+    }
+
     fun addExpense(expense: Expense) {
-        val expenses = getExpenses().toMutableList()
-        expenses.add(expense)
-        saveExpenses(expenses)
+        synchronized(transactionLock) {
+            val key = newExpenseKey(expense)
+            val previous = if (expenseStore.contains(key)) storedExpense(key) else null
+            expenseStore.put(key, gson.toJson(expense))
+            if (previous == null) trackLegacyKey(key)
+            monthlyAggregates?.let { aggregates ->
+                previous?.let { aggregates.removeExpense(it) }
+                aggregates.addExpense(expense)
+            }
+            putExpenseRecord(key, expense)
+        }
     }
 
     fun updateExpense(oldExpense: Expense, newExpense: Expense) {
-        val expenses = getExpenses().toMutableList()
-        val index = expenses.indexOfFirst {
-            it.name == oldExpense.name &&
-                    it.category == oldExpense.category &&
-                    it.date == oldExpense.date &&
-                    it.time == oldExpense.time &&
-                    it.amount == oldExpense.amount
-        }
-        if (index != -1) {
-            expenses[index] = newExpense
-            saveExpenses(expenses)
+        synchronized(transactionLock) {
+            val oldKey = resolveExpenseKey(oldExpense) ?: return
+            val previous = storedExpense(oldKey) ?: return
+
+            val newId: String? = newExpense.id
+            val newKey = when {
+                !newId.isNullOrBlank() -> newId
+                legacyBaseKey(oldKey) == legacyExpenseKey(newExpense) -> oldKey
+                else -> null
+            }
+
+            if (newKey == oldKey) {
+                expenseStore.put(oldKey, gson.toJson(newExpense))
+                monthlyAggregates?.let { aggregates ->
+                    aggregates.removeExpense(previous)
+                    aggregates.addExpense(newExpense)
+                }
+                putExpenseRecord(oldKey, newExpense)
+                return
+            }
+
+            // Re-keyed record: it goes to the end of the journal, and the index mirrors that,
+            // unless the new key is taken; then it replaces that record in place, like earnings
+            expenseStore.remove(oldKey)
+            untrackLegacyKey(oldKey)
+            removeExpenseRecord(oldKey)
+
+            val key = newKey ?: newExpenseKey(newExpense)
+            val displaced = storedExpense(key)
+            if (displaced == null) {
+                trackLegacyKey(key)
+            }
+            expenseStore.put(key, gson.toJson(newExpense))
+            putExpenseRecord(key, newExpense)
+
+            monthlyAggregates?.let { aggregates ->
+                aggregates.removeExpense(previous)
+                displaced?.let { aggregates.removeExpense(it) }
+                aggregates.addExpense(newExpense)
+            }
         }
     }
 
     fun deleteExpense(expense: Expense) {
-        val expenses = getExpenses().toMutableList()
-        expenses.removeIf {
-            it.name == expense.name &&
-                    it.category == expense.category &&
-                    it.date == expense.date &&
-                    it.time == expense.time &&
-                    it.amount == expense.amount
+        synchronized(transactionLock) {
+            val key = resolveExpenseKey(expense) ?: return
+            val previous = storedExpense(key) ?: return
+            if (expenseStore.remove(key)) {
+                untrackLegacyKey(key)
+                monthlyAggregates?.removeExpense(previous)
+                removeExpenseRecord(key)
+            }
         }
-        saveExpenses(expenses)
+    }
+
+    // Index write-through. An existing key keeps its place and a new one goes last, as in the
+    // journal; the list handed out is dropped and rebuilt by the next read.
+    private fun putExpenseRecord(key: String, expense: Expense) {
+        expenseRecords?.put(key, expense)
+        expensesSnapshot = null
+    }
+
+    private fun removeExpenseRecord(key: String) {
+        expenseRecords?.remove(key)
+        expensesSnapshot = null
     }
 
     // Earnings Management
     fun saveEarnings(earnings: List<Earning>) {
-        val json = gson.toJson(earnings)
-        sharedPreferences.edit().putString(KEY_EARNINGS, json).apply()
+        synchronized(transactionLock) {
+            replaceEarnings(earnings)
+            clearSyncState(KEY_EARNINGS_SYNC_USER, KEY_EARNINGS_SYNC_CURSOR)
+        }
+    }
+
+    private fun replaceEarnings(earnings: List<Earning>) {
+        synchronized(transactionLock) {
+            earningStore.replaceAll(earnings.map { it.id to gson.toJson(it) })
+            val index = LinkedHashMap<String, Earning>(earnings.size * 2)
+            earnings.forEach { index[it.id] = it }
+            earningRecords = index
+            earningsSnapshot = Collections.unmodifiableList(ArrayList(index.values))
+            monthlyAggregates = null
+        }
     }
 
     fun getEarnings(): List<Earning> {
-        val json = sharedPreferences.getString(KEY_EARNINGS, null)
-        return if (json.isNullOrEmpty()) {
-            emptyList()
-        } else {
-            val type: Type = object : TypeToken<List<Earning>>() {}.type
-            gson.fromJson(json, type)
+        earningsSnapshot?.let { return it }
+        return synchronized(transactionLock) {
+            earningsSnapshot ?: Collections.unmodifiableList(ArrayList(earningRecords().values)).also {
+                earningsSnapshot = it
+            }
+        }
+    }
+
+    private fun earningRecords(): LinkedHashMap<String, Earning> {
+        earningRecords?.let { return it }
+        val records = LinkedHashMap<String, Earning>(earningStore.size * 2)
+        earningStore.forEach { id, json ->
+            records[id] = decodeEarning(json)
         }
+        earningRecords = records
+        return records
+    }
+
+    fun getEarning(id: String): Earning? {
+        synchronized(transactionLock) {
+            return storedEarning(id)
+        }
+    }
+
+    private fun decodeEarning(json: String): Earning {
+        return LedgerCodec.typed(gson.fromJson(json, Earning::class.java))
+    }
+
+    private fun storedEarning(id: String): Earning? {
+        earningRecords?.let { return it[id] }
+        val json = earningStore.get(id) ?: return null
+        return decodeEarning(json)
     }
 
     fun addEarning(earning: Earning) {
-        val earnings = getEarnings().toMutableList()
-        earnings.add(earning)
-        saveEarnings(earnings)
+        synchronized(transactionLock) {
+            val previous = if (earningStore.contains(earning.id)) storedEarning(earning.id) else null
+            earningStore.put(earning.id, gson.toJson(earning))
+            monthlyAggregates?.let { aggregates ->
+                previous?.let { aggregates.removeEarning(it) }
+                aggregates.addEarning(earning)
+            }
+            putEarningRecord(earning)
+        }
     }
 
     fun updateEarning(oldEarning: Earning, newEarning: Earning) {
-        val earnings = getEarnings().toMutableList()
-        val index = earnings.indexOfFirst {
-            it.id == oldEarning.id
-        }
-        if (index != -1) {
-            earnings[index] = newEarning
-            saveEarnings(earnings)
+        synchronized(transactionLock) {
+            val previous = storedEarning(oldEarning.id) ?: return
+
+            val displaced = if (newEarning.id != oldEarning.id) storedEarning(newEarning.id) else null
+            if (newEarning.id != oldEarning.id) {
+                earningStore.remove(oldEarning.id)
+                removeEarningRecord(oldEarning.id)
+            }
+            earningStore.put(newEarning.id, gson.toJson(newEarning))
+            putEarningRecord(newEarning)
+
+            monthlyAggregates?.let { aggregates ->
+                aggregates.removeEarning(previous)
+                displaced?.let { aggregates.removeEarning(it) }
+                aggregates.addEarning(newEarning)
+            }
         }
     }
 
     fun deleteEarning(earning: Earning) {
-        val earnings = getEarnings().toMutableList()
-        earnings.removeIf { it.id == earning.id }
-        saveEarnings(earnings)
+        synchronized(transactionLock) {
+            val previous = storedEarning(earning.id) ?: return
+            if (earningStore.remove(earning.id)) {
+                monthlyAggregates?.removeEarning(previous)
+                removeEarningRecord(earning.id)
+            }
+        }
     }
 
-    // Budget and Analytics
-    fun getCurrentMonthExpenses(): Double {
-        val calendar = Calendar.getInstance()
-        val currentMonth = calendar.get(Calendar.MONTH)
-        val currentYear = calendar.get(Calendar.YEAR)
-
-        return getExpenses()
-            .filter {
-                try {
-                    val parts = it.date.split("-")
-                    val expMonth = parts[1].toInt() - 1 // Month is 0-based in Calendar
-                    val expYear = if (parts[0].length == 4) parts[0].toInt() else parts[2].toInt()
-                    expMonth == currentMonth && expYear == currentYear
-                } catch (e: Exception) {
-                    false
+    private fun putEarningRecord(earning: Earning) {
+        earningRecords?.put(earning.id, earning)
+        earningsSnapshot = null
+    }
+
+    private fun removeEarningRecord(id: String) {
+        earningRecords?.remove(id)
+        earningsSnapshot = null
+    }
+
+    // Delta sync. The journals double as the local mirror of the user's server records; the
+    // cursor says how far that mirror is up to date. A cursor only counts for the user it was
+    // stored for, so switching accounts falls back to a full sync.
+    fun getExpenseSyncCursor(userId: String): String? {
+        return syncCursor(KEY_EXPENSES_SYNC_USER, KEY_EXPENSES_SYNC_CURSOR, userId)
+    }
+
+    fun getEarningSyncCursor(userId: String): String? {
+        return syncCursor(KEY_EARNINGS_SYNC_USER, KEY_EARNINGS_SYNC_CURSOR, userId)
+    }
+
+    fun isExpenseMirrorOf(userId: String): Boolean {
+        return sharedPreferences.getString(KEY_EXPENSES_SYNC_USER, null) == userId
+    }
+
+    fun isEarningMirrorOf(userId: String): Boolean {
+        return sharedPreferences.getString(KEY_EARNINGS_SYNC_USER, null) == userId
+    }
+
+    // full: changed is the user's complete list and replaces the journal, unless it matches what
+    // is already there. Otherwise changed records are upserted by id and deletedIds removed.
+    // The cursor is stored after the records, so a crash in between only means the same delta is
+    // applied again. Returns whether any record changed.
+    fun applyExpenseSync(
+        userId: String,
+        full: Boolean,
+        changed: List<Expense>,
+        deletedIds: Collection<String>,
+        cursor: String?
+    ): Boolean {
+        synchronized(transactionLock) {
+            var modified = false
+            if (full) {
+                if (!sameExpenses(getExpenses(), changed)) {
+                    replaceExpenses(changed)
+                    modified = true
                 }
-            }
-            .sumOf {
-                try {
-                    it.amount.toDouble()
-                } catch (e: NumberFormatException) {
-                    0.0
+            } else {
+                changed.forEach { addExpense(it) }
+                deletedIds.forEach { id ->
+                    storedExpense(id)?.let {
+                        deleteExpense(it)
+                        modified = true
+                    }
                 }
+                modified = modified || changed.isNotEmpty()
             }
+            storeSyncState(KEY_EXPENSES_SYNC_USER, KEY_EXPENSES_SYNC_CURSOR, userId, cursor)
+            return modified
+        }
     }
 
-    fun getCurrentMonthEarnings(): Double {
-        val calendar = Calendar.getInstance()
-        val currentMonth = calendar.get(Calendar.MONTH)
-        val currentYear = calendar.get(Calendar.YEAR)
-
-        return getEarnings()
-            .filter {
-                try {
-                    val parts = it.date.split("-")
-                    val expMonth = parts[1].toInt() - 1 // Month is 0-based in Calendar
-                    val expYear = if (parts[0].length == 4) parts[0].toInt() else parts[2].toInt()
-                    expMonth == currentMonth && expYear == currentYear
-                } catch (e: Exception) {
-                    false
+    fun applyEarningSync(
+        userId: String,
+        full: Boolean,
+        changed: List<Earning>,
+        deletedIds: Collection<String>,
+        cursor: String?
+    ): Boolean {
+        synchronized(transactionLock) {
+            var modified = false
+            if (full) {
+                if (getEarnings() != changed) {
+                    replaceEarnings(changed)
+                    modified = true
                 }
-            }
-            .sumOf {
-                try {
-                    it.amount.toDouble()
-                } catch (e: NumberFormatException) {
-                    0.0
+            } else {
+                changed.forEach { addEarning(it) }
+                deletedIds.forEach { id ->
+                    storedEarning(id)?.let {
+                        deleteEarning(it)
+                        modified = true
+                    }
                 }
+                modified = modified || changed.isNotEmpty()
+            }
+            storeSyncState(KEY_EARNINGS_SYNC_USER, KEY_EARNINGS_SYNC_CURSOR, userId, cursor)
+            return modified
+        }
+    }
+
+    // Field-by-field, in order; Expense has no equals of its own
+    private fun sameExpenses(stored: List<Expense>, incoming: List<Expense>): Boolean {
+        if (stored.size != incoming.size) return false
+        for (i in stored.indices) {
+            val a = stored[i]
+            val b = incoming[i]
+            if (a.id != b.id || a.name != b.name || a.category != b.category || a.date != b.date ||
+                a.time != b.time || a.amount != b.amount || a.categoryId != b.categoryId
+            ) {
+                return false
+            }
+        }
+        return true
+    }
+
+    // Forgets the cursor so the next sync fetches the full list again, e.g. after the server
+    // refused a write that was already applied locally
+    fun resetExpenseSync() {
+        synchronized(transactionLock) {
+            clearSyncState(KEY_EXPENSES_SYNC_USER, KEY_EXPENSES_SYNC_CURSOR)
+        }
+    }
+
+    fun resetEarningSync() {
+        synchronized(transactionLock) {
+            clearSyncState(KEY_EARNINGS_SYNC_USER, KEY_EARNINGS_SYNC_CURSOR)
+        }
+    }
+
+    // The journals hold one account's records at a time. Called before they are read or written
+    // for userId: records and sync state left by another account are dropped first, so they
+    // can't show up as this user's or be merged into their list. Returns whether anything was.
+    fun claimJournals(userId: String): Boolean {
+        synchronized(transactionLock) {
+            val owner = sharedPreferences.getString(KEY_JOURNAL_OWNER, null)
+            if (owner == userId) return false
+            // Installs from before the owner was recorded only know whose mirror they hold
+            val foreign = owner != null ||
+                sharedPreferences.getString(KEY_EXPENSES_SYNC_USER, null).let { it != null && it != userId } ||
+                sharedPreferences.getString(KEY_EARNINGS_SYNC_USER, null).let { it != null && it != userId }
+            if (foreign) clearJournals()
+            sharedPreferences.edit().putString(KEY_JOURNAL_OWNER, userId).commit()
+            return foreign
+        }
+    }
+
+    fun isJournalOwner(userId: String): Boolean {
+        return sharedPreferences.getString(KEY_JOURNAL_OWNER, null) == userId
+    }
+
+    // On logout: the records go with the account, settings stay with the device
+    fun releaseJournals() {
+        synchronized(transactionLock) {
+            clearJournals()
+            sharedPreferences.edit().remove(KEY_JOURNAL_OWNER).commit()
+        }
+    }
+
+    private fun clearJournals() {
+        expenseStore.clear()
+        earningStore.clear()
+        clearSyncState(KEY_EXPENSES_SYNC_USER, KEY_EXPENSES_SYNC_CURSOR)
+        clearSyncState(KEY_EARNINGS_SYNC_USER, KEY_EARNINGS_SYNC_CURSOR)
+        expenseRecords = LinkedHashMap()
+        expensesSnapshot = emptyList()
+        legacyExpenseKeys = HashMap()
+        earningRecords = LinkedHashMap()
+        earningsSnapshot = emptyList()
+        monthlyAggregates = MonthlyAggregates()
+    }
+
+    private fun syncCursor(userKey: String, cursorKey: String, userId: String): String? {
+        if (sharedPreferences.getString(userKey, null) != userId) return null
+        return sharedPreferences.getString(cursorKey, null)
+    }
+
+    // commit() rather than apply(), so the cursor is on disk before the sync is reported done
+    private fun storeSyncState(userKey: String, cursorKey: String, userId: String, cursor: String?) {
+        if (sharedPreferences.getString(userKey, null) == userId &&
+            sharedPreferences.getString(cursorKey, null) == cursor
+        ) {
+            return
+        }
+        sharedPreferences.edit().putString(userKey, userId).putString(cursorKey, cursor).commit()
+    }
+
+    private fun clearSyncState(userKey: String, cursorKey: String) {
+        sharedPreferences.edit().remove(userKey).remove(cursorKey).commit()
+    }
+
+    // Drops the parsed indexes and snapshots so the next read goes back to the journals
+    fun invalidateTransactionCache() {
+        synchronized(transactionLock) {
+            expenseRecords = null
+            expensesSnapshot = null
+            legacyExpenseKeys = null
+            earningRecords = null
+            earningsSnapshot = null
+            monthlyAggregates = null
+        }
+    }
+
+    // Budget and Analytics
+    private fun aggregates(): MonthlyAggregates {
+        monthlyAggregates?.let { return it }
+        return synchronized(transactionLock) {
+            monthlyAggregates ?: MonthlyAggregates().also {
+                it.rebuild(getExpenses(), getEarnings())
+                monthlyAggregates = it
             }
+        }
+    }
+
+    // Recomputes the monthly totals from the stored records, e.g. after a restore
+    fun rebuildMonthlyAggregates() {
+        synchronized(transactionLock) {
+            monthlyAggregates = null
+        }
+        aggregates()
+    }
+
+    fun getMonthlyExpenses(year: Int, month: Int): Double {
+        return aggregates().expenseTotal(year, month)
+    }
+
+    fun getMonthlyCategoryExpenses(year: Int, month: Int, categoryId: Int): Double {
+        return aggregates().expenseTotal(year, month, categoryId)
+    }
+
+    fun getMonthlyEarnings(year: Int, month: Int): Double {
+        return aggregates().earningTotal(year, month)
+    }
+
+    fun getCurrentMonthExpenses(): Double {
+        val calendar = Calendar.getInstance()
+        return getMonthlyExpenses(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH))
+    }
+
+    fun getCurrentMonthEarnings(): Double {
+        val calendar = Calendar.getInstance()
+        return getMonthlyEarnings(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH))
     }
 
     // Budget percentage used
@@ -303,5 +776,8 @@ class SharedPreferencesManager(context: Context) {
     // Clear all data (for logging out)
     fun clearAllData() {
         sharedPreferences.edit().clear().apply()
+        synchronized(transactionLock) {
+            clearJournals()
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.example.finbot.viewmodel
+
+import android.app.Application
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Expense
+
+class AddExpenseViewModel(application: Application) : ScreenViewModel(application) {
+
+    companion object {
+        const val ADD_EXPENSE = "Error adding expense"
+    }
+
+    private val repository = FinanceRepository.getInstance(application)
+
+    private val _saved = MutableLiveData<Event<Expense>>()
+    val saved: LiveData<Event<Expense>> = _saved
+
+    fun addExpense(userId: String, expense: Expense) {
+        launchWrite(ADD_EXPENSE) {
+            // Stored locally and queued; the upload happens in the background
+            _saved.postValue(Event(repository.addExpense(userId, expense)))
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.finbot.viewmodel
+
+import android.app.Application
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Earning
+
+class EarningViewModel(application: Application) : ScreenViewModel(application) {
+
+    companion object {
+        // Operations of the errors posted, one per call, so the screen can say which one failed
+        const val LOAD_EARNINGS = "Error loading earnings"
+        const val LOAD_TOTALS = "Error fetching savings"
+        const val ADD_EARNING = "Error adding earning"
+        const val UPDATE_EARNING = "Error updating earning"
+        const val DELETE_EARNING = "Error deleting earning"
+    }
+
+    class Totals(val totalEarnings: Double, val totalSavings: Double)
+
+    private val repository = FinanceRepository.getInstance(application)
+
+    private val _earnings = MutableLiveData<List<Earning>>()
+    val earnings: LiveData<List<Earning>> = _earnings
+
+    private val _totals = MutableLiveData<Totals>()
+    val totals: LiveData<Totals> = _totals
+
+    private val _messages = MutableLiveData<Event<String>>()
+    val messages: LiveData<Event<String>> = _messages
+
+    fun refresh(userId: String) {
+        markRefreshed()
+        loadEarnings(userId)
+        loadTotals(userId)
+    }
+
+    fun addEarning(userId: String, earning: Earning) {
+        launchWrite(ADD_EARNING) {
+            // Stored locally and queued; the upload happens in the background
+            repository.addEarning(userId, earning)
+            afterWrite(userId, "Earning added successfully")
+        }
+    }
+
+    fun updateEarning(userId: String, oldEarning: Earning, newEarning: Earning) {
+        launchWrite(UPDATE_EARNING) {
+            repository.updateEarning(userId, oldEarning, newEarning)
+            afterWrite(userId, "Earning updated successfully")
+        }
+    }
+
+    fun deleteEarning(userId: String, earning: Earning) {
+        launchWrite(DELETE_EARNING) {
+            repository.deleteEarning(userId, earning)
+            afterWrite(userId, "Earning deleted successfully")
+        }
+    }
+
+    private fun afterWrite(userId: String, message: String) {
+        _messages.postValue(Event(message))
+        loadEarnings(userId)
+        loadTotals(userId)
+    }
+
+    private fun loadEarnings(userId: String) {
+        launchLoad(LOAD_EARNINGS) {
+            // Local mirror first, then again only if the sync brought changes
+            repository.storedEarnings(userId)?.let { _earnings.postValue(it) }
+            repository.syncEarnings(userId)?.let { _earnings.postValue(it) }
+        }
+    }
+
+    private fun loadTotals(userId: String) {
+        launchLoad(LOAD_TOTALS) {
+            val summary = repository.dashboardSummary(userId)
+            // Calculate total savings (earnings - expenses)
+            _totals.postValue(Totals(summary.totalEarnings, summary.totalEarnings - summary.totalExpenses))
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.finbot.viewmodel
+
+import android.app.Application
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.example.finbot.data.DashboardSummary
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Expense
+import com.example.finbot.network.HttpStatusException
+import com.example.finbot.util.SharedPreferencesManager
+import kotlinx.coroutines.CancellationException
+import java.net.HttpURLConnection
+
+class HomeViewModel(application: Application) : ScreenViewModel(application) {
+
+    // budget is 0 when the user hasn't set one
+    class BudgetSummary(val totalExpenses: Double, val budget: Double)
+
+    enum class Change { UPDATED, DELETED }
+
+    private val repository = FinanceRepository.getInstance(application)
+    private val sharedPrefsManager = SharedPreferencesManager.getInstance(application)
+
+    private val _expenses = MutableLiveData<List<Expense>>()
+    val expenses: LiveData<List<Expense>> = _expenses
+
+    // null when the name couldn't be fetched; the screen shows the cached one instead
+    private val _username = MutableLiveData<String?>()
+    val username: LiveData<String?> = _username
+
+    private val _totalExpenses = MutableLiveData<Double>()
+    val totalExpenses: LiveData<Double> = _totalExpenses
+
+    // null when the budget couldn't be fetched at all
+    private val _budgetSummary = MutableLiveData<BudgetSummary?>()
+    val budgetSummary: LiveData<BudgetSummary?> = _budgetSummary
+
+    private val _notices = MutableLiveData<Event<String>>()
+    val notices: LiveData<Event<String>> = _notices
+
+    private val _changes = MutableLiveData<Event<Change>>()
+    val changes: LiveData<Event<Change>> = _changes
+
+    fun refresh(userId: String) {
+        markRefreshed()
+        loadUsername(userId)
+        loadExpenses(userId)
+        loadSummary(userId)
+    }
+
+    fun updateExpense(userId: String, expense: Expense, updatedExpense: Expense) {
+        launchWrite("Error updating expense") {
+            // Applied locally and queued; the upload happens in the background
+            repository.updateExpense(userId, expense, updatedExpense)
+            _changes.postValue(Event(Change.UPDATED))
+            loadExpenses(userId)
+            loadSummary(userId)
+        }
+    }
+
+    fun deleteExpense(userId: String, expense: Expense) {
+        launchWrite("Error deleting expense") {
+            repository.deleteExpense(userId, expense)
+            _changes.postValue(Event(Change.DELETED))
+            loadExpenses(userId)
+            loadSummary(userId)
+        }
+    }
+
+    private fun loadUsername(userId: String) {
+        if (userId.isEmpty()) {
+            _username.value = "User"
+            return
+        }
+
+        launchLoad("Error loading username") {
+            try {
+                val result = fetch { repository.username(userId) }
+                if (result.code == HttpURLConnection.HTTP_OK) {
+                    _username.postValue(result.body.trim())
+                } else {
+                    postError("Username fetch", result.code)
+                    _username.postValue(null)
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                postError("Error loading username", e)
+                _username.postValue(null)
+            }
+        }
+    }
+
+    private fun loadExpenses(userId: String) {
+        launchLoad("Error loading expenses") {
+            // Local mirror straight away; the sync only fetches what changed since last time
+            repository.storedExpenses(userId)?.let { _expenses.postValue(it) }
+            repository.syncExpenses(userId)?.let { _expenses.postValue(it) }
+        }
+    }
+
+    // Totals, budget, currency and alert settings come back together in one round trip
+    private fun loadSummary(userId: String) {
+        if (userId.isEmpty()) {
+            sharedPrefsManager.setCurrency("USD")
+            return
+        }
+
+        launchLoad("Error updating budget info") {
+            try {
+                // Not interruptible: without the summary endpoint this runs the list syncs
+                val summary = repository.dashboardSummary(userId)
+                applySettings(summary)
+                _totalExpenses.postValue(summary.totalExpenses)
+                _budgetSummary.postValue(BudgetSummary(summary.totalExpenses, summary.budget))
+            } catch (e: HttpStatusException) {
+                postError("Dashboard summary", e.code)
+                keepDefaultCurrency()
+            } catch (e: Exception) {
+                postError("Error updating budget info", e)
+                keepDefaultCurrency()
+                _budgetSummary.postValue(null)
+            }
+        }
+    }
+
+    private fun applySettings(summary: DashboardSummary) {
+        if (!summary.hasBudgetRecord) {
+            sharedPrefsManager.setCurrency("LKR")
+            _notices.postValue(Event("Budget not set. Please configure your budget in settings."))
+            return
+        }
+
+        sharedPrefsManager.setCurrency(
+            sharedPrefsManager.getAvailableCurrencies().getOrElse(summary.currencyIndex) { "LKR" }
+        )
+        // The budget alerts on this screen read these, so they follow changes made on other devices
+        sharedPrefsManager.setNotificationsEnabled(summary.notificationsEnabled)
+        sharedPrefsManager.setRemindersEnabled(summary.reminderEnabled)
+        sharedPrefsManager.setBudgetAlertPercent(summary.alertPercent)
+    }
+
+    private fun keepDefaultCurrency() {
+        // Cached currency if there is one, otherwise LKR
+        if (sharedPrefsManager.getCurrency().isEmpty()) {
+            sharedPrefsManager.setCurrency("LKR")
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.finbot.viewmodel
+
+import android.app.Application
+import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.viewModelScope
+import com.example.finbot.network.ApiClient
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import java.util.concurrent.ConcurrentHashMap
+
+// Base for the screens' ViewModels.
+// Loads run in viewModelScope, so they outlive configuration changes and are cancelled once the
+// screen is closed for good. Results go out through LiveData, so nothing is ever delivered to a
+// view that no longer exists. Each screen runs at most MAX_PARALLEL_CALLS blocking calls at a
+// time, and starting a load under a key that is still running cancels the older one.
+@OptIn(ExperimentalCoroutinesApi::class)
+abstract class ScreenViewModel(application: Application) : AndroidViewModel(application) {
+
+    companion object {
+        private const val MAX_PARALLEL_CALLS = 2
+
+        // A screen shown again within this long, e.g. after a rotation, keeps what it has
+        private const val FRESH_FOR_MS = ApiClient.LIST_MAX_AGE_MS
+    }
+
+    // Handed out once, so a re-created view doesn't repeat a message or an animation
+    class Event<out T>(private val content: T) {
+        private var handled = false
+
+        fun take(): T? {
+            if (handled) return null
+            handled = true
+            return content
+        }
+    }
+
+    // A failed call: an HTTP status (exception == null) or an exception
+    class LoadError(val operation: String, val code: Int, val exception: Exception?)
+
+    protected val io: CoroutineDispatcher = Dispatchers.IO.limitedParallelism(MAX_PARALLEL_CALLS)
+
+    private val _errors = MutableLiveData<Event<LoadError>>()
+    val errors: LiveData<Event<LoadError>> = _errors
+
+    private val loads = ConcurrentHashMap<String, Job>()
+    @Volatile
+    private var refreshedAt = 0L
+
+    fun isFresh(): Boolean {
+        return refreshedAt != 0L && System.currentTimeMillis() - refreshedAt < FRESH_FOR_MS
+    }
+
+    protected fun markRefreshed() {
+        refreshedAt = System.currentTimeMillis()
+    }
+
+    // Exceptions other than cancellation are reported under key
+    protected fun launchLoad(key: String, block: suspend () -> Unit) {
+        val job = viewModelScope.launch(io, CoroutineStart.LAZY) {
+            try {
+                block()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                postError(key, e)
+            }
+        }
+        loads.put(key, job)?.cancel()
+        job.start()
+    }
+
+    // Writes start even if the screen is closed right after the tap. They're local (WriteQueue
+    // uploads later), so there is nothing to gain from cancelling them.
+    protected fun launchWrite(operation: String, block: () -> Unit) {
+        viewModelScope.launch(io, CoroutineStart.ATOMIC) {
+            try {
+                block()
+            } catch (e: Exception) {
+                postError(operation, e)
+            }
+        }
+    }
+
+    // For plain GETs: cancelling the load interrupts the request instead of waiting it out.
+    // Syncs aren't run this way, so a cancel never lands in the middle of a journal update.
+    protected suspend fun <T> fetch(call: () -> T): T = runInterruptible(block = call)
+
+    protected fun postError(operation: String, code: Int) {
+        _errors.postValue(Event(LoadError(operation, code, null)))
+    }
+
+    protected fun postError(operation: String, exception: Exception) {
+        _errors.postValue(Event(LoadError(operation, -1, exception)))
+    }
+}
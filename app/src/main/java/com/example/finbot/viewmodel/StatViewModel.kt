@@ -0,0 +1,64 @@
+package com.example.finbot.viewmodel
+
+import android.app.Application
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import com.example.finbot.util.Ledger
+
+// Keeps the built ledgers, so a rotation re-slices them instead of loading and sorting again
+class StatViewModel(application: Application) : ScreenViewModel(application) {
+
+    companion object {
+        // Operations of the errors posted when a load fails with nothing local to fall back on
+        const val LOAD_EXPENSES = "Error loading expenses"
+        const val LOAD_EARNINGS = "Error loading earnings"
+    }
+
+    private val repository = FinanceRepository.getInstance(application)
+
+    private val _expenseLedger = MutableLiveData<Ledger>()
+    val expenseLedger: LiveData<Ledger> = _expenseLedger
+
+    private val _earningLedger = MutableLiveData<Ledger>()
+    val earningLedger: LiveData<Ledger> = _earningLedger
+
+    fun refresh(userId: String) {
+        markRefreshed()
+
+        // Local mirror first; the sync only transfers what changed. On a network failure the
+        // mirror stays up instead of the empty chart.
+        launchLoad(LOAD_EXPENSES) {
+            val stored = repository.storedExpenses(userId)
+            try {
+                stored?.let { showExpenses(it) }
+                repository.syncExpenses(userId)?.let { showExpenses(it) }
+            } catch (e: Exception) {
+                e.printStackTrace()
+                if (stored == null) postError(LOAD_EXPENSES, e)
+            }
+        }
+
+        launchLoad(LOAD_EARNINGS) {
+            val stored = repository.storedEarnings(userId)
+            try {
+                stored?.let { showEarnings(it) }
+                repository.syncEarnings(userId)?.let { showEarnings(it) }
+            } catch (e: Exception) {
+                e.printStackTrace()
+                if (stored == null) postError(LOAD_EARNINGS, e)
+            }
+        }
+    }
+
+    private fun showExpenses(expenses: List<Expense>) {
+        // Columnar, date-sorted copy; each period is a range view of it
+        _expenseLedger.postValue(Ledger.ofExpenses(expenses))
+    }
+
+    private fun showEarnings(earnings: List<Earning>) {
+        _earningLedger.postValue(Ledger.ofEarnings(earnings))
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.finbot
+
+import android.content.Context
+import android.content.ContextWrapper
+import android.content.SharedPreferences
+import java.io.File
+import java.nio.file.Files
+
+// Just enough of a Context for the storage and sync classes in local unit tests: files under
+// dir and SharedPreferences kept in memory
+class TestContext(private val dir: File) : ContextWrapper(null) {
+
+    companion object {
+        // The repository, sync and write queue singletons keep the first context they are given
+        // for the whole test run, so every test class that goes through them uses this one
+        val shared: TestContext by lazy {
+            val dir = Files.createTempDirectory("finbot-test").toFile()
+            Runtime.getRuntime().addShutdownHook(Thread { dir.deleteRecursively() })
+            TestContext(dir)
+        }
+    }
+
+    private val preferences = HashMap<String, InMemoryPreferences>()
+
+    override fun getApplicationContext(): Context = this
+
+    override fun getFilesDir(): File = File(dir, "files").also { it.mkdirs() }
+
+    override fun getCacheDir(): File = File(dir, "cache").also { it.mkdirs() }
+
+    override fun getSharedPreferences(name: String, mode: Int): SharedPreferences {
+        return synchronized(preferences) { preferences.getOrPut(name) { InMemoryPreferences() } }
+    }
+
+    override fun getSystemService(name: String): Any? = null
+}
+
+class InMemoryPreferences : SharedPreferences {
+
+    private val values = HashMap<String, Any?>()
+
+    override fun getAll(): MutableMap<String, *> = synchronized(values) { HashMap(values) }
+
+    override fun getString(key: String, defValue: String?): String? = read(key) ?: defValue
+
+    override fun getStringSet(key: String, defValues: MutableSet<String>?): MutableSet<String>? =
+        read(key) ?: defValues
+
+    override fun getInt(key: String, defValue: Int): Int = read(key) ?: defValue
+
+    override fun getLong(key: String, defValue: Long): Long = read(key) ?: defValue
+
+    override fun getFloat(key: String, defValue: Float): Float = read(key) ?: defValue
+
+    override fun getBoolean(key: String, defValue: Boolean): Boolean = read(key) ?: defValue
+
+    override fun contains(key: String): Boolean = synchronized(values) { values.containsKey(key) }
+
+    override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener?) {
+    }
+
+    override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener?) {
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> read(key: String): T? = synchronized(values) { values[key] as T? }
+
+    override fun edit(): SharedPreferences.Editor = Editor()
+
+    private inner class Editor : SharedPreferences.Editor {
+        private val changes = HashMap<String, Any?>()
+        private val removals = HashSet<String>()
+        private var clear = false
+
+        override fun putString(key: String, value: String?) = apply { changes[key] = value }
+
+        override fun putStringSet(key: String, values: MutableSet<String>?) = apply { changes[key] = values }
+
+        override fun putInt(key: String, value: Int) = apply { changes[key] = value }
+
+        override fun putLong(key: String, value: Long) = apply { changes[key] = value }
+
+        override fun putFloat(key: String, value: Float) = apply { changes[key] = value }
+
+        override fun putBoolean(key: String, value: Boolean) = apply { changes[key] = value }
+
+        override fun remove(key: String) = apply { removals.add(key) }
+
+        override fun clear() = apply { clear = true }
+
+        override fun commit(): Boolean {
+            synchronized(values) {
+                if (clear) values.clear()
+                removals.forEach { values.remove(it) }
+                changes.forEach { (key, value) -> if (value == null) values.remove(key) else values[key] = value }
+            }
+            return true
+        }
+
+        override fun apply() {
+            commit()
+        }
+    }
+}
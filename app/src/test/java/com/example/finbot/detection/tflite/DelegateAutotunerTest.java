@@ -0,0 +1,192 @@
+package com.example.finbot.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DelegateAutotunerTest {
+
+    private static final DelegateConfig CPU_1 = DelegateConfig.cpu(1);
+    private static final DelegateConfig CPU_2 = DelegateConfig.cpu(2);
+    private static final DelegateConfig XNNPACK = new DelegateConfig(DelegateConfig.Kind.XNNPACK, 2);
+    private static final DelegateConfig NNAPI = new DelegateConfig(DelegateConfig.Kind.NNAPI, 1);
+    private static final DelegateConfig GPU = new DelegateConfig(DelegateConfig.Kind.GPU, 1);
+
+    // Fake time: each run of a session moves the clock on by that config's cost
+    private long now;
+
+    private final class FakeBackend implements DelegateAutotuner.Backend {
+        final Map<DelegateConfig, Long> costs = new HashMap<DelegateConfig, Long>();
+        final Map<DelegateConfig, Integer> runs = new HashMap<DelegateConfig, Integer>();
+        DelegateConfig failsToOpen;
+        DelegateConfig failsToRun;
+        int opened;
+        int closed;
+
+        FakeBackend cost(DelegateConfig config, long nanos) {
+            costs.put(config, nanos);
+            return this;
+        }
+
+        int runsOf(DelegateConfig config) {
+            final Integer count = runs.get(config);
+            return count != null ? count : 0;
+        }
+
+        @Override
+        public DelegateAutotuner.Session open(final DelegateConfig config) throws Exception {
+            if (config.equals(failsToOpen)) {
+                throw new IllegalArgumentException("no delegate");
+            }
+            opened++;
+            return new DelegateAutotuner.Session() {
+                @Override
+                public void run() throws Exception {
+                    if (config.equals(failsToRun)) {
+                        throw new IllegalStateException("delegate rejected the graph");
+                    }
+                    runs.put(config, runsOf(config) + 1);
+                    now += costs.get(config);
+                }
+
+                @Override
+                public void close() {
+                    closed++;
+                }
+            };
+        }
+    }
+
+    private static final class MapStore implements DelegateAutotuner.Store {
+        final Map<String, String> values = new HashMap<String, String>();
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+
+    private DelegateAutotuner autotuner(DelegateAutotuner.Store store) {
+        return new DelegateAutotuner(store, 2, 5, () -> now);
+    }
+
+    @Test
+    public void picksTheFastestCandidate() {
+        final FakeBackend backend = new FakeBackend().cost(CPU_1, 100).cost(CPU_2, 60).cost(XNNPACK, 40);
+        final DelegateAutotuner autotuner = autotuner(new MapStore());
+
+        assertEquals(XNNPACK, autotuner.tune(Arrays.asList(CPU_1, CPU_2, XNNPACK), backend));
+
+        final List<DelegateAutotuner.Timing> timings = autotuner.getLastTimings();
+        assertEquals(3, timings.size());
+        assertEquals(100, timings.get(0).medianNanos);
+        assertEquals(60, timings.get(1).medianNanos);
+        assertEquals(40, timings.get(2).medianNanos);
+        // Two warmup and five timed runs each
+        assertEquals(7, backend.runsOf(CPU_1));
+        assertEquals(backend.opened, backend.closed);
+    }
+
+    @Test
+    public void skipsCandidatesThatFailToOpenOrRun() {
+        final FakeBackend backend = new FakeBackend().cost(CPU_1, 100).cost(CPU_2, 80).cost(NNAPI, 10).cost(GPU, 5);
+        backend.failsToOpen = GPU;
+        backend.failsToRun = NNAPI;
+        final DelegateAutotuner autotuner = autotuner(new MapStore());
+
+        assertEquals(CPU_2, autotuner.tune(Arrays.asList(GPU, CPU_1, NNAPI, CPU_2), backend));
+
+        final List<DelegateAutotuner.Timing> timings = autotuner.getLastTimings();
+        assertEquals(-1, timings.get(0).medianNanos);
+        assertEquals(-1, timings.get(2).medianNanos);
+        // The session that failed to run is still closed
+        assertEquals(3, backend.opened);
+        assertEquals(3, backend.closed);
+    }
+
+    @Test
+    public void noCandidateThatRunsGivesNull() {
+        final FakeBackend backend = new FakeBackend();
+        backend.failsToOpen = GPU;
+        backend.failsToRun = NNAPI;
+        final MapStore store = new MapStore();
+
+        assertNull(autotuner(store).select("key", Arrays.asList(GPU, NNAPI), backend));
+        assertEquals(0, store.values.size());
+    }
+
+    @Test
+    public void cutsShortACandidateWellBehindTheBest() {
+        final FakeBackend backend = new FakeBackend().cost(CPU_1, 10).cost(GPU, 31).cost(CPU_2, 29);
+        final DelegateAutotuner autotuner = autotuner(new MapStore());
+
+        assertEquals(CPU_1, autotuner.tune(Arrays.asList(CPU_1, GPU, CPU_2), backend));
+
+        // Over three times the best median: stopped after its first timed run
+        assertEquals(-1, autotuner.getLastTimings().get(1).medianNanos);
+        assertEquals(3, backend.runsOf(GPU));
+        // Slower, but within the cutoff, so timed in full
+        assertEquals(29, autotuner.getLastTimings().get(2).medianNanos);
+        assertEquals(7, backend.runsOf(CPU_2));
+    }
+
+    @Test
+    public void choiceIsStoredPerModelAndDevice() {
+        final MapStore store = new MapStore();
+        final List<DelegateConfig> candidates = Arrays.asList(CPU_1, CPU_2);
+        final String yoloHere = DelegateManager.keyFor("yolov5s.tflite", "vendor/device/1:user");
+        final String yoloAfterUpdate = DelegateManager.keyFor("yolov5s.tflite", "vendor/device/2:user");
+        final String otherModelHere = DelegateManager.keyFor("yolov5s-int8.tflite", "vendor/device/1:user");
+        assertNotEquals(yoloHere, yoloAfterUpdate);
+        assertNotEquals(yoloHere, otherModelHere);
+
+        assertEquals(CPU_2, autotuner(store).select(yoloHere, candidates,
+                new FakeBackend().cost(CPU_1, 50).cost(CPU_2, 20)));
+
+        // Read back by a fresh autotuner, as after a restart, without timing anything
+        final DelegateAutotuner restarted = autotuner(store);
+        assertEquals(CPU_2, restarted.getStored(yoloHere));
+        final FakeBackend untouched = new FakeBackend();
+        assertEquals(CPU_2, restarted.select(yoloHere, candidates, untouched));
+        assertEquals(0, untouched.opened);
+
+        // Another device build or another model tunes on its own
+        assertNull(restarted.getStored(yoloAfterUpdate));
+        assertEquals(CPU_1, restarted.select(yoloAfterUpdate, candidates,
+                new FakeBackend().cost(CPU_1, 20).cost(CPU_2, 50)));
+        assertNull(restarted.getStored(otherModelHere));
+        assertEquals(CPU_2, restarted.getStored(yoloHere));
+        assertEquals(CPU_1, restarted.getStored(yoloAfterUpdate));
+
+        restarted.forget(yoloHere);
+        assertNull(restarted.getStored(yoloHere));
+    }
+
+    @Test
+    public void storedChoiceNoLongerOfferedIsTunedAgain() {
+        final MapStore store = new MapStore();
+        store.put("key", GPU.toString());
+        final FakeBackend backend = new FakeBackend().cost(CPU_1, 50).cost(CPU_2, 20);
+
+        assertEquals(CPU_2, autotuner(store).select("key", Arrays.asList(CPU_1, CPU_2), backend));
+        assertEquals(2, backend.opened);
+        assertEquals(CPU_2.toString(), store.get("key"));
+    }
+}
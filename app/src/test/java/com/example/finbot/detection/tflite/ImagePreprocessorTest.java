@@ -0,0 +1,94 @@
+package com.example.finbot.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class ImagePreprocessorTest {
+
+    // Input quantization of the int8 model
+    private static final float SCALE = 0.003921569f;
+    private static final int ZERO_POINT = -128;
+
+    private static int[] randomPixels(int count, long seed) {
+        final Random random = new Random(seed);
+        final int[] pixels = new int[count];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static ByteBuffer allocate(int width, int height, boolean quantized) {
+        return ByteBuffer.allocateDirect(width * height * 3 * (quantized ? 1 : 4)).order(ByteOrder.nativeOrder());
+    }
+
+    // The per-pixel loop convertBitmapToByteBuffer ran before, generalized to per-channel mean and std
+    private static ByteBuffer reference(int[] pixels, int width, int height, boolean quantized,
+                                        float[] mean, float[] std) {
+        final ByteBuffer buffer = allocate(width, height, quantized);
+        for (int i = 0; i < height; ++i) {
+            for (int j = 0; j < width; ++j) {
+                final int pixelValue = pixels[i * width + j];
+                final int[] channels = {(pixelValue >> 16) & 0xFF, (pixelValue >> 8) & 0xFF, pixelValue & 0xFF};
+                for (int c = 0; c < 3; ++c) {
+                    if (quantized) {
+                        buffer.put((byte) ((channels[c] - mean[c]) / std[c] / SCALE + ZERO_POINT));
+                    } else {
+                        buffer.putFloat((channels[c] - mean[c]) / std[c]);
+                    }
+                }
+            }
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static void assertSameAsReference(int width, int height, boolean quantized, int threads,
+                                              float[] mean, float[] std) {
+        final int[] pixels = randomPixels(width * height, width * 31L + threads);
+        final ImagePreprocessor preprocessor =
+                new ImagePreprocessor(width, height, quantized, mean, std, SCALE, ZERO_POINT, threads);
+        try {
+            final ByteBuffer output = allocate(width, height, quantized);
+            // Twice, so reusing the buffer and the bands is covered as well
+            preprocessor.convert(randomPixels(width * height, 99), output);
+            preprocessor.convert(pixels, output);
+
+            final String label = (quantized ? "int8" : "fp32") + " " + width + "x" + height + " threads=" + threads;
+            assertEquals(label, 0, output.position());
+            assertEquals(label, reference(pixels, width, height, quantized, mean, std), output);
+        } finally {
+            preprocessor.close();
+        }
+    }
+
+    private static final float[] MEAN = {0f, 0f, 0f};
+    private static final float[] STD = {255f, 255f, 255f};
+
+    @Test
+    public void floatInputIsByteIdenticalToThePerPixelLoop() {
+        assertSameAsReference(640, 640, false, 1, MEAN, STD);
+        assertSameAsReference(640, 640, false, 4, MEAN, STD);
+    }
+
+    @Test
+    public void quantizedInputIsByteIdenticalToThePerPixelLoop() {
+        assertSameAsReference(640, 640, true, 1, MEAN, STD);
+        assertSameAsReference(640, 640, true, 4, MEAN, STD);
+    }
+
+    @Test
+    public void unevenBandsAndPerChannelNormalization() {
+        final float[] mean = {123.675f, 116.28f, 103.53f};
+        final float[] std = {58.395f, 57.12f, 57.375f};
+        assertSameAsReference(320, 203, false, 3, mean, std);
+        assertSameAsReference(320, 203, true, 3, mean, std);
+        // More threads than rows
+        assertSameAsReference(16, 2, false, 4, MEAN, STD);
+    }
+}
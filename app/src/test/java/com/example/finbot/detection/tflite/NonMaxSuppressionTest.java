@@ -0,0 +1,187 @@
+package com.example.finbot.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+// Uses the array form of NonMaxSuppression: RectF does nothing in local unit tests
+public class NonMaxSuppressionTest {
+
+    private static final int NUM_CLASS = 3;
+    private static final float IOU_THRESHOLD = 0.6f;
+
+    private static final class Boxes {
+        final float[] left;
+        final float[] top;
+        final float[] right;
+        final float[] bottom;
+        final float[] score;
+        final int[] detectedClass;
+
+        Boxes(int count) {
+            left = new float[count];
+            top = new float[count];
+            right = new float[count];
+            bottom = new float[count];
+            score = new float[count];
+            detectedClass = new int[count];
+        }
+
+        int size() {
+            return score.length;
+        }
+    }
+
+    private static Boxes randomBoxes(Random random) {
+        final Boxes boxes = new Boxes(50 + random.nextInt(400));
+        for (int i = 0; i < boxes.size(); ++i) {
+            final float cx = random.nextFloat() * 600;
+            final float cy = random.nextFloat() * 600;
+            final float w = 20 + random.nextFloat() * 100;
+            final float h = 20 + random.nextFloat() * 100;
+            boxes.left[i] = cx - w / 2;
+            boxes.top[i] = cy - h / 2;
+            boxes.right[i] = cx + w / 2;
+            boxes.bottom[i] = cy + h / 2;
+            boxes.score[i] = 0.3f + random.nextFloat() * 0.7f;
+            boxes.detectedClass[i] = random.nextInt(NUM_CLASS);
+        }
+        return boxes;
+    }
+
+    // The per-label PriorityQueue loop YoloV5Classifier.nms() ran before, on box indices
+    private static Set<Integer> referenceNms(final Boxes boxes) {
+        final Set<Integer> kept = new HashSet<Integer>();
+        for (int k = 0; k < NUM_CLASS; k++) {
+            final PriorityQueue<Integer> pq = new PriorityQueue<Integer>(50, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return Float.compare(boxes.score[rhs], boxes.score[lhs]);
+                }
+            });
+            for (int i = 0; i < boxes.size(); ++i) {
+                if (boxes.detectedClass[i] == k) pq.add(i);
+            }
+            while (pq.size() > 0) {
+                final Integer[] detections = pq.toArray(new Integer[0]);
+                final int max = detections[0];
+                kept.add(max);
+                pq.clear();
+                for (int j = 1; j < detections.length; j++) {
+                    if (boxIou(boxes, max, detections[j]) < IOU_THRESHOLD) pq.add(detections[j]);
+                }
+            }
+        }
+        return kept;
+    }
+
+    private static float boxIou(Boxes b, int i, int j) {
+        return boxIntersection(b, i, j) / boxUnion(b, i, j);
+    }
+
+    private static float boxIntersection(Boxes b, int i, int j) {
+        final float w = overlap((b.left[i] + b.right[i]) / 2, b.right[i] - b.left[i],
+                (b.left[j] + b.right[j]) / 2, b.right[j] - b.left[j]);
+        final float h = overlap((b.top[i] + b.bottom[i]) / 2, b.bottom[i] - b.top[i],
+                (b.top[j] + b.bottom[j]) / 2, b.bottom[j] - b.top[j]);
+        if (w < 0 || h < 0) return 0;
+        return w * h;
+    }
+
+    private static float boxUnion(Boxes b, int i, int j) {
+        final float intersection = boxIntersection(b, i, j);
+        return (b.right[i] - b.left[i]) * (b.bottom[i] - b.top[i])
+                + (b.right[j] - b.left[j]) * (b.bottom[j] - b.top[j]) - intersection;
+    }
+
+    private static float overlap(float x1, float w1, float x2, float w2) {
+        final float l1 = x1 - w1 / 2;
+        final float l2 = x2 - w2 / 2;
+        final float left = l1 > l2 ? l1 : l2;
+        final float r1 = x1 + w1 / 2;
+        final float r2 = x2 + w2 / 2;
+        final float right = r1 < r2 ? r1 : r2;
+        return right - left;
+    }
+
+    private static int run(NonMaxSuppression nms, Boxes boxes) {
+        return nms.run(boxes.left, boxes.top, boxes.right, boxes.bottom, boxes.score, boxes.detectedClass, boxes.size());
+    }
+
+    @Test
+    public void keepsTheSameBoxesAsThePerLabelLoop() {
+        final Random random = new Random(7);
+        final NonMaxSuppression nms = new NonMaxSuppression();
+        nms.setIouThreshold(IOU_THRESHOLD);
+        for (int trial = 0; trial < 200; ++trial) {
+            final Boxes boxes = randomBoxes(random);
+            final int kept = run(nms, boxes);
+
+            final Set<Integer> actual = new HashSet<Integer>();
+            for (int k = 0; k < kept; ++k) {
+                actual.add(nms.keptIndex(k));
+                if (k > 0) assertTrue(nms.keptScore(k - 1) >= nms.keptScore(k));
+            }
+            assertEquals("trial " + trial, kept, actual.size());
+            assertEquals("trial " + trial, referenceNms(boxes), actual);
+        }
+    }
+
+    private static Boxes overlappingPair() {
+        final Boxes boxes = new Boxes(3);
+        final float[][] rects = {{0, 0, 100, 100}, {5, 5, 100, 100}, {300, 300, 400, 400}};
+        final float[] scores = {0.9f, 0.8f, 0.7f};
+        final int[] classes = {0, 1, 0};
+        for (int i = 0; i < 3; ++i) {
+            boxes.left[i] = rects[i][0];
+            boxes.top[i] = rects[i][1];
+            boxes.right[i] = rects[i][2];
+            boxes.bottom[i] = rects[i][3];
+            boxes.score[i] = scores[i];
+            boxes.detectedClass[i] = classes[i];
+        }
+        return boxes;
+    }
+
+    @Test
+    public void onlyTheSameClassSuppressesUnlessClassAgnostic() {
+        final NonMaxSuppression nms = new NonMaxSuppression();
+        assertEquals(3, run(nms, overlappingPair()));
+
+        nms.setClassAware(false);
+        assertEquals(2, run(nms, overlappingPair()));
+        assertEquals(0, nms.keptIndex(0));
+        assertEquals(2, nms.keptIndex(1));
+    }
+
+    @Test
+    public void maxDetectionsKeepsTheBestScored() {
+        final NonMaxSuppression nms = new NonMaxSuppression();
+        nms.setMaxDetections(1);
+        assertEquals(1, run(nms, overlappingPair()));
+        assertEquals(0.9f, nms.keptScore(0), 0f);
+    }
+
+    @Test
+    public void softNmsDecaysOverlappingScoresInsteadOfDropping() {
+        final NonMaxSuppression nms = new NonMaxSuppression();
+        nms.setClassAware(false);
+        nms.setSoftNms(0.5f, 0.1f);
+
+        assertEquals(3, run(nms, overlappingPair()));
+        assertEquals(0, nms.keptIndex(0));
+        // The overlapping box is decayed below the far one
+        assertEquals(2, nms.keptIndex(1));
+        assertEquals(1, nms.keptIndex(2));
+        assertTrue(nms.keptScore(2) < 0.8f);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.finbot.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class YoloOutputDecoderTest {
+
+    private static final int INPUT_SIZE = 640;
+    private static final int ROWS = 25200;
+    private static final int NUM_CLASS = 6;
+    private static final float THRESHOLD = 0.3f;
+
+    // Quantization of the int8 output; values can reach a little over 1
+    private static final float SCALE = 1f / 250;
+    private static final int ZERO_POINT = 2;
+
+    /** The output as plain floats plus the buffer the interpreter would have filled. */
+    private static final class Output {
+        final float[][] values = new float[ROWS][NUM_CLASS + 5];
+        ByteBuffer buffer;
+    }
+
+    private static Output randomOutput(boolean quantized, long seed) {
+        final Random random = new Random(seed);
+        final Output output = new Output();
+        final int rowSize = NUM_CLASS + 5;
+        output.buffer = ByteBuffer.allocateDirect(ROWS * rowSize * (quantized ? 1 : 4)).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < ROWS; ++i) {
+            // Mostly background, as in a real frame, with objectness around the threshold
+            final boolean object = random.nextInt(20) == 0;
+            for (int j = 0; j < rowSize; ++j) {
+                if (quantized) {
+                    final int q = j == 4 && !object ? random.nextInt(80) : random.nextInt(256);
+                    output.buffer.put((byte) q);
+                    output.values[i][j] = SCALE * (q - ZERO_POINT);
+                } else {
+                    final float v = j == 4 && !object ? random.nextFloat() * 0.3f : random.nextFloat();
+                    output.buffer.putFloat(v);
+                    output.values[i][j] = v;
+                }
+            }
+        }
+        output.buffer.rewind();
+        return output;
+    }
+
+    // The decode recognizeImage used before it read the buffer in place: copy every row out,
+    // denormalize, then pick the best class of each row
+    private static List<float[]> referenceDecode(float[][] values, int imageWidth, int imageHeight) {
+        final float[][] out = new float[ROWS][];
+        for (int i = 0; i < ROWS; ++i) {
+            out[i] = values[i].clone();
+            for (int j = 0; j < 4; ++j) {
+                out[i][j] *= INPUT_SIZE;
+            }
+        }
+        final List<float[]> detections = new ArrayList<float[]>();
+        for (int i = 0; i < ROWS; ++i) {
+            final float confidence = out[i][4];
+            int detectedClass = -1;
+            float maxClass = 0;
+            final float[] classes = new float[NUM_CLASS];
+            for (int c = 0; c < NUM_CLASS; ++c) {
+                classes[c] = out[i][5 + c];
+            }
+            for (int c = 0; c < NUM_CLASS; ++c) {
+                if (classes[c] > maxClass) {
+                    detectedClass = c;
+                    maxClass = classes[c];
+                }
+            }
+            final float confidenceInClass = maxClass * confidence;
+            if (confidenceInClass > THRESHOLD) {
+                final float xPos = out[i][0];
+                final float yPos = out[i][1];
+                final float w = out[i][2];
+                final float h = out[i][3];
+                detections.add(new float[]{
+                        Math.max(0, xPos - w / 2),
+                        Math.max(0, yPos - h / 2),
+                        Math.min(imageWidth - 1, xPos + w / 2),
+                        Math.min(imageHeight - 1, yPos + h / 2),
+                        confidenceInClass,
+                        detectedClass});
+            }
+        }
+        return detections;
+    }
+
+    private static void assertSameAsReference(boolean quantized, long seed, int imageWidth, int imageHeight) {
+        final Output output = randomOutput(quantized, seed);
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(output.buffer, ROWS, NUM_CLASS, INPUT_SIZE,
+                quantized, SCALE, ZERO_POINT, THRESHOLD);
+
+        final List<float[]> expected = referenceDecode(output.values, imageWidth, imageHeight);
+        final int count = decoder.decode(imageWidth, imageHeight, NUM_CLASS);
+
+        assertTrue(expected.size() > 100);
+        assertEquals(expected.size(), count);
+        for (int i = 0; i < count; ++i) {
+            final float[] box = expected.get(i);
+            final String row = (quantized ? "int8" : "fp32") + " candidate " + i;
+            assertEquals(row, box[0], decoder.left[i], 0f);
+            assertEquals(row, box[1], decoder.top[i], 0f);
+            assertEquals(row, box[2], decoder.right[i], 0f);
+            assertEquals(row, box[3], decoder.bottom[i], 0f);
+            assertEquals(row, box[4], decoder.score[i], 0f);
+            assertEquals(row, (int) box[5], decoder.classes[i]);
+        }
+    }
+
+    @Test
+    public void floatOutputMatchesTheCopyingDecode() {
+        assertSameAsReference(false, 1, INPUT_SIZE, INPUT_SIZE);
+        assertSameAsReference(false, 2, 480, 640);
+    }
+
+    @Test
+    public void sigmoidFloatOutputSkipsLowObjectnessAfterTheFirstFrame() {
+        final Output output = randomOutput(false, 6);
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(output.buffer, ROWS, NUM_CLASS, INPUT_SIZE,
+                false, 0f, 0, THRESHOLD);
+
+        assertFalse(decoder.skipsLowObjectness());
+        final int first = decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS);
+        assertTrue(decoder.skipsLowObjectness());
+        assertEquals(first, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+    }
+
+    // A row with low objectness and a class score well over 1, which only logits can have
+    private static void putLogitRows(ByteBuffer buffer, boolean quantized, float scale, int zeroPoint) {
+        final int rowSize = NUM_CLASS + 5;
+        for (int i = 0; i < ROWS; ++i) {
+            final boolean object = i == 100;
+            for (int j = 0; j < rowSize; ++j) {
+                final float v = j < 4 ? 0.5f : object ? (j == 4 ? 0.2f : j == 5 ? 4f : -2f) : -6f;
+                if (quantized) {
+                    buffer.put((byte) Math.round(v / scale + zeroPoint));
+                } else {
+                    buffer.putFloat(v);
+                }
+            }
+        }
+        buffer.rewind();
+    }
+
+    @Test
+    public void logitFloatOutputKeepsLowObjectnessRows() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(ROWS * (NUM_CLASS + 5) * 4).order(ByteOrder.nativeOrder());
+        putLogitRows(buffer, false, 0f, 0);
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(buffer, ROWS, NUM_CLASS, INPUT_SIZE,
+                false, 0f, 0, THRESHOLD);
+
+        assertEquals(1, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+        assertFalse(decoder.skipsLowObjectness());
+        assertEquals(1, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+        assertEquals(0.8f, decoder.score[0], 1e-6f);
+    }
+
+    @Test
+    public void quantizedRangeDecidesUpFront() {
+        assertTrue(new YoloOutputDecoder(ByteBuffer.allocateDirect(NUM_CLASS + 5), 1, NUM_CLASS, INPUT_SIZE,
+                true, SCALE, ZERO_POINT, THRESHOLD).skipsLowObjectness());
+
+        // Covers about -12.8 to 12.7: logits, not probabilities
+        final float scale = 0.1f;
+        final int zeroPoint = 128;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(ROWS * (NUM_CLASS + 5)).order(ByteOrder.nativeOrder());
+        putLogitRows(buffer, true, scale, zeroPoint);
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(buffer, ROWS, NUM_CLASS, INPUT_SIZE,
+                true, scale, zeroPoint, THRESHOLD);
+
+        assertFalse(decoder.skipsLowObjectness());
+        assertEquals(1, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+        assertEquals(1, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+    }
+
+    @Test
+    public void quantizedOutputMatchesTheCopyingDecode() {
+        assertSameAsReference(true, 3, INPUT_SIZE, INPUT_SIZE);
+        assertSameAsReference(true, 4, 640, 360);
+    }
+
+    @Test
+    public void decodingAgainReadsTheBufferAfresh() {
+        final Output output = randomOutput(false, 5);
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(output.buffer, ROWS, NUM_CLASS, INPUT_SIZE,
+                false, 0f, 0, THRESHOLD);
+        final int first = decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS);
+
+        // Nothing in the next frame reaches the threshold
+        for (int i = 0; i < ROWS; ++i) {
+            output.buffer.putFloat((i * (NUM_CLASS + 5) + 4) * 4, 0f);
+        }
+
+        assertTrue(first > 0);
+        assertEquals(0, decoder.decode(INPUT_SIZE, INPUT_SIZE, NUM_CLASS));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.finbot.model
+
+import com.example.finbot.util.LedgerCodec
+import com.google.gson.Gson
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Test
+
+// Gson builds records without running their constructors; the parsed date and amount must
+// come out right anyway, without a LedgerCodec.typed pass
+class DerivedFieldsTest {
+
+    private val gson = Gson()
+    private val march1 = LedgerCodec.epochDay(2024, 3, 1)
+
+    @Test
+    fun gsonDecodedExpenseParsesDateAndAmount() {
+        val expense = gson.fromJson(
+            "{\"name\":\"Lunch\",\"date\":\"01-03-2024\",\"amount\":\"12.34\",\"categoryId\":1,\"id\":\"a\"}",
+            Expense::class.java
+        )
+
+        assertEquals(march1, expense.epochDay)
+        assertEquals(1234L, expense.amountMinor)
+    }
+
+    @Test
+    fun gsonDecodedEarningParsesDateAndAmount() {
+        val earning = gson.fromJson(
+            "{\"id\":\"a\",\"amount\":99.5,\"date\":\"2024-03-01\",\"userId\":\"u\"}",
+            Earning::class.java
+        )
+
+        assertEquals(march1, earning.epochDay)
+        assertEquals(9950L, earning.amountMinor)
+    }
+
+    @Test
+    fun parsedFieldsAreNotWritten() {
+        val expense = Expense(0, "Lunch", "Food", "01-03-2024", "12:00", "1.00", 1, "a")
+        expense.epochDay
+
+        val json = gson.toJson(expense)
+        assertFalse(json, json.contains("parsed"))
+        // And copies made from a decoded record parse their own values
+        val earning = gson.fromJson(gson.toJson(Earning("a", "Salary", 1.0, "01-03-2024", "09:00", "u")), Earning::class.java)
+        assertEquals(200L, earning.copy(amount = 2.0).amountMinor)
+    }
+}
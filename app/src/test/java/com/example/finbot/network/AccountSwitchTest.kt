@@ -0,0 +1,99 @@
+package com.example.finbot.network
+
+import com.example.finbot.TestContext
+import com.example.finbot.data.FinanceRepository
+import com.example.finbot.model.Expense
+import com.example.finbot.util.SharedPreferencesManager
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.AfterClass
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+
+// The repository, sync and write queue are process-wide singletons, so every test here shares
+// one context and one server, and uses user ids of its own
+class AccountSwitchTest {
+
+    companion object {
+        private val server = MockWebServer()
+        private lateinit var repository: FinanceRepository
+        private lateinit var prefs: SharedPreferencesManager
+
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            // Every user's server list holds one expense named after them; writes fail, so
+            // anything added stays queued
+            server.dispatcher = object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse {
+                    if (request.method != "GET") return MockResponse().setResponseCode(500)
+                    val userId = request.requestUrl?.queryParameter("userId") ?: ""
+                    return MockResponse().setBody(
+                        "[{\"id\":\"$userId-1\",\"name\":\"$userId\",\"date\":\"01-03-2024\"," +
+                            "\"time\":\"12:00\",\"amount\":\"10.00\",\"categoryId\":1}]"
+                    )
+                }
+            }
+            server.start()
+            ApiClient.configure(server.url("/").toString())
+            val context = TestContext.shared
+            repository = FinanceRepository.getInstance(context)
+            prefs = SharedPreferencesManager.getInstance(context)
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun tearDownClass() {
+            server.shutdown()
+        }
+    }
+
+    private fun expense(name: String) = Expense(0, name, "Food", "02-03-2024", "09:00", "3.00", 1, "")
+
+    private fun names(): List<String> = prefs.getExpenses().map { it.name }
+
+    @Test
+    fun nextAccountAfterLogoutStartsFromEmptyJournals() {
+        assertEquals(listOf("alice1"), repository.syncExpenses("alice1")?.map { it.name })
+
+        repository.signOut()
+        repository.addExpense("bob1", expense("bob's lunch"))
+
+        assertEquals(listOf("bob's lunch"), names())
+        // Bob's write is still queued, so there is nothing new to show and no server list yet
+        assertNull(repository.syncExpenses("bob1"))
+        assertNull(repository.storedExpenses("bob1"))
+        assertNull(repository.storedExpenses("alice1"))
+    }
+
+    @Test
+    fun writeForAnotherAccountDropsTheMirrorFirst() {
+        repository.syncExpenses("alice2")
+        assertTrue(prefs.isExpenseMirrorOf("alice2"))
+
+        // No logout in between, e.g. the session was replaced by a new login
+        repository.addExpense("bob2", expense("bob's dinner"))
+
+        assertEquals(listOf("bob's dinner"), names())
+        assertFalse(prefs.isExpenseMirrorOf("alice2"))
+        assertNull(repository.syncExpenses("bob2"))
+        assertNull(repository.storedExpenses("alice2"))
+    }
+
+    @Test
+    fun syncForAnotherAccountReplacesTheMirror() {
+        repository.syncExpenses("alice3")
+        assertEquals(listOf("alice3"), names())
+
+        assertEquals(listOf("bob3"), repository.syncExpenses("bob3")?.map { it.name })
+        assertEquals(listOf("bob3"), names())
+        assertNull(repository.storedExpenses("alice3"))
+        assertTrue(prefs.isJournalOwner("bob3"))
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.finbot.network
+
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.SocketPolicy
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+class ApiClientTest {
+
+    private lateinit var server: MockWebServer
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+        ApiClient.configure(server.url("/").toString())
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    // OkHttp's own silent retry would hide the disconnects from ApiClient
+    private fun configureWithoutTransportRetry() {
+        ApiClient.configure(
+            server.url("/").toString(),
+            OkHttpClient.Builder()
+                .readTimeout(2, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(false)
+                .build()
+        )
+    }
+
+    @Test
+    fun requestsReuseOneConnection() {
+        server.enqueue(MockResponse().setBody("{\"total\":1}"))
+        server.enqueue(MockResponse().setBody("{\"total\":2}"))
+        val client = ApiClient.getInstance()
+
+        assertEquals(1, client.get("/api/expenses/total?userId=1").requireJsonObject().getInt("total"))
+        assertEquals(2, client.get("/api/budget/get?userId=1").requireJsonObject().getInt("total"))
+
+        assertEquals(0, server.takeRequest().sequenceNumber)
+        // Second request on the same keep-alive connection
+        assertEquals(1, server.takeRequest().sequenceNumber)
+    }
+
+    @Test
+    fun getRetriesDroppedConnectionsWithBackoff() {
+        configureWithoutTransportRetry()
+        server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST))
+        server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST))
+        server.enqueue(MockResponse().setBody("[]"))
+
+        val start = System.nanoTime()
+        val response = ApiClient.getInstance().get("/api/expenses?userId=1")
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertEquals(200, response.code)
+        assertEquals(3, server.requestCount)
+        // At least half of the 300ms and 600ms backoffs
+        assertTrue("retried after ${elapsedMs}ms", elapsedMs >= 450)
+    }
+
+    @Test
+    fun getGivesUpAfterThreeAttempts() {
+        configureWithoutTransportRetry()
+        repeat(3) { server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST)) }
+
+        try {
+            ApiClient.getInstance().get("/api/expenses?userId=1")
+            fail("expected an IOException")
+        } catch (e: IOException) {
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun getRetriesServerErrors() {
+        server.enqueue(MockResponse().setResponseCode(503))
+        server.enqueue(MockResponse().setResponseCode(500))
+        server.enqueue(MockResponse().setBody("{\"budget\":100}"))
+
+        val response = ApiClient.getInstance().get("/api/budget/get?userId=1")
+
+        assertEquals(200, response.code)
+        assertEquals(100, response.requireJsonObject().getInt("budget"))
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test
+    fun lastServerErrorComesBackWithItsBody() {
+        repeat(3) { server.enqueue(MockResponse().setResponseCode(500).setBody("{\"error\":\"down\"}")) }
+
+        val response = ApiClient.getInstance().get("/api/budget/get?userId=1")
+
+        assertEquals(500, response.code)
+        assertEquals("down", response.requireJsonObject().getString("error"))
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test
+    fun clientErrorIsNotRetriedAndKeepsItsBody() {
+        server.enqueue(MockResponse().setResponseCode(404).setBody("{\"message\":\"No budget\"}"))
+
+        val response = ApiClient.getInstance().get("/api/budget/get?userId=1")
+
+        assertEquals(404, response.code)
+        assertEquals(false, response.isSuccessful)
+        assertEquals("No budget", response.jsonObject?.getString("message"))
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun writesAreNotRetried() {
+        server.enqueue(MockResponse().setResponseCode(503).setBody("busy"))
+
+        val response = ApiClient.getInstance().post("/api/expenses", "{}", "key-1")
+
+        assertEquals(503, response.code)
+        assertEquals("busy", response.body)
+        assertEquals(1, server.requestCount)
+        assertEquals("key-1", server.takeRequest().getHeader("Idempotency-Key"))
+    }
+
+    @Test
+    fun streamedGetReportsStatusErrors() {
+        server.enqueue(MockResponse().setResponseCode(403).setBody("nope"))
+
+        try {
+            ApiClient.getInstance().getStreamed("/api/expenses?userId=1", conditional = false) { it.skipValue() }
+            fail("expected an HttpStatusException")
+        } catch (e: HttpStatusException) {
+            assertEquals(403, e.code)
+            assertEquals(1, server.requestCount)
+        }
+    }
+
+    @Test
+    fun concurrentIdenticalGetsShareOneRequest() {
+        server.enqueue(MockResponse().setBody("{\"total\":5}").setBodyDelay(300, TimeUnit.MILLISECONDS))
+        val client = ApiClient.getInstance()
+        val leaderResponse = AtomicReference<ApiResponse>()
+
+        val leader = Thread { leaderResponse.set(client.get("/api/expenses/total?userId=1")) }
+        leader.start()
+        server.takeRequest()
+        // The leader is now waiting for the delayed body
+        val response = client.get("/api/expenses/total?userId=1")
+        leader.join()
+
+        assertSame(leaderResponse.get(), response)
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun waitersMakeTheirOwnCallWhenTheLeaderIsInterrupted() {
+        // A body slow enough to interrupt the leader halfway through it
+        server.enqueue(MockResponse().setBody("[" + "1,".repeat(200) + "1]").throttleBody(16, 100, TimeUnit.MILLISECONDS))
+        server.enqueue(MockResponse().setBody("[2]"))
+        val client = ApiClient.getInstance()
+        val leaderFailure = AtomicReference<Throwable>()
+        val waiterResponse = AtomicReference<ApiResponse>()
+        val leaderStarted = CountDownLatch(1)
+
+        val leader = Thread {
+            try {
+                leaderStarted.countDown()
+                client.get("/api/expenses?userId=1")
+            } catch (e: Throwable) {
+                leaderFailure.set(e)
+            }
+        }
+        leader.start()
+        leaderStarted.await()
+        server.takeRequest()
+        val waiter = Thread { waiterResponse.set(client.get("/api/expenses?userId=1")) }
+        waiter.start()
+        // Give the waiter time to join the leader's request
+        Thread.sleep(200)
+        leader.interrupt()
+        leader.join()
+        waiter.join(5_000)
+
+        assertNotNull(leaderFailure.get())
+        assertEquals("[2]", waiterResponse.get()?.body)
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun openBreakerServesOnlyValidCachedCopies() {
+        server.enqueue(MockResponse().setBody("{\"budget\":1}"))
+        server.enqueue(MockResponse().setBody("{}"))
+        server.enqueue(MockResponse().setBody("{\"total\":2}"))
+        repeat(3) { server.enqueue(MockResponse().setResponseCode(503)) }
+        val client = ApiClient.getInstance()
+
+        client.get("/api/budget/get?userId=1")
+        client.post("/api/expenses", "{}")
+        val fresh = client.get("/api/expenses/total?userId=1")
+        // Three 503s in a row open the breaker
+        assertEquals(503, client.get("/api/earnings?userId=1").code)
+
+        assertSame(fresh, client.get("/api/expenses/total?userId=1"))
+        try {
+            // Invalidated by the write, so there is nothing it may show
+            client.get("/api/budget/get?userId=1")
+            fail("expected BackendUnavailableException")
+        } catch (e: BackendUnavailableException) {
+            assertEquals(6, server.requestCount)
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.finbot.network
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import okio.GzipSink
+import okio.buffer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+
+class CompressionInterceptorTest {
+
+    private lateinit var server: MockWebServer
+    private val client = OkHttpClient.Builder().addInterceptor(CompressionInterceptor()).build()
+
+    // Repetitive, like the transaction lists, so it compresses well
+    private val json = (1..200).joinToString(",", "[", "]") {
+        "{\"id\":\"$it\",\"name\":\"Lunch\",\"amount\":\"12.50\",\"categoryId\":1}"
+    }
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun gzip(text: String): Buffer {
+        val buffer = Buffer()
+        GzipSink(buffer).buffer().use { it.writeUtf8(text) }
+        return buffer
+    }
+
+    private fun deflate(text: String, zlibWrapped: Boolean): Buffer {
+        val buffer = Buffer()
+        DeflaterOutputStream(buffer.outputStream(), Deflater(Deflater.DEFAULT_COMPRESSION, !zlibWrapped)).use {
+            it.write(text.toByteArray())
+        }
+        return buffer
+    }
+
+    private fun fetch(): Pair<String, okhttp3.Response> {
+        val response = client.newCall(Request.Builder().url(server.url("/api/expenses")).build()).execute()
+        return response.use { (it.body?.string() ?: "") to it }
+    }
+
+    @Test
+    fun asksForGzipAndDeflate() {
+        server.enqueue(MockResponse().setBody("[]"))
+        fetch()
+        assertEquals("gzip, deflate", server.takeRequest().getHeader("Accept-Encoding"))
+    }
+
+    @Test
+    fun inflatesGzip() {
+        val compressed = gzip(json)
+        assertTrue(compressed.size < json.length / 4)
+        server.enqueue(MockResponse().setBody(compressed).setHeader("Content-Encoding", "gzip"))
+
+        val (body, response) = fetch()
+
+        assertEquals(json, body)
+        assertNull(response.header("Content-Encoding"))
+        assertNull(response.header("Content-Length"))
+    }
+
+    @Test
+    fun inflatesZlibDeflate() {
+        server.enqueue(MockResponse().setBody(deflate(json, true)).setHeader("Content-Encoding", "deflate"))
+        assertEquals(json, fetch().first)
+    }
+
+    @Test
+    fun inflatesRawDeflate() {
+        server.enqueue(MockResponse().setBody(deflate(json, false)).setHeader("Content-Encoding", "Deflate"))
+        assertEquals(json, fetch().first)
+    }
+
+    @Test
+    fun leavesPlainAndUnknownEncodingsAlone() {
+        server.enqueue(MockResponse().setBody(json))
+        assertEquals(json, fetch().first)
+
+        server.enqueue(MockResponse().setBody("br-bytes").setHeader("Content-Encoding", "br"))
+        val (body, response) = fetch()
+        assertEquals("br-bytes", body)
+        assertEquals("br", response.header("Content-Encoding"))
+    }
+
+    @Test
+    fun callerChosenEncodingIsPassedThrough() {
+        val compressed = gzip(json)
+        server.enqueue(MockResponse().setBody(compressed.clone()).setHeader("Content-Encoding", "gzip"))
+
+        val response = client.newCall(
+            Request.Builder().url(server.url("/api/expenses")).header("Accept-Encoding", "gzip").build()
+        ).execute()
+
+        assertEquals(compressed.readByteString(), response.use { it.body!!.source().readByteString() })
+    }
+}
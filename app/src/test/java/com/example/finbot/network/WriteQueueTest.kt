@@ -0,0 +1,112 @@
+package com.example.finbot.network
+
+import com.example.finbot.TestContext
+import com.example.finbot.model.Expense
+import com.example.finbot.util.SharedPreferencesManager
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.AfterClass
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+// WriteQueue is a process-wide singleton and may still hold writes queued by other test classes,
+// so the server answers anything it is sent and the assertions only look at this test's records
+class WriteQueueTest {
+
+    private class Sent(val request: RecordedRequest, val body: String, val atNanos: Long)
+
+    companion object {
+        private val server = MockWebServer()
+        private val sent = ArrayList<Sent>()
+        // Batches that include this name get a 2xx the queue can't read
+        @Volatile
+        private var garbleBatchesWith: String? = null
+        private lateinit var queue: WriteQueue
+        private lateinit var prefs: SharedPreferencesManager
+
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            server.dispatcher = object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse {
+                    val body = request.body.readUtf8()
+                    synchronized(sent) { sent.add(Sent(request, body, System.nanoTime())) }
+                    return when (request.path) {
+                        "/api/batch" -> answerBatch(body)
+                        else -> MockResponse().setResponseCode(201).setBody(created(request.getHeader("Idempotency-Key")))
+                    }
+                }
+            }
+            server.start()
+            ApiClient.configure(server.url("/").toString())
+            val context = TestContext.shared
+            queue = WriteQueue.getInstance(context)
+            prefs = SharedPreferencesManager.getInstance(context)
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun tearDownClass() {
+            server.shutdown()
+        }
+
+        private fun created(key: String?) = JSONObject().put("id", "srv-$key").toString()
+
+        private fun answerBatch(body: String): MockResponse {
+            val marker = garbleBatchesWith
+            if (marker != null && body.contains(marker)) {
+                return MockResponse().setBody("<html>Welcome</html>")
+            }
+            val results = JSONArray()
+            val operations = JSONObject(body).getJSONArray("operations")
+            for (i in 0 until operations.length()) {
+                val key = operations.getJSONObject(i).getString("key")
+                results.put(JSONObject().put("key", key).put("code", 201).put("body", JSONObject(created(key))))
+            }
+            return MockResponse().setBody(JSONObject().put("results", results).toString())
+        }
+    }
+
+    private fun expense(name: String) = Expense(0, name, "Food", "02-03-2024", "09:00", "3.00", 1, "")
+
+    private fun sentSoFar(): List<Sent> = synchronized(sent) { ArrayList(sent) }
+
+    @Test
+    fun unreadableBatchAnswerIsResentOneByOneInTheSameFlush() {
+        garbleBatchesWith = "dave's"
+        queue.addExpense("dave", expense("dave's coffee"))
+        queue.addExpense("dave", expense("dave's bread"))
+
+        // Both adds settle with the server's ids
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (prefs.getExpenses().count { it.name.startsWith("dave's") && it.id.startsWith("srv-") } < 2) {
+            assertTrue("adds were not delivered", System.nanoTime() < deadline)
+            Thread.sleep(50)
+        }
+
+        val requests = sentSoFar()
+        val batch = requests.single { it.request.path == "/api/batch" && it.body.contains("dave's") }
+        val operations = JSONObject(batch.body).getJSONArray("operations")
+        val keys = ArrayList<String>()
+        for (i in 0 until operations.length()) {
+            val operation = operations.getJSONObject(i)
+            val key = operation.getString("key")
+            keys.add(key)
+            val resends = requests.filter { it.request.getHeader("Idempotency-Key") == key }
+            // Once each, under the key the batch used
+            assertEquals(1, resends.size)
+            assertEquals(operation.getString("path"), resends[0].request.path)
+            // Well inside the shortest retry backoff, so in the same flush and not as a failed attempt
+            assertTrue(resends[0].atNanos - batch.atNanos < TimeUnit.MILLISECONDS.toNanos(1_500))
+        }
+        val ids = prefs.getExpenses().filter { it.name.startsWith("dave's") }.map { it.id }
+        assertTrue(keys.map { "srv-$it" }.containsAll(ids))
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.finbot.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.DataOutputStream
+import java.io.FileOutputStream
+
+class JournalStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun reopenedStoreHasTheSameRecords() {
+        val file = folder.newFile("expenses.journal")
+        JournalStore(file).apply {
+            put("a", "1")
+            put("b", "2")
+            put("a", "3")
+            remove("b")
+        }
+
+        val reopened = JournalStore(file)
+        assertEquals(listOf("a"), reopened.keys())
+        assertEquals("3", reopened.get("a"))
+    }
+
+    @Test
+    fun tornTailIsDroppedOnOpen() {
+        val file = folder.newFile("expenses.journal")
+        JournalStore(file).put("a", "1")
+        val validLength = file.length()
+        // A record cut off halfway through its key
+        DataOutputStream(FileOutputStream(file, true)).use { out ->
+            out.writeByte(1)
+            out.writeInt(10)
+            out.write("ab".toByteArray())
+        }
+
+        val store = JournalStore(file)
+        assertEquals("1", store.get("a"))
+        assertEquals(validLength, file.length())
+    }
+
+    @Test
+    fun corruptLengthsStopTheScanInsteadOfAllocating() {
+        for (length in listOf(-1, Int.MAX_VALUE)) {
+            val file = folder.newFile("corrupt$length.journal")
+            JournalStore(file).put("a", "1")
+            val validLength = file.length()
+            DataOutputStream(FileOutputStream(file, true)).use { out ->
+                out.writeByte(1)
+                out.writeInt(length)
+                out.write(ByteArray(16))
+            }
+
+            val store = JournalStore(file)
+            assertEquals(listOf("a"), store.keys())
+            assertEquals(validLength, file.length())
+        }
+    }
+
+    @Test
+    fun corruptPayloadLengthIsTreatedAsTornTail() {
+        val file = folder.newFile("expenses.journal")
+        JournalStore(file).put("a", "1")
+        DataOutputStream(FileOutputStream(file, true)).use { out ->
+            out.writeByte(1)
+            out.writeInt(1)
+            out.write("b".toByteArray())
+            out.writeInt(-5)
+        }
+
+        val store = JournalStore(file)
+        assertNull(store.get("b"))
+        assertEquals("1", store.get("a"))
+    }
+
+    @Test
+    fun replaceAllSwapsInTheNewContentAndLeavesNoTempFile() {
+        val file = folder.newFile("expenses.journal")
+        val store = JournalStore(file)
+        store.put("a", "1")
+        store.replaceAll(listOf("x" to "9", "y" to "8"))
+
+        assertEquals(listOf("x", "y"), store.keys())
+        assertEquals("8", JournalStore(file).get("y"))
+        assertFalse(folder.root.resolve("expenses.journal.tmp").exists())
+    }
+
+    @Test
+    fun compactionKeepsLiveRecords() {
+        val file = folder.newFile("expenses.journal")
+        val store = JournalStore(file)
+        repeat(200) { store.put("k${it % 3}", "v$it") }
+        val reopened = JournalStore(file)
+
+        assertEquals(listOf("k0", "k1", "k2"), reopened.keys())
+        assertEquals("v199", reopened.get("k1"))
+        assertEquals(store.keys(), reopened.keys())
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.finbot.util
+
+import com.example.finbot.TestContext
+import com.example.finbot.model.Earning
+import com.example.finbot.model.Expense
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SharedPreferencesManagerTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun expense(id: String, amount: String = "10.00", name: String = "Lunch") =
+        Expense(0, name, "Food", "01-03-2024", "12:00", amount, 1, id)
+
+    private fun earning(id: String, amount: Double = 100.0) =
+        Earning(id, "Salary", amount, "01-03-2024", "09:00", "user")
+
+    @Test
+    fun expenseWritesKeepJournalOrderAndAreVisibleToReads() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.addExpense(expense("a"))
+        manager.addExpense(expense("b"))
+        manager.addExpense(expense("c"))
+        assertEquals(listOf("a", "b", "c"), manager.getExpenses().map { it.id })
+
+        manager.updateExpense(expense("b"), expense("b", "25.00"))
+        manager.deleteExpense(expense("a"))
+        manager.addExpense(expense("d"))
+
+        assertEquals(listOf("b", "c", "d"), manager.getExpenses().map { it.id })
+        assertEquals("25.00", manager.getExpense("b")?.amount)
+        assertNull(manager.getExpense("a"))
+    }
+
+    @Test
+    fun rekeyedExpenseMovesToTheEndLikeTheJournal() {
+        val context = TestContext(folder.root)
+        val manager = SharedPreferencesManager(context)
+        manager.saveExpenses(listOf(expense("a"), expense("b"), expense("c")))
+        manager.updateExpense(expense("a"), expense("z"))
+
+        assertEquals(listOf("b", "c", "z"), manager.getExpenses().map { it.id })
+        manager.invalidateTransactionCache()
+        assertEquals(listOf("b", "c", "z"), manager.getExpenses().map { it.id })
+    }
+
+    @Test
+    fun expenseRekeyedOntoAnExistingIdKeepsThatIdsPlace() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.saveExpenses(listOf(expense("a"), expense("b"), expense("c")))
+        manager.updateExpense(expense("c"), expense("a", "5.00"))
+
+        assertEquals(listOf("a", "b"), manager.getExpenses().map { it.id })
+        assertEquals("5.00", manager.getExpense("a")?.amount)
+        manager.invalidateTransactionCache()
+        assertEquals(listOf("a", "b"), manager.getExpenses().map { it.id })
+        assertEquals(15.0, manager.getMonthlyExpenses(2024, 2), 0.001)
+    }
+
+    @Test
+    fun readsBetweenWritesShareOneSnapshot() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.addExpense(expense("a"))
+        val first = manager.getExpenses()
+        assertSame(first, manager.getExpenses())
+
+        manager.addExpense(expense("b"))
+        // The list already handed out stays as it was
+        assertEquals(listOf("a"), first.map { it.id })
+        assertEquals(listOf("a", "b"), manager.getExpenses().map { it.id })
+    }
+
+    @Test
+    fun monthlyTotalsFollowExpenseWrites() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.addExpense(expense("a", "10.00"))
+        manager.addExpense(expense("b", "5.50"))
+        assertEquals(15.5, manager.getMonthlyExpenses(2024, 2), 0.001)
+
+        manager.updateExpense(expense("a"), expense("a", "1.00"))
+        manager.deleteExpense(expense("b"))
+        assertEquals(1.0, manager.getMonthlyExpenses(2024, 2), 0.001)
+    }
+
+    @Test
+    fun earningWritesUpdateTheIndexInPlace() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.addEarning(earning("a"))
+        manager.addEarning(earning("b"))
+        manager.addEarning(earning("c"))
+        val before = manager.getEarnings()
+
+        manager.addEarning(earning("a", 150.0))
+        manager.updateEarning(earning("b"), earning("x", 20.0))
+        manager.deleteEarning(earning("c"))
+
+        assertEquals(listOf("a", "b", "c"), before.map { it.id })
+        assertEquals(listOf("a", "x"), manager.getEarnings().map { it.id })
+        assertEquals(150.0, manager.getEarning("a")!!.amount, 0.0)
+        assertNull(manager.getEarning("b"))
+        assertEquals(170.0, manager.getMonthlyEarnings(2024, 2), 0.001)
+
+        manager.invalidateTransactionCache()
+        assertEquals(listOf("a", "x"), manager.getEarnings().map { it.id })
+        assertEquals(20.0, manager.getEarning("x")!!.amount, 0.0)
+    }
+
+    @Test
+    fun earningRekeyedOntoAnExistingIdKeepsThatIdsPlace() {
+        val manager = SharedPreferencesManager(TestContext(folder.root))
+        manager.saveEarnings(listOf(earning("a"), earning("b"), earning("c")))
+        manager.updateEarning(earning("c"), earning("a", 5.0))
+
+        assertEquals(listOf("a", "b"), manager.getEarnings().map { it.id })
+        manager.invalidateTransactionCache()
+        assertEquals(listOf("a", "b"), manager.getEarnings().map { it.id })
+        assertEquals(105.0, manager.getMonthlyEarnings(2024, 2), 0.001)
+    }
+}